@@ -0,0 +1,16 @@
+package me.bechberger.ebpf.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Interns the parsed strings of a string member, so that strings with the same content
+ * are the same {@code String} instance
+ * <p>
+ * Useful for strings with only a few different values, like process names,
+ * see {@code me.bechberger.ebpf.type.StringCodec}
+ */
+@Target({ElementType.TYPE_USE, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Interned {
+}
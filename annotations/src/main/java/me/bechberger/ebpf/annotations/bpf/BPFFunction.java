@@ -76,5 +76,10 @@ public @interface BPFFunction {
 
     boolean addDefinition() default true;
 
-    Set<String> autoAttachableSections = Set.of("fentry", "fexit", "kprobe", "kretprobe");
+    /**
+     * Base sections that can be auto-attached, {@code kprobe.multi/pattern} and {@code kretprobe.multi/pattern}
+     * attach a single program to all kernel functions matching the glob pattern with one link
+     */
+    Set<String> autoAttachableSections = Set.of("fentry", "fexit", "kprobe", "kretprobe", "kprobe.multi",
+            "kretprobe.multi");
 }
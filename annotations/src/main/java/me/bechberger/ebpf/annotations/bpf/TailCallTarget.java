@@ -0,0 +1,45 @@
+package me.bechberger.ebpf.annotations.bpf;
+
+import java.lang.annotation.*;
+
+/**
+ * Registers a {@link BPFFunction} as a stage of a tail call dispatch chain,
+ * by placing it into a program array map when the program is loaded
+ * <p>
+ * The function has to be a separate program (so it needs a {@link BPFFunction#section()})
+ * with the same program type as its callers.
+ * <p>
+ * Example:
+ * {@snippet :
+ *   @BPFMapDefinition(maxEntries = 2)
+ *   BPFProgArray stages;
+ *
+ *   @BPFFunction(section = "xdp")
+ *   @TailCallTarget(map = "stages", index = 0)
+ *   public xdp_action parseStage(Ptr<xdp_md> ctx) {
+ *       // ...
+ *       stages.tailCall(ctx, 1);
+ *       return xdp_action.XDP_PASS;
+ *   }
+ *
+ *   @BPFFunction(section = "xdp")
+ *   @TailCallTarget(map = "stages", index = 1)
+ *   public xdp_action policyStage(Ptr<xdp_md> ctx) {
+ *       // ...
+ *   }
+ * }
+ * A single stage can later be replaced by setting another program at its index.
+ * <p>
+ * For programs written in C, annotate a Java method with the name of the C function.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface TailCallTarget {
+
+    /** Name of the program array map field */
+    String map();
+
+    /** Index of the function in the program array */
+    int index();
+}
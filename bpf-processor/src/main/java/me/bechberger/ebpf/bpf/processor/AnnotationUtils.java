@@ -14,6 +14,7 @@ public class AnnotationUtils {
     public final static String SIZES_ANNOTATION = "me.bechberger.ebpf.annotations.Sizes";
     public final static String UNSIGNED_ANNOTATION = "me.bechberger.ebpf.annotations.Unsigned";
     public final static String OFFSET_ANNOTATION = "me.bechberger.ebpf.annotations.Offset";
+    public final static String INTERNED_ANNOTATION = "me.bechberger.ebpf.annotations.Interned";
 
     /**
      * Get a specific annotation which is present on the element (if not present returns {@code Optional.empty()})
@@ -49,18 +50,19 @@ public class AnnotationUtils {
         return getAnnotationMirror(element, annotationName).isPresent();
     }
 
-    public record AnnotationValues(boolean unsigned, List<Integer> size, Optional<Integer> offset) {
+    public record AnnotationValues(boolean unsigned, List<Integer> size, Optional<Integer> offset, boolean interned) {
         AnnotationValues dropSize() {
-            return new AnnotationValues(unsigned, size.subList(1, size.size()), offset);
+            return new AnnotationValues(unsigned, size.subList(1, size.size()), offset, interned);
         }
         AnnotationValues dropOffset() {
-            return new AnnotationValues(unsigned, size, Optional.empty());
+            return new AnnotationValues(unsigned, size, Optional.empty(), interned);
         }
 
         enum AnnotationKind {
             SIZE,
             UNSIGNED,
-            OFFSET;
+            OFFSET,
+            INTERNED;
 
             @Override
             public String toString() {
@@ -73,6 +75,7 @@ public class AnnotationUtils {
                 case SIZE -> !size.isEmpty();
                 case UNSIGNED -> unsigned;
                 case OFFSET -> offset.isPresent();
+                case INTERNED -> interned;
             };
         }
 
@@ -92,7 +95,7 @@ public class AnnotationUtils {
         public AnnotationValues addSizes(List<Integer> sizes) {
             var newSizes = new ArrayList<>(size);
             newSizes.addAll(sizes);
-            return new AnnotationValues(unsigned, newSizes, offset);
+            return new AnnotationValues(unsigned, newSizes, offset, interned);
         }
     }
 
@@ -103,6 +106,7 @@ public class AnnotationUtils {
     @SuppressWarnings("unchecked")
     public static AnnotationValues getAnnotationValuesForRecordMember(AnnotatedConstruct element) {
         boolean unsigned = hasAnnotation(element, UNSIGNED_ANNOTATION);
+        boolean interned = hasAnnotation(element, INTERNED_ANNOTATION);
         List<Integer> sizes = new ArrayList<>();
         Consumer<AnnotatedConstruct> process = con -> {
             var sizeAnnotations = getAnnotationMirrors(con, SIZE_ANNOTATION);
@@ -122,6 +126,6 @@ public class AnnotationUtils {
             element = ((ArrayType) element).getComponentType();
         }
         Optional<Integer> offset = getAnnotationMirror(element, OFFSET_ANNOTATION).map(a -> getAnnotationValue(a, "value", 0));
-        return new AnnotationValues(unsigned, sizes, offset);
+        return new AnnotationValues(unsigned, sizes, offset, interned);
     }
 }
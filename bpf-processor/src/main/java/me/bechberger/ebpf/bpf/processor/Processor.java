@@ -214,6 +214,8 @@ public class Processor extends AbstractProcessor {
                         .addField(FieldSpec.builder(String.class, "CODE", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
                                 .initializer("$S", code.ebpfProgram).build());
         bpfTypeFields.forEach(spec::addField);
+        code.tp.codecs().forEach(spec::addType);
+        code.tp.views().forEach(spec::addType);
         spec.addMethod(MethodSpec.methodBuilder("getByteCodeBytesStatic")
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC).returns(String.class)
                 .addStatement("return BYTE_CODE + \"\"").build());
@@ -1,6 +1,8 @@
 package me.bechberger.ebpf.bpf.processor;
 
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.TypeSpec;
 import com.sun.tools.javac.code.Attribute.Constant;
 import com.sun.tools.javac.code.Type.ClassType;
 import com.sun.tools.javac.tree.JCTree.JCNewClass;
@@ -29,6 +31,7 @@ import org.jetbrains.annotations.Nullable;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.*;
 import javax.lang.model.type.*;
+import javax.tools.Diagnostic;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
@@ -200,7 +203,13 @@ public class TypeProcessor {
         }).toList();
     }
 
-    public record TypeProcessorResult(List<FieldSpec> fields, List<Define> defines, List<CAST.Statement> definingStatements,
+    /**
+     * @param codecs codec classes of the struct types in {@code fields}, see {@link BPFStructType#toCodecTypeSpec(String)}
+     * @param views  {@link StructView} classes of the struct types declared directly in the processed class
+     */
+    public record TypeProcessorResult(List<FieldSpec> fields, List<TypeSpec> codecs, List<TypeSpec> views,
+                               List<Define> defines,
+                               List<CAST.Statement> definingStatements,
                                @Nullable Statement licenseDefinition, List<MapDefinition> mapDefinitions,
                                List<GlobalVariableDefinition> globalVariableDefinitions, InterfaceAdditions additions) {
     }
@@ -245,7 +254,7 @@ public class TypeProcessor {
             }
             var type = processBPFTypeRecord(unprocessed.getFirst());
             if (type.isEmpty()) {
-                return new TypeProcessorResult(List.of(), List.of(), List.of(), null, List.of(), createGlobalVariableDefinitions(outerTypeElement, typeToSpecField),
+                return new TypeProcessorResult(List.of(), List.of(), List.of(), List.of(), List.of(), null, List.of(), createGlobalVariableDefinitions(outerTypeElement, typeToSpecField),
                         new InterfaceAdditions(List.of(), List.of(), List.of()));
             }
             alreadyDefinedTypes.put(type.get().getJavaName(), type.get());
@@ -257,6 +266,8 @@ public class TypeProcessor {
                 type -> definedTypes.getSpecFieldName(type.getBPFName()).get());
 
         List<FieldSpec> fields = new ArrayList<>();
+        List<TypeSpec> codecs = new ArrayList<>();
+        List<TypeSpec> views = new ArrayList<>();
         List<CAST.Statement> definingStatements = new ArrayList<>();
 
         // add custom type definitions
@@ -275,6 +286,20 @@ public class TypeProcessor {
             var spec = actualType.toFieldSpecGenerator().get().apply(fieldSpecName,
                     t -> t.toJavaFieldSpecUse(t2 -> typeToSpecField.apply(BPFTypeLike.of(t2)).name()));
             fields.add(spec);
+            if (actualType instanceof BPFStructType<?> structType) {
+                structType.toCodecTypeSpec(BPFStructType.codecClassName(fieldSpecName)).ifPresent(codecs::add);
+                if (processedType.getEnclosingElement().equals(outerTypeElement)) {
+                    var view = structType.toViewTypeSpec(processedType.getSimpleName() + "View",
+                            CodeBlock.of("$L", fieldSpecName));
+                    if (view.isPresent()) {
+                        views.add(view.get());
+                    } else {
+                        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No view generated " +
+                                "for " + processedType.getSimpleName() + ", as it has an inline union or a member " +
+                                "name clashes with the view methods", processedType);
+                    }
+                }
+            }
             if (shouldGenerateCCode(processedType)) {
                 actualType.toCDeclarationStatement().ifPresent(definingStatements::add);
             }
@@ -283,7 +308,7 @@ public class TypeProcessor {
         if (additions == null) {
             return null;
         }
-        return new TypeProcessorResult(fields, createDefineStatements(outerTypeElement), definingStatements,
+        return new TypeProcessorResult(fields, codecs, views, createDefineStatements(outerTypeElement), definingStatements,
                 getLicenseDefinitionStatement(outerTypeElement), mapDefinitions,
                 createGlobalVariableDefinitions(outerTypeElement, typeToSpecField),
                 additions);
@@ -938,14 +963,15 @@ public class TypeProcessor {
 
     private Optional<BPFTypeMirror> processStringType(Element element, AnnotationValues annotations, TypeMirror type) {
         if (!annotations.checkSupportedAnnotations(m -> this.processingEnv.getMessager().printError(m, element),
-                AnnotationValues.AnnotationKind.SIZE)) {
+                AnnotationValues.AnnotationKind.SIZE, AnnotationValues.AnnotationKind.INTERNED)) {
             return Optional.empty();
         }
         if (annotations.size().isEmpty() && !allowUnsizedStrings) {
             this.processingEnv.getMessager().printError("Size annotation required for string types", element);
             return Optional.empty();
         }
-        return Optional.of(t -> BPFTypeLike.of(new BPFType.StringType(annotations.size().isEmpty() ? -1 : annotations.size().getFirst())));
+        return Optional.of(t -> BPFTypeLike.of(new BPFType.StringType(annotations.size().isEmpty() ? -1 :
+                annotations.size().getFirst(), annotations.interned())));
     }
 
     private Optional<BPFTypeMirror> processDefinedDataType(Element element, AnnotationValues annotations, TypeMirror type, DataTypeKind kind) {
@@ -1,9 +1,13 @@
 package me.bechberger.ebpf.type;
 
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
 import me.bechberger.cast.CAST;
 import me.bechberger.cast.CAST.Declarator;
 import me.bechberger.cast.CAST.Declarator.StructMember;
@@ -21,6 +25,11 @@ import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.Map.Entry;
@@ -209,6 +218,17 @@ public sealed interface BPFType<T> {
         return parser().parse(segment);
     }
 
+    /**
+     * Parse a memory segment into the passed object, if the type supports it
+     * (see {@link BPFStructType#parseInto(MemorySegment, Object)}), otherwise return a new object
+     *
+     * @param target object to reuse, might be null
+     * @return the parsed object, use it instead of {@code target}
+     */
+    default T parseInto(MemorySegment segment, @Nullable T target) {
+        return parseMemory(segment);
+    }
+
     default void setMemory(MemorySegment segment, T obj) {
         setter().store(segment, obj);
     }
@@ -738,6 +758,35 @@ public sealed interface BPFType<T> {
         private final Function<List<Object>, T> constructor;
         private final SourceClassKind sourceClassKind;
         private final boolean typedefed;
+        private final @Nullable Codec<T> codec;
+        /**
+         * Members that don't exist in the layout, like members of a kernel struct that a kernel lacks,
+         * they are parsed as zero and not stored
+         */
+        private final Set<String> absentMembers;
+
+        /**
+         * Reads and writes the struct directly, instead of collecting the members in a list
+         * and passing them to the constructor
+         * <p>
+         * The annotation processor generates a codec for every {@code @Type} struct
+         * that reads and writes primitive members at constant offsets.
+         */
+        public interface Codec<T> {
+
+            T read(MemorySegment segment);
+
+            /**
+             * Read the struct into the passed object, only supported for {@link SourceClassKind#CLASS} types
+             *
+             * @return the passed object, or a new object if not supported
+             */
+            default T readInto(MemorySegment segment, T target) {
+                return read(segment);
+            }
+
+            void write(MemorySegment segment, T obj);
+        }
 
         /**
          * Create a new struct type with manually set layout,
@@ -768,13 +817,15 @@ public sealed interface BPFType<T> {
                              Function<List<Object>, T> constructor, SourceClassKind sourceClassKind,
                              boolean typedefed) {
             this.bpfName = bpfName;
-            this.layout = createLayout(members);
+            this.layout = createLayout(members, 0);
             this.alignment = members.stream().mapToLong(m -> m.type.alignment()).max().orElse(1);
             this.members = members;
             this.javaClass = javaClass;
             this.constructor = constructor;
             this.sourceClassKind = sourceClassKind;
             this.typedefed = typedefed;
+            this.codec = null;
+            this.absentMembers = Set.of();
 
             // check names are unique
             Set<String> names = new HashSet<>();
@@ -792,6 +843,88 @@ public sealed interface BPFType<T> {
             }
         }
 
+        private BPFStructType(BPFStructType<T> type, @Nullable Function<BPFStructType<T>, Codec<T>> codecFactory) {
+            this.bpfName = type.bpfName;
+            this.layout = type.layout;
+            this.alignment = type.alignment;
+            this.members = type.members;
+            this.javaClass = type.javaClass;
+            this.constructor = type.constructor;
+            this.sourceClassKind = type.sourceClassKind;
+            this.typedefed = type.typedefed;
+            this.absentMembers = type.absentMembers;
+            this.codec = codecFactory == null ? null : codecFactory.apply(this);
+        }
+
+        private BPFStructType(BPFStructType<T> type, List<BPFStructMember<T, ?>> members, long size,
+                              Set<String> absentMembers) {
+            var presentMembers = members.stream().filter(m -> !absentMembers.contains(m.name())).toList();
+            this.bpfName = type.bpfName;
+            this.layout = createLayout(presentMembers, size);
+            this.alignment = presentMembers.stream().mapToLong(m -> m.type.alignment()).max().orElse(1);
+            this.members = members;
+            this.absentMembers = Set.copyOf(absentMembers);
+            this.javaClass = type.javaClass;
+            this.constructor = type.constructor;
+            this.sourceClassKind = type.sourceClassKind;
+            this.typedefed = type.typedefed;
+            this.codec = null;
+        }
+
+        /**
+         * Create a copy of this type with different member offsets and types, e.g. to match the layout
+         * of the struct in the running kernel
+         * <p>
+         * The copy uses the generic member-wise parser and setter, as the codec assumes the original offsets.
+         *
+         * @param members members with the same names and in the same order as the members of this type
+         * @param size    size of the struct, padding is added if the members end before
+         */
+        public BPFStructType<T> withMembers(List<BPFStructMember<T, ?>> members, long size) {
+            return withMembers(members, size, Set.of());
+        }
+
+        /**
+         * Create a copy of this type with different member offsets and types, where some members don't exist
+         * <p>
+         * The absent members are parsed as zero, not stored and have no offset.
+         *
+         * @param absentMembers names of the members that are not part of the layout, their offsets are ignored
+         * @see #withMembers(List, long)
+         */
+        public BPFStructType<T> withMembers(List<BPFStructMember<T, ?>> members, long size, Set<String> absentMembers) {
+            if (members.size() != this.members.size()) {
+                throw new IllegalArgumentException("Expected " + this.members.size() + " members, got " + members.size());
+            }
+            for (int i = 0; i < members.size(); i++) {
+                if (!members.get(i).name().equals(this.members.get(i).name())) {
+                    throw new IllegalArgumentException("Expected member " + this.members.get(i).name() + ", got " +
+                            members.get(i).name());
+                }
+            }
+            return new BPFStructType<>(this, members, size, absentMembers);
+        }
+
+        /**
+         * Create a copy of this type that parses and stores the struct via a codec
+         *
+         * @param codecFactory creates the codec, might use the members of the passed type
+         */
+        public BPFStructType<T> withCodec(Function<BPFStructType<T>, Codec<T>> codecFactory) {
+            return new BPFStructType<>(this, codecFactory);
+        }
+
+        /**
+         * Create a copy of this type that uses the generic member-wise parser and setter
+         */
+        public BPFStructType<T> withoutCodec() {
+            return codec == null ? this : new BPFStructType<>(this, null);
+        }
+
+        public @Nullable Codec<T> codec() {
+            return codec;
+        }
+
         public static <T> BPFStructType<T> autoLayout(String bpfName, List<UBPFStructMember<T, ?>> members,
                                                       AnnotatedClass javaClass, Function<List<Object>, T> constructor) {
             return autoLayout(bpfName, members, javaClass, constructor, SourceClassKind.RECORD);
@@ -812,8 +945,12 @@ public sealed interface BPFType<T> {
 
         /**
          * Creates the memory layout, inserting padding where neccessary
+         *
+         * @param size minimal size of the layout, trailing padding is added if the members end before
          */
-        private MemoryLayout createLayout(List<BPFStructMember<T, ?>> members) {
+        private MemoryLayout createLayout(List<BPFStructMember<T, ?>> members, long size) {
+            // the members of a relocated struct might be reordered
+            members = members.stream().sorted(Comparator.comparingInt(BPFStructMember::offset)).toList();
             List<MemoryLayout> layouts = new ArrayList<>();
             for (int i = 0; i < members.size(); i++) {
                 var member = members.get(i);
@@ -828,6 +965,13 @@ public sealed interface BPFType<T> {
                 }
                 layouts.add(member.type.layout().withName(member.name()));
             }
+            if (!members.isEmpty()) {
+                var last = members.getLast();
+                var padding = size - (last.offset + last.type.size());
+                if (padding > 0) {
+                    layouts.add(MemoryLayout.paddingLayout(padding));
+                }
+            }
             return MemoryLayout.structLayout(layouts.toArray(new MemoryLayout[0]));
         }
 
@@ -856,11 +1000,25 @@ public sealed interface BPFType<T> {
 
         /**
          * Returns the offset of the passed member
+         *
+         * @throws IllegalArgumentException if the member is absent, see {@link #absentMembers()}
          */
         public int getOffsetOfMember(String memberName) {
+            if (absentMembers.contains(memberName)) {
+                throw new IllegalArgumentException("Member " + memberName + " of " + bpfName + " is absent");
+            }
             return getMember(memberName).offset();
         }
 
+        /**
+         * Names of the members that are not part of the layout, they are parsed as zero
+         *
+         * @see #withMembers(List, long, Set)
+         */
+        public Set<String> absentMembers() {
+            return absentMembers;
+        }
+
         public BPFStructMember<T, ?> getMember(String memberName) {
             return members.stream().filter(m -> m.name().equals(memberName)).findFirst().orElseThrow();
         }
@@ -871,21 +1029,250 @@ public sealed interface BPFType<T> {
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public MemoryParser<T> parser() {
+            if (codec != null) {
+                return codec::read;
+            }
+            var handle = parseHandle();
             return segment -> {
-                List<Object> args =
-                        members.stream().map(member -> (Object) member.type.parseMemory(segment.asSlice(member.offset))).toList();
-                return constructor.apply(args);
+                try {
+                    return (T) (Object) handle.invokeExact(segment);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
             };
         }
 
+        /**
+         * Handles of the generic parser and setter, compiled on first use
+         * <p>
+         * Races only lead to compiling twice, compilation errors (like members without parser) are thrown
+         * and not cached.
+         */
+        private volatile @Nullable MethodHandle parseHandle;
+        private volatile @Nullable MethodHandle storeHandle;
+
+        /**
+         * Maximum number of members that are collected by a single method handle,
+         * method handles have at most 255 parameters
+         */
+        private static final int MAX_COLLECTED_MEMBERS = 128;
+
+        private static final MethodHandle PARSE_MEMBER;
+        private static final MethodHandle PARSE_PRIMITIVE_ARRAY;
+        private static final MethodHandle ZERO_VALUE;
+        private static final MethodHandle STORE_MEMBER;
+        private static final MethodHandle STORE_PRIMITIVE_ARRAY;
+        private static final MethodHandle APPLY;
+        private static final MethodHandle CONCAT;
+        private static final MethodHandle CONSTRUCT;
+
+        static {
+            var lookup = MethodHandles.lookup();
+            try {
+                PARSE_MEMBER = lookup.findStatic(BPFStructType.class, "parseMember",
+                        MethodType.methodType(Object.class, MemoryParser.class, long.class, MemorySegment.class));
+                PARSE_PRIMITIVE_ARRAY = lookup.findStatic(BPFStructType.class, "parsePrimitiveArray",
+                        MethodType.methodType(Object.class, BPFArrayType.class, long.class, MemorySegment.class));
+                ZERO_VALUE = lookup.findStatic(BPFStructType.class, "zeroValue",
+                        MethodType.methodType(Object.class, BPFType.class));
+                STORE_MEMBER = lookup.findStatic(BPFStructType.class, "storeMember",
+                        MethodType.methodType(void.class, MemorySetter.class, long.class, MemorySegment.class,
+                                Object.class));
+                STORE_PRIMITIVE_ARRAY = lookup.findStatic(BPFStructType.class, "storePrimitiveArray",
+                        MethodType.methodType(void.class, BPFArrayType.class, MemorySetter.class, long.class,
+                                MemorySegment.class, Object.class));
+                APPLY = lookup.findVirtual(Function.class, "apply",
+                        MethodType.methodType(Object.class, Object.class));
+                CONCAT = lookup.findStatic(BPFStructType.class, "concat",
+                        MethodType.methodType(Object[].class, Object[][].class));
+                CONSTRUCT = lookup.findStatic(BPFStructType.class, "construct",
+                        MethodType.methodType(Object.class, Function.class, Object[].class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private static Object parseMember(MemoryParser<Object> parser, long offset, MemorySegment segment) {
+            return parser.parse(segment.asSlice(offset));
+        }
+
+        private static Object parsePrimitiveArray(BPFArrayType<?> type, long offset, MemorySegment segment) {
+            return type.parsePrimitiveArray(segment.asSlice(offset));
+        }
+
+        private static void storeMember(MemorySetter<Object> setter, long offset, MemorySegment segment,
+                                        Object value) {
+            setter.store(segment.asSlice(offset), box(value));
+        }
+
+        private static void storePrimitiveArray(BPFArrayType<?> type, MemorySetter<Object> setter, long offset,
+                                                MemorySegment segment, Object value) {
+            if (value != null && value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+                type.setPrimitiveArray(segment.asSlice(offset), value);
+                return;
+            }
+            setter.store(segment.asSlice(offset), box(value));
+        }
+
+        private static Object[] concat(Object[][] groups) {
+            Object[] result = new Object[Arrays.stream(groups).mapToInt(g -> g.length).sum()];
+            int position = 0;
+            for (var group : groups) {
+                System.arraycopy(group, 0, result, position, group.length);
+                position += group.length;
+            }
+            return result;
+        }
+
+        private static Object construct(Function<List<Object>, ?> constructor, Object[] members) {
+            return constructor.apply(Arrays.asList(members));
+        }
+
+        /**
+         * Value of the type parsed from zeroed memory, e.g. {@code 0} or an empty string
+         */
+        private static Object zeroValue(BPFType<Object> type) {
+            // long array to align the memory for all primitive types
+            return type.parseMemory(MemorySegment.ofArray(new long[(int) ((type.size() + 7) / 8)]));
+        }
+
+        /**
+         * Layout to access the member via a {@link VarHandle}, or null if the member has to be
+         * parsed and stored via its type
+         */
+        private @Nullable ValueLayout directAccessLayout(BPFStructMember<T, ?> member) {
+            if (directValueLayout(member.type) == null || member.type.toJavaUse().equals("boolean")) {
+                return null;
+            }
+            // only requires the member to be aligned, like the parser of the member type
+            return layout.select(MemoryLayout.PathElement.groupElement(member.name())) instanceof ValueLayout
+                    valueLayout ? valueLayout : null;
+        }
+
+        /**
+         * Collect the results of the handles, that each take the struct segment, into an array
+         *
+         * @return handle that takes the struct segment
+         */
+        private static MethodHandle collect(List<MethodHandle> handles, Class<?> arrayType) {
+            var collector = MethodHandles.identity(arrayType).asCollector(arrayType, handles.size());
+            return MethodHandles.permuteArguments(
+                    MethodHandles.filterArguments(collector, 0, handles.toArray(new MethodHandle[0])),
+                    MethodType.methodType(arrayType, MemorySegment.class), new int[handles.size()]);
+        }
+
+        /**
+         * Compile a handle that takes the struct segment, reads all members and calls the constructor:
+         * primitive members are read via the {@link VarHandle} of their layout,
+         * primitive arrays are bulk copied and all other members use the parser of their type
+         */
+        @SuppressWarnings("unchecked")
+        private MethodHandle parseHandle() {
+            var handle = parseHandle;
+            if (handle != null) {
+                return handle;
+            }
+            List<MethodHandle> readers = new ArrayList<>();
+            for (var member : members) {
+                var type = (BPFType<Object>) member.type;
+                if (absentMembers.contains(member.name())) {
+                    readers.add(MethodHandles.dropArguments(ZERO_VALUE.bindTo(type), 0, MemorySegment.class));
+                } else if (directAccessLayout(member) instanceof ValueLayout valueLayout) {
+                    readers.add(MethodHandles.insertArguments(valueLayout.varHandle()
+                                    .toMethodHandle(VarHandle.AccessMode.GET), 1, (long) member.offset)
+                            .asType(MethodType.methodType(Object.class, MemorySegment.class)));
+                } else if (isPrimitiveArray(type)) {
+                    readers.add(MethodHandles.insertArguments(PARSE_PRIMITIVE_ARRAY, 0, type, (long) member.offset));
+                } else {
+                    readers.add(MethodHandles.insertArguments(PARSE_MEMBER, 0, type.parser(), (long) member.offset));
+                }
+            }
+            MethodHandle readAll;
+            if (readers.size() <= MAX_COLLECTED_MEMBERS) {
+                readAll = collect(readers, Object[].class);
+            } else {
+                List<MethodHandle> groups = new ArrayList<>();
+                for (int start = 0; start < readers.size(); start += MAX_COLLECTED_MEMBERS) {
+                    groups.add(collect(readers.subList(start, Math.min(start + MAX_COLLECTED_MEMBERS,
+                            readers.size())), Object[].class));
+                }
+                readAll = MethodHandles.filterReturnValue(collect(groups, Object[][].class), CONCAT);
+            }
+            handle = MethodHandles.filterReturnValue(readAll, CONSTRUCT.bindTo(constructor));
+            parseHandle = handle;
+            return handle;
+        }
+
+        /**
+         * Compile a handle that takes the struct segment and the object, and stores all present members:
+         * primitive members are written via the {@link VarHandle} of their layout,
+         * primitive arrays are bulk copied and all other members use the setter of their type
+         */
+        @SuppressWarnings("unchecked")
+        private MethodHandle storeHandle() {
+            var handle = storeHandle;
+            if (handle != null) {
+                return handle;
+            }
+            handle = MethodHandles.empty(MethodType.methodType(void.class, MemorySegment.class, Object.class));
+            // folding runs the writer before the handle, so start with the last member
+            for (var member : members.reversed()) {
+                if (absentMembers.contains(member.name())) {
+                    continue;
+                }
+                var type = (BPFType<Object>) member.type;
+                MethodHandle writer;
+                if (directAccessLayout(member) instanceof ValueLayout valueLayout) {
+                    writer = MethodHandles.insertArguments(valueLayout.varHandle()
+                                    .toMethodHandle(VarHandle.AccessMode.SET), 1, (long) member.offset)
+                            .asType(MethodType.methodType(void.class, MemorySegment.class, Object.class));
+                } else if (isPrimitiveArray(type)) {
+                    writer = MethodHandles.insertArguments(STORE_PRIMITIVE_ARRAY, 0, type, type.setter(),
+                            (long) member.offset);
+                } else {
+                    writer = MethodHandles.insertArguments(STORE_MEMBER, 0, type.setter(), (long) member.offset);
+                }
+                // get the member value from the object
+                writer = MethodHandles.filterArguments(writer, 1, APPLY.bindTo(member.getter));
+                handle = MethodHandles.foldArguments(handle, writer);
+            }
+            storeHandle = handle;
+            return handle;
+        }
+
+        /**
+         * Parse the struct into the passed object, without allocating a new one
+         * <p>
+         * Only {@link SourceClassKind#CLASS} types with a codec are parsed in place, their mutable struct
+         * members are reused too, other members (records, strings, arrays) are created anew.
+         * All other types return a new object.
+         */
+        @Override
+        public T parseInto(MemorySegment segment, @Nullable T target) {
+            if (target == null || codec == null || sourceClassKind != SourceClassKind.CLASS) {
+                return parseMemory(segment);
+            }
+            return codec.readInto(segment, target);
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         public MemorySetter<T> setter() {
+            if (codec != null) {
+                return codec::write;
+            }
+            var handle = storeHandle();
             return (segment, obj) -> {
-                for (BPFStructMember<T, ?> member : members) {
-                    var arr = box(member.getter.apply(obj));
-                    ((BPFType<Object>) member.type).setMemory(segment.asSlice(member.offset), arr);
+                try {
+                    handle.invokeExact(segment, (Object) obj);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
                 }
             };
         }
@@ -1034,14 +1421,263 @@ public sealed interface BPFType<T> {
 
                 return FieldSpec.builder(fieldType, fieldName).addModifiers(Modifier.FINAL, Modifier.STATIC)
                         .initializer("$T.autoLayout($S, java.util.List.of($L), new $T.AnnotatedClass($T" + ".class, " +
-                                        "java.util.List" + ".of()" + "), " + "fields -> $L, $L, $L)", bpfStructType,
+                                        "java.util.List" + ".of()" + "), " + "fields -> $L, $L, $L)$L", bpfStructType,
                                 bpfName,
                                 memberExpression, bpfType, ClassName.get("", className), constructorExpr,
                                 SourceClassKind.class.getName().replace('$', '.') + "." + sourceClassKind,
-                                typedefed).build();
+                                typedefed, supportsCodec() ? ".withCodec(" + codecClassName(fieldName) + "::new)" : "")
+                        .build();
             });
         }
 
+        /**
+         * Inline unions are only supported by the generic parser and setter
+         */
+        private boolean supportsCodec() {
+            return members.stream().noneMatch(m -> m.type instanceof BPFInlineUnionType<?>);
+        }
+
+        /**
+         * Name of the codec class that is generated for the type stored in the passed field,
+         * e.g. {@code SimpleRecordCodec} for {@code SIMPLE_RECORD}
+         */
+        public static String codecClassName(String fieldName) {
+            return Arrays.stream(fieldName.split("_+")).filter(p -> !p.isEmpty())
+                    .map(p -> p.charAt(0) + p.substring(1).toLowerCase()).collect(Collectors.joining()) + "Codec";
+        }
+
+        /**
+         * Value layout to read and write the member directly, or null if the member has to be
+         * parsed and stored via its type
+         */
+        private static @Nullable String directValueLayout(BPFType<?> type) {
+            while (type instanceof BPFInternalTypedef<?> typedef) {
+                type = typedef.wrapped();
+            }
+            if (!(type instanceof BPFIntType<?> intType)) {
+                return null;
+            }
+            return switch (intType.toJavaUse()) {
+                case "boolean", "byte" -> "JAVA_BYTE";
+                case "short" -> "JAVA_SHORT";
+                case "int" -> "JAVA_INT";
+                case "long" -> "JAVA_LONG";
+                case "float" -> "JAVA_FLOAT";
+                case "double" -> "JAVA_DOUBLE";
+                default -> null;
+            };
+        }
+
+        private static boolean isPrimitiveArray(BPFType<?> type) {
+            return type instanceof BPFArrayType<?> arrayType && arrayType.primitiveMemberLayout() != null;
+        }
+
+        /**
+         * Type of the field that holds the type of a member that is not read directly
+         */
+        private static TypeName codecMemberFieldType(BPFType<?> type) {
+            if (isPrimitiveArray(type)) {
+                return ParameterizedTypeName.get(ClassName.get(BPF_PACKAGE, "BPFType", "BPFArrayType"),
+                        WildcardTypeName.subtypeOf(Object.class));
+            }
+            return ParameterizedTypeName.get(ClassName.get(BPF_PACKAGE, "BPFType"), ClassName.get(Object.class));
+        }
+
+        private String javaMemberAccess(String object, BPFStructMember<T, ?> member) {
+            return switch (sourceClassKind) {
+                case RECORD -> object + "." + member.name() + "()";
+                case CLASS, CLASS_WITH_CONSTRUCTOR -> object + "." + member.name();
+            };
+        }
+
+        private CodeBlock codecReadExpression(int index) {
+            var member = members.get(index);
+            var layout = directValueLayout(member.type);
+            var valueLayout = ClassName.get(ValueLayout.class);
+            if (isPrimitiveArray(member.type)) {
+                return CodeBlock.of("($L) member$L.parsePrimitiveArray(segment.asSlice($L))", member.type.toJavaUse(),
+                        index, member.offset);
+            }
+            if (layout == null) {
+                var javaType = member.type.toJavaUse();
+                return CodeBlock.of("($L) $T.unbox(member$L.parseMemory(segment.asSlice($L)), $L.class)", javaType,
+                        ClassName.get(BoxHelper.class), index, member.offset, javaType);
+            }
+            if (member.type.toJavaUse().equals("boolean")) {
+                return CodeBlock.of("segment.get($T.$L, $L) == 1", valueLayout, layout, member.offset);
+            }
+            return CodeBlock.of("segment.get($T.$L, $L)", valueLayout, layout, member.offset);
+        }
+
+        private CodeBlock codecWriteStatement(int index, String access) {
+            var member = members.get(index);
+            var layout = directValueLayout(member.type);
+            var valueLayout = ClassName.get(ValueLayout.class);
+            if (isPrimitiveArray(member.type)) {
+                return CodeBlock.of("member$L.setPrimitiveArray(segment.asSlice($L), $L)", index, member.offset,
+                        access);
+            }
+            if (layout == null) {
+                return CodeBlock.of("member$L.setMemory(segment.asSlice($L), $T.box($L))", index, member.offset,
+                        ClassName.get(BoxHelper.class), access);
+            }
+            if (member.type.toJavaUse().equals("boolean")) {
+                return CodeBlock.of("segment.set($T.$L, $L, $L ? (byte) 1 : (byte) 0)", valueLayout, layout,
+                        member.offset, access);
+            }
+            return CodeBlock.of("segment.set($T.$L, $L, $L)", valueLayout, layout, member.offset, access);
+        }
+
+        /**
+         * Generate the codec class for this type, which reads and writes primitive members at constant offsets
+         * and calls the constructor directly, other members are parsed and stored via their types
+         *
+         * @param codecClassName name of the generated class, see {@link #codecClassName(String)}
+         * @return the class or empty if the type is not supported
+         */
+        public Optional<TypeSpec> toCodecTypeSpec(String codecClassName) {
+            if (!supportsCodec()) {
+                return Optional.empty();
+            }
+            ClassName javaClassName = ClassName.get("", javaClass.klass);
+            ClassName structType = ClassName.get(BPF_PACKAGE, "BPFType", "BPFStructType");
+            var codec = TypeSpec.classBuilder(codecClassName)
+                    .addModifiers(Modifier.STATIC, Modifier.FINAL)
+                    .addSuperinterface(ParameterizedTypeName.get(structType.nestedClass("Codec"), javaClassName));
+            var constructor = MethodSpec.constructorBuilder()
+                    .addParameter(ParameterizedTypeName.get(structType, javaClassName), "type");
+            for (int i = 0; i < members.size(); i++) {
+                if (directValueLayout(members.get(i).type) == null) {
+                    var fieldType = codecMemberFieldType(members.get(i).type);
+                    codec.addField(fieldType, "member" + i, Modifier.PRIVATE, Modifier.FINAL);
+                    constructor.addStatement("this.member$L = ($T) type.members().get($L).type()", i, fieldType, i);
+                }
+            }
+            codec.addMethod(constructor.build());
+
+            var read = MethodSpec.methodBuilder("read").addAnnotation(Override.class).addModifiers(Modifier.PUBLIC)
+                    .returns(javaClassName).addParameter(MemorySegment.class, "segment");
+            if (sourceClassKind == SourceClassKind.CLASS) {
+                read.addStatement("return readInto(segment, new $T())", javaClassName);
+                var readInto = MethodSpec.methodBuilder("readInto").addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC).returns(javaClassName)
+                        .addParameter(MemorySegment.class, "segment").addParameter(javaClassName, "target");
+                for (int i = 0; i < members.size(); i++) {
+                    var member = members.get(i);
+                    if (member.type instanceof BPFStructType<?>) {
+                        readInto.addStatement("target.$L = ($L) member$L.parseInto(segment.asSlice($L), target.$L)",
+                                member.name(), member.type.toJavaUse(), i, member.offset, member.name());
+                    } else {
+                        readInto.addStatement("target.$L = $L", member.name(), codecReadExpression(i));
+                    }
+                }
+                readInto.addStatement("return target");
+                codec.addMethod(readInto.build());
+            } else {
+                var arguments = CodeBlock.builder();
+                for (int i = 0; i < members.size(); i++) {
+                    arguments.add(i == 0 ? "$L" : ",\n$L", codecReadExpression(i));
+                }
+                read.addStatement("return new $T(\n$>$>$L$<$<)", javaClassName, arguments.build());
+            }
+            codec.addMethod(read.build());
+
+            var write = MethodSpec.methodBuilder("write").addAnnotation(Override.class).addModifiers(Modifier.PUBLIC)
+                    .addParameter(MemorySegment.class, "segment").addParameter(javaClassName, "obj");
+            for (int i = 0; i < members.size(); i++) {
+                write.addStatement(codecWriteStatement(i, javaMemberAccess("obj", members.get(i))));
+            }
+            codec.addMethod(write.build());
+            return Optional.of(codec.build());
+        }
+
+
+        private static final Set<String> VIEW_RESERVED_NAMES = Set.of("segment", "wrap", "structType", "materialize",
+                "store", "getClass", "hashCode", "toString", "equals", "notify", "notifyAll", "wait", "clone",
+                "finalize");
+
+        private static String viewSetterName(String memberName) {
+            return "set" + Character.toUpperCase(memberName.charAt(0)) + memberName.substring(1);
+        }
+
+        /**
+         * Generate a {@link StructView} for this type, with a getter and setter per member
+         * that directly access the memory, and a segment getter for members that are not primitives
+         *
+         * @param viewClassName name of the generated class
+         * @param typeExpression expression that evaluates to this type in the generated class
+         * @return the class or empty if the type is not supported or the accessors would clash with each other
+         * or the methods of {@link StructView}
+         */
+        public Optional<TypeSpec> toViewTypeSpec(String viewClassName, CodeBlock typeExpression) {
+            if (!supportsCodec()) {
+                return Optional.empty();
+            }
+            Set<String> names = new HashSet<>(VIEW_RESERVED_NAMES);
+            for (var member : members) {
+                if (!names.add(member.name()) || !names.add(viewSetterName(member.name())) ||
+                        (directValueLayout(member.type) == null && !names.add(member.name() + "Segment")) ||
+                        (member.type instanceof StringType && !names.add(member.name() + "Chars"))) {
+                    return Optional.empty();
+                }
+            }
+            ClassName javaClassName = ClassName.get("", javaClass.klass);
+            ClassName viewName = ClassName.get("", viewClassName);
+            ClassName structType = ClassName.get(BPF_PACKAGE, "BPFType", "BPFStructType");
+            var view = TypeSpec.classBuilder(viewClassName)
+                    .addJavadoc("View of a {@link $T} in native memory, see {@link $T}\n", javaClassName,
+                            ClassName.get(StructView.class))
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .superclass(ParameterizedTypeName.get(ClassName.get(StructView.class), javaClassName))
+                    .addField(FieldSpec.builder(long.class, "SIZE", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                            .addJavadoc("Size of the struct in bytes\n").initializer("$L", size()).build());
+            for (int i = 0; i < members.size(); i++) {
+                if (directValueLayout(members.get(i).type) == null) {
+                    var fieldType = codecMemberFieldType(members.get(i).type);
+                    view.addField(FieldSpec.builder(fieldType, "member" + i, Modifier.PRIVATE, Modifier.STATIC,
+                            Modifier.FINAL).initializer("($T) $L.members().get($L).type()", fieldType,
+                            typeExpression, i).build());
+                }
+            }
+            view.addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PUBLIC)
+                    .addJavadoc("Create a view that has to be pointed to a struct via {@link #wrap}\n")
+                    .addStatement("super($T.NULL)", MemorySegment.class).build());
+            view.addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PUBLIC)
+                    .addParameter(MemorySegment.class, "segment").addStatement("super(segment)").build());
+            view.addMethod(MethodSpec.methodBuilder("wrap").addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC).returns(viewName).addParameter(MemorySegment.class, "segment")
+                    .addStatement("this.segment = segment").addStatement("return this").build());
+            view.addMethod(MethodSpec.methodBuilder("structType").addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC).returns(ParameterizedTypeName.get(structType, javaClassName))
+                    .addStatement("return $L", typeExpression).build());
+            for (int i = 0; i < members.size(); i++) {
+                var member = members.get(i);
+                var javaType = ClassName.get("", member.type.toJavaUse());
+                view.addMethod(MethodSpec.methodBuilder(member.name()).addModifiers(Modifier.PUBLIC)
+                        .returns(javaType).addStatement("return $L", codecReadExpression(i)).build());
+                view.addMethod(MethodSpec.methodBuilder(viewSetterName(member.name())).addModifiers(Modifier.PUBLIC)
+                        .returns(viewName).addParameter(javaType, "value")
+                        .addStatement(codecWriteStatement(i, "value")).addStatement("return this").build());
+                if (directValueLayout(member.type) == null) {
+                    view.addMethod(MethodSpec.methodBuilder(member.name() + "Segment").addModifiers(Modifier.PUBLIC)
+                            .addJavadoc("Memory of the {@code $L} member\n", member.name())
+                            .returns(MemorySegment.class)
+                            .addStatement("return segment.asSlice($L, $L)", member.offset, member.type.size())
+                            .build());
+                }
+                if (member.type instanceof StringType stringType && stringType.length() != -1) {
+                    view.addMethod(MethodSpec.methodBuilder(member.name() + "Chars").addModifiers(Modifier.PUBLIC)
+                            .addJavadoc("The {@code $L} member without decoding it, see {@link $T#view}\n",
+                                    member.name(), ClassName.get(StringCodec.class))
+                            .returns(CharSequence.class)
+                            .addStatement("return $T.view(segment.asSlice($L), $L)", ClassName.get(StringCodec.class),
+                                    member.offset, stringType.length())
+                            .build());
+                }
+            }
+            return Optional.of(view.build());
+        }
+
         @Override
         public String toJavaUse() {
             return javaClass.klass;
@@ -1075,18 +1711,111 @@ public sealed interface BPFType<T> {
         @SuppressWarnings("unchecked")
         @Override
         public MemoryParser<E[]> parser() {
+            var memberParser = memberType.parser();
+            var memberSize = memberType.sizePadded();
             return segment -> (E[])IntStream.range(0, length).mapToObj(i ->
-                    memberType.parseMemory(segment.asSlice(i * memberType.size()))).toArray();
+                    memberParser.parse(segment.asSlice(i * memberSize))).toArray();
+        }
+
+        /**
+         * Layout of the members if they can be bulk copied into a Java primitive array
+         * ({@code byte[]}, {@code short[]}, {@code int[]}, {@code long[]}, {@code float[]} or {@code double[]}),
+         * null otherwise
+         */
+        public @Nullable ValueLayout primitiveMemberLayout() {
+            var layout = primitiveLayout(memberType);
+            // members with a larger alignment, like u32 aligned to 8 bytes, are not consecutive
+            return layout != null && layout.byteSize() == memberType.sizePadded() ? layout : null;
+        }
+
+        /**
+         * The integer or floating point type behind typedefs and alignment wrappers,
+         * or null if the type is no such type
+         */
+        static @Nullable BPFIntType<?> primitiveType(BPFType<?> type) {
+            while (true) {
+                switch (type) {
+                    case BPFInternalTypedef<?> typedef -> type = typedef.wrapped();
+                    case WrappedBPFType<?> wrapped -> type = wrapped.type();
+                    case BPFIntType<?> intType -> {
+                        return intType;
+                    }
+                    default -> {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Unaligned layout to read the type into a Java primitive, or null if it is no primitive or a {@code boolean}
+         */
+        static @Nullable ValueLayout primitiveLayout(BPFType<?> type) {
+            var intType = primitiveType(type);
+            if (intType == null) {
+                return null;
+            }
+            return switch (intType.toJavaUse()) {
+                case "byte" -> ValueLayout.JAVA_BYTE;
+                case "short" -> ValueLayout.JAVA_SHORT_UNALIGNED;
+                case "int" -> ValueLayout.JAVA_INT_UNALIGNED;
+                case "long" -> ValueLayout.JAVA_LONG_UNALIGNED;
+                case "float" -> ValueLayout.JAVA_FLOAT_UNALIGNED;
+                case "double" -> ValueLayout.JAVA_DOUBLE_UNALIGNED;
+                default -> null;
+            };
+        }
+
+        /**
+         * Parse the array into a Java primitive array with a single copy, instead of boxing every member
+         *
+         * @return e.g. an {@code int[]} for an array of {@code int}s
+         * @throws IllegalStateException if the members are not primitives, see {@link #primitiveMemberLayout()}
+         */
+        public Object parsePrimitiveArray(MemorySegment segment) {
+            var memberLayout = primitiveMemberLayout();
+            if (memberLayout == null) {
+                throw new IllegalStateException("Array of " + memberType.bpfName() + " is not a primitive array");
+            }
+            var slice = segment.asSlice(0, length * memberLayout.byteSize());
+            return switch (memberLayout) {
+                case ValueLayout.OfByte layout -> slice.toArray(layout);
+                case ValueLayout.OfShort layout -> slice.toArray(layout);
+                case ValueLayout.OfInt layout -> slice.toArray(layout);
+                case ValueLayout.OfLong layout -> slice.toArray(layout);
+                case ValueLayout.OfFloat layout -> slice.toArray(layout);
+                case ValueLayout.OfDouble layout -> slice.toArray(layout);
+                default -> throw new AssertionError();
+            };
+        }
+
+        /**
+         * Store a Java primitive array with a single copy
+         *
+         * @param array e.g. an {@code int[]} for an array of {@code int}s
+         * @throws IllegalStateException if the members are not primitives, see {@link #primitiveMemberLayout()}
+         */
+        public void setPrimitiveArray(MemorySegment segment, Object array) {
+            var memberLayout = primitiveMemberLayout();
+            if (memberLayout == null) {
+                throw new IllegalStateException("Array of " + memberType.bpfName() + " is not a primitive array");
+            }
+            if (Array.getLength(array) != length) {
+                throw new IllegalArgumentException("Array must have length " + length);
+            }
+            MemorySegment.copy(array, 0, segment, memberLayout, 0, length);
         }
 
         @Override
         public MemorySetter<E[]> setter() {
+            var memberSetter = memberType.setter();
+            var memberSize = memberType.sizePadded();
             return (segment, list) -> {
                 if (list.length != length) {
                     throw new IllegalArgumentException("Array must have length " + length);
                 }
                 for (int i = 0; i < length; i++) {
-                    memberType.setMemory(segment.asSlice(i * memberType.sizePadded()), list[i]);
+                    memberSetter.store(segment.asSlice(i * memberSize), list[i]);
                 }
             };
         }
@@ -1201,7 +1930,11 @@ public sealed interface BPFType<T> {
      * <p>
      * Length -1 is used to indicate a string with a dynamic length
      */
-    record StringType(int length) implements BPFType<String> {
+    record StringType(int length, boolean interned) implements BPFType<String> {
+
+        public StringType(int length) {
+            this(length, false);
+        }
 
         @Override
         public String bpfName() {
@@ -1218,7 +1951,20 @@ public sealed interface BPFType<T> {
             if (length == -1) {
                 throw new RuntimeException("Cannot parse string with dynamic length");
             }
-            return segment -> segment.getString(0);
+            if (interned) {
+                return segment -> StringCodec.decodeInterned(segment, length);
+            }
+            return segment -> StringCodec.decode(segment, length);
+        }
+
+        /**
+         * Parse the string as a {@link CharSequence} that reads the memory directly, see {@link StringCodec#view}
+         */
+        public CharSequence parseCharSequence(MemorySegment segment) {
+            if (length == -1) {
+                throw new RuntimeException("Cannot parse string with dynamic length");
+            }
+            return StringCodec.view(segment, length);
         }
 
         @Override
@@ -1226,19 +1972,7 @@ public sealed interface BPFType<T> {
             if (length == -1) {
                 throw new RuntimeException("Cannot set string with dynamic length");
             }
-            return (segment, obj) -> {
-                byte[] bytes = obj.getBytes();
-                if (bytes.length + 1 < length) {
-                    segment.setString(0, obj);
-                } else {
-                    byte[] dest = new byte[length];
-                    System.arraycopy(bytes, 0, dest, 0, length - 1);
-                    dest[length - 1] = 0;
-                    for (int i = 0; i < length; i++) {
-                        segment.set(ValueLayout.JAVA_BYTE, i, dest[i]);
-                    }
-                }
-            };
+            return (segment, obj) -> StringCodec.encode(segment, obj, length);
         }
 
         @Override
@@ -1269,7 +2003,7 @@ public sealed interface BPFType<T> {
 
         @Override
         public String toJavaFieldSpecUse(Function<BPFType<?>, String> typeToSpecFieldName) {
-            return "new " + BPF_TYPE + ".StringType(" + length + ")";
+            return "new " + BPF_TYPE + ".StringType(" + length + (interned ? ", true" : "") + ")";
         }
     }
 
@@ -1335,12 +2069,14 @@ public sealed interface BPFType<T> {
 
         @Override
         public MemoryParser<T> parser() {
-            return segment -> constructor.apply(unbox(wrapped.parser().parse(segment), wrappedClass));
+            var wrappedParser = wrapped.parser();
+            return segment -> constructor.apply(unbox(wrappedParser.parse(segment), wrappedClass));
         }
 
         @Override
         public MemorySetter<T> setter() {
-            return (segment, obj) -> wrapped.setter().store(segment, box(obj.val()));
+            var wrappedSetter = wrapped.setter();
+            return (segment, obj) -> wrappedSetter.store(segment, box(obj.val()));
         }
 
         @Override
@@ -1454,42 +2190,39 @@ public sealed interface BPFType<T> {
             return members.stream().filter(m -> m.name().equals(memberName)).findFirst().orElseThrow();
         }
 
+        /**
+         * Returns a parser that copies the union memory once and only decodes members when they are accessed,
+         * which is on creation for unions with fields and on {@link InlineUnion#get(String)} for inline unions
+         */
         @Override
         public MemoryParser<T> parser() {
-            return segment -> {
-                Map<String, Object> possibleMembers = new HashMap<>();
-                for (var member : members) {
-                    // try to parse all members, but only keep the ones that work
-                    try {
-                        possibleMembers.put(member.name(), member.type.parseMemory(segment));
-                    } catch (IllegalArgumentException e) {
-                    }
-                }
-                if (possibleMembers.isEmpty()) {
-                    throw new IllegalArgumentException("Union must have atleast one member set");
-                }
-                return constructor.apply(possibleMembers);
-            };
+            return segment -> constructor.apply(new LazyUnionMembers(segment, size(), members));
         }
 
         record FieldValueChanged(BPFUnionMember<?, ?> member, Object value, boolean changed) {
         }
 
         /**
-         * Return the memory setter, only works if the passed union has a set current member
+         * Return the memory setter, that writes the member that was changed
+         * <p>
+         * Parsed unions are written back with their original memory, with the changed member on top,
+         * so that an unchanged union keeps all of its bytes. New unions without a set member are zeroed.
+         *
+         * @throws IllegalArgumentException if more than one member is set
          */
         @Override
         @SuppressWarnings("unchecked")
         public MemorySetter<T> setter() {
             return (segment, union) -> {
                 // find all members that don't have their original value
-                // their original value comes either from the originalValues map (compare via ==)
-                // or is the default value of the type (like null for references, 0 for numbers, etc.)
-                var membersToSet = members.stream().map(member -> {
+                // their original value comes either from the originalValues map (compared by value)
+                // or is the default value of the type (like null for references, 0 for numbers, etc.),
+                // members that were never decoded can't have been changed
+                var membersToSet = members.stream().filter(member -> union.isDecoded(member.name())).map(member -> {
                     Object currentValue = box(member.getter.apply(union));
-                    if (union.originalValues != null && union.originalValues.containsKey(member.name())) {
-                        return new FieldValueChanged(member, currentValue,
-                                union.originalValues.get(member.name()) != currentValue);
+                    Object originalValue = union.originalValues != null ? union.originalValues.get(member.name()) : null;
+                    if (originalValue != null) {
+                        return new FieldValueChanged(member, currentValue, !Objects.deepEquals(originalValue, currentValue));
                     }
                     if (currentValue instanceof Number number) {
                         return new FieldValueChanged(member, currentValue, number.longValue() != 0);
@@ -1500,13 +2233,17 @@ public sealed interface BPFType<T> {
                     return new FieldValueChanged(member, currentValue, currentValue != null);
                 }).filter(f -> f.changed).toList();
                 if (membersToSet.size() > 1) {
-                    System.err.println("Union must have exactly one member set of " + union);
+                    throw new IllegalArgumentException("Union must have exactly one member set of " + union);
+                }
+                if (union.originalValues instanceof LazyUnionMembers lazyMembers) {
+                    lazyMembers.copyTo(segment);
+                } else if (membersToSet.isEmpty()) {
+                    segment.asSlice(0, size()).fill((byte) 0);
                 }
-                if (membersToSet.isEmpty()) {
-                    return;
+                if (!membersToSet.isEmpty()) {
+                    var member = membersToSet.getFirst();
+                    ((BPFType<Object>) member.member.type).setMemory(segment, box(member.value));
                 }
-                var member = membersToSet.getFirst();
-                ((BPFType<Object>) member.member.type).setMemory(segment, box(member.value));
             };
         }
 
@@ -1743,7 +2480,27 @@ public sealed interface BPFType<T> {
         private final List<BPFEnumMember> members;
         private final AnnotatedClass javaClass;
         private final Function<Integer, T> indexToEnum;
-        private final Map<Long, Integer> memberValueToIndex;
+
+        /**
+         * Maximum number of entries in the dense value table per enum member
+         */
+        private static final int MAX_DENSE_TABLE_ENTRIES_PER_MEMBER = 4;
+
+        /**
+         * Member index for every value in {@code [denseMinValue, denseMinValue + denseIndices.length)},
+         * -1 for values without member, null if the values are too sparse
+         */
+        private final int[] denseIndices;
+        private final long denseMinValue;
+        /**
+         * Sorted values and their member indices, used if the values are too sparse for a dense table
+         */
+        private final long[] sortedValues;
+        private final int[] sortedIndices;
+        /**
+         * Enum constants by member index, obtained on first use
+         */
+        private final Object[] constants;
 
         public BPFEnumType(String bpfName, List<BPFEnumMember> members, AnnotatedClass javaClass, Function<Integer,
                 T> indexToEnum) {
@@ -1764,11 +2521,67 @@ public sealed interface BPFType<T> {
             this.members = members;
             this.javaClass = javaClass;
             this.indexToEnum = indexToEnum;
-            this.memberValueToIndex =
-                    IntStream.range(0, members.size()).boxed().collect(Collectors.toMap(i -> members.get(i).value(),
-                            i -> i));
+            this.constants = new Object[members.size()];
+            // stable sort, so that the first member with a value wins
+            var byValue = IntStream.range(0, members.size()).boxed()
+                    .sorted(Comparator.comparingLong(i -> members.get(i).value())).toList();
+            List<Integer> uniqueIndices = new ArrayList<>();
+            for (var index : byValue) {
+                if (uniqueIndices.isEmpty() ||
+                        members.get(uniqueIndices.getLast()).value() != members.get(index).value()) {
+                    uniqueIndices.add(index);
+                }
+            }
+            this.sortedIndices = uniqueIndices.stream().mapToInt(i -> i).toArray();
+            this.sortedValues = uniqueIndices.stream().mapToLong(i -> members.get(i).value()).toArray();
+            // might overflow for values spanning the whole long range
+            long range = sortedValues.length == 0 ? -1 : sortedValues[sortedValues.length - 1] - sortedValues[0];
+            if (range >= 0 && range < (long) MAX_DENSE_TABLE_ENTRIES_PER_MEMBER * sortedValues.length) {
+                this.denseMinValue = sortedValues[0];
+                this.denseIndices = new int[(int) range + 1];
+                Arrays.fill(denseIndices, -1);
+                for (int i = 0; i < sortedValues.length; i++) {
+                    denseIndices[(int) (sortedValues[i] - denseMinValue)] = sortedIndices[i];
+                }
+            } else {
+                this.denseMinValue = 0;
+                this.denseIndices = null;
+            }
+        }
+
+        /**
+         * Index of the member with the passed value, or -1
+         */
+        private int indexOfValue(long value) {
+            if (denseIndices != null) {
+                long offset = value - denseMinValue;
+                return offset >= 0 && offset < denseIndices.length ? denseIndices[(int) offset] : -1;
+            }
+            int position = Arrays.binarySearch(sortedValues, value);
+            return position < 0 ? -1 : sortedIndices[position];
         }
 
+        /**
+         * Index of the member with the passed raw value, interpreting it as signed and then as unsigned
+         */
+        private int indexOfRawValue(long value) {
+            int index = indexOfValue(value);
+            if (index == -1 && memberType.size() < 8) {
+                index = indexOfValue(value & ((1L << (memberType.size() * 8)) - 1));
+            }
+            return index;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T constant(int index) {
+            var constant = constants[index];
+            if (constant == null) {
+                // races only lead to storing the same constant multiple times
+                constant = indexToEnum.apply(index);
+                constants[index] = constant;
+            }
+            return (T) constant;
+        }
 
         @Override
         public MemoryLayout layout() {
@@ -1792,18 +2605,17 @@ public sealed interface BPFType<T> {
         @Override
         public MemoryParser<T> parser() {
             return segment -> {
-                var val = memberType.parseMemory(segment);
-                long value;
-                if (val instanceof Number number) {
-                    value = number.longValue();
-                } else {
-                    throw new RuntimeException("Enum value must be a number");
-                }
-                var index = memberValueToIndex.get(value);
-                if (index == null) {
+                long value = switch ((int) memberType.size()) {
+                    case 1 -> segment.get(ValueLayout.JAVA_BYTE, 0);
+                    case 2 -> segment.get(ValueLayout.JAVA_SHORT, 0);
+                    case 4 -> segment.get(ValueLayout.JAVA_INT, 0);
+                    default -> segment.get(ValueLayout.JAVA_LONG, 0);
+                };
+                var index = indexOfRawValue(value);
+                if (index == -1) {
                     throw new RuntimeException("Unknown enum value " + value);
                 }
-                return indexToEnum.apply(index);
+                return constant(index);
             };
         }
 
@@ -1905,7 +2717,11 @@ public sealed interface BPFType<T> {
          * Get the enum value from the passed value
          */
         public T fromValue(long value) {
-            return indexToEnum.apply(memberValueToIndex.get(value));
+            var index = indexOfValue(value);
+            if (index == -1) {
+                throw new RuntimeException("Unknown enum value " + value);
+            }
+            return constant(index);
         }
 
         /**
@@ -1942,19 +2758,13 @@ public sealed interface BPFType<T> {
             return members.stream().mapToLong(member -> member.type.alignment()).max().orElse(1);
         }
 
+        /**
+         * Returns a parser that copies the union memory once and only decodes members on {@link BPFUnion#get}
+         */
         @Override
         public MemoryParser<BPFUnion<S>> parser() {
-            return segment -> {
-                Map<String, Object> possibleMembers = new HashMap<>();
-                for (var member : members) {
-                    // try to parse all members, but only keep the ones that work
-                    try {
-                        possibleMembers.put(member.name(), member.type.parseMemory(segment));
-                    } catch (IllegalArgumentException _) {
-                    }
-                }
-                return new BPFUnionFromMemory<>(shared != null ? shared.parseMemory(segment) : null, possibleMembers);
-            };
+            return segment -> new BPFUnionFromMemory<>(shared != null ? shared.parseMemory(segment) : null,
+                    new LazyUnionMembers(segment, size(), members));
         }
 
         /**
@@ -0,0 +1,329 @@
+package me.bechberger.ebpf.type;
+
+import me.bechberger.ebpf.type.BPFType.BPFArrayType;
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.*;
+
+/**
+ * Columnar decoding of batches of structs, that stores every primitive member in its own primitive array,
+ * e.g. a {@code long[]} of timestamps and an {@code int[]} of ports, instead of creating an object per struct
+ * <p>
+ * Aggregations like histograms and top-N reports then loop over these arrays without allocating.
+ * Members that are no primitives (like strings, arrays and nested structs) are skipped,
+ * {@code boolean} members too. Types that are no structs, like a {@code long} map value,
+ * have a single column called {@link #VALUE}:
+ * {@snippet :
+ *     var columns = new Columns<>(ringBuffer.getEventType());
+ *     ringBuffer.setColumnsCallback(columns, batch -> {
+ *         long[] durations = batch.longs("durationNs");
+ *         for (int i = 0; i < batch.size(); i++) {
+ *             histogram.record(durations[i]);
+ *         }
+ *     });
+ * }
+ * The arrays might be longer than {@link #size()}, they are reused after {@link #clear()}.
+ *
+ * @param <T> type of the decoded structs
+ */
+public final class Columns<T> {
+
+    /**
+     * Name of the only column of types that are no structs
+     */
+    public static final String VALUE = "value";
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Member that is stored in a primitive array
+     */
+    private static final class Column {
+        private final long offset;
+        private final ValueLayout layout;
+        /**
+         * Compare the values unsigned, like the BPF type
+         */
+        private final boolean unsigned;
+        private Object values;
+
+        Column(long offset, ValueLayout layout, boolean unsigned, int capacity) {
+            this.offset = offset;
+            this.layout = layout;
+            this.unsigned = unsigned;
+            this.values = switch (layout) {
+                case ValueLayout.OfByte _ -> new byte[capacity];
+                case ValueLayout.OfShort _ -> new short[capacity];
+                case ValueLayout.OfInt _ -> new int[capacity];
+                case ValueLayout.OfLong _ -> new long[capacity];
+                case ValueLayout.OfFloat _ -> new float[capacity];
+                case ValueLayout.OfDouble _ -> new double[capacity];
+                default -> throw new IllegalArgumentException("Unsupported layout " + layout);
+            };
+        }
+
+        void grow(int capacity) {
+            values = switch (values) {
+                case byte[] array -> Arrays.copyOf(array, capacity);
+                case short[] array -> Arrays.copyOf(array, capacity);
+                case int[] array -> Arrays.copyOf(array, capacity);
+                case long[] array -> Arrays.copyOf(array, capacity);
+                case float[] array -> Arrays.copyOf(array, capacity);
+                case double[] array -> Arrays.copyOf(array, capacity);
+                default -> throw new AssertionError();
+            };
+        }
+
+        /**
+         * Read the member of {@code count} structs, {@code stride} bytes apart, into the array starting at {@code at}
+         */
+        void read(MemorySegment batch, long stride, int count, int at) {
+            long position = offset;
+            switch (values) {
+                case byte[] array -> {
+                    var memberLayout = (ValueLayout.OfByte) layout;
+                    for (int i = at; i < at + count; i++, position += stride) {
+                        array[i] = batch.get(memberLayout, position);
+                    }
+                }
+                case short[] array -> {
+                    var memberLayout = (ValueLayout.OfShort) layout;
+                    for (int i = at; i < at + count; i++, position += stride) {
+                        array[i] = batch.get(memberLayout, position);
+                    }
+                }
+                case int[] array -> {
+                    var memberLayout = (ValueLayout.OfInt) layout;
+                    for (int i = at; i < at + count; i++, position += stride) {
+                        array[i] = batch.get(memberLayout, position);
+                    }
+                }
+                case long[] array -> {
+                    var memberLayout = (ValueLayout.OfLong) layout;
+                    for (int i = at; i < at + count; i++, position += stride) {
+                        array[i] = batch.get(memberLayout, position);
+                    }
+                }
+                case float[] array -> {
+                    var memberLayout = (ValueLayout.OfFloat) layout;
+                    for (int i = at; i < at + count; i++, position += stride) {
+                        array[i] = batch.get(memberLayout, position);
+                    }
+                }
+                case double[] array -> {
+                    var memberLayout = (ValueLayout.OfDouble) layout;
+                    for (int i = at; i < at + count; i++, position += stride) {
+                        array[i] = batch.get(memberLayout, position);
+                    }
+                }
+                default -> throw new AssertionError();
+            }
+        }
+
+        int compare(int a, int b) {
+            return switch (values) {
+                case byte[] array -> unsigned ? Byte.compareUnsigned(array[a], array[b]) :
+                        Byte.compare(array[a], array[b]);
+                case short[] array -> unsigned ? Short.compareUnsigned(array[a], array[b]) :
+                        Short.compare(array[a], array[b]);
+                case int[] array -> unsigned ? Integer.compareUnsigned(array[a], array[b]) :
+                        Integer.compare(array[a], array[b]);
+                case long[] array -> unsigned ? Long.compareUnsigned(array[a], array[b]) :
+                        Long.compare(array[a], array[b]);
+                case float[] array -> Float.compare(array[a], array[b]);
+                case double[] array -> Double.compare(array[a], array[b]);
+                default -> throw new AssertionError();
+            };
+        }
+    }
+
+    private final BPFType<T> type;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private final Column[] columnArray;
+    private int capacity;
+    private int size;
+
+    public Columns(BPFType<T> type) {
+        this(type, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create empty columns for the primitive members of the type
+     *
+     * @param initialCapacity number of structs that fit into the arrays before they are grown
+     * @throws IllegalArgumentException if the type has no primitive members
+     */
+    public Columns(BPFType<T> type, int initialCapacity) {
+        this.type = type;
+        this.capacity = Math.max(initialCapacity, 1);
+        if (type instanceof BPFStructType<T> structType) {
+            for (var member : structType.members()) {
+                addColumn(member.name(), member.offset(), member.type());
+            }
+        } else {
+            addColumn(VALUE, 0, type);
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Type " + type.bpfName() + " has no primitive members");
+        }
+        this.columnArray = columns.values().toArray(new Column[0]);
+    }
+
+    private void addColumn(String name, long offset, BPFType<?> memberType) {
+        var layout = BPFArrayType.primitiveLayout(memberType);
+        if (layout != null) {
+            boolean unsigned = !BPFArrayType.primitiveType(memberType).isSigned() &&
+                    !(layout instanceof ValueLayout.OfFloat) && !(layout instanceof ValueLayout.OfDouble);
+            columns.put(name, new Column(offset, layout, unsigned, capacity));
+        }
+    }
+
+    public BPFType<T> type() {
+        return type;
+    }
+
+    /**
+     * Number of decoded structs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Names of the columns, in the order of the members
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * Remove all decoded structs, keeping the arrays
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > capacity) {
+            capacity = Math.max(required, capacity * 2);
+            for (var column : columnArray) {
+                column.grow(capacity);
+            }
+        }
+    }
+
+    /**
+     * Decode a single struct
+     */
+    public void add(MemorySegment segment) {
+        addAll(segment, 0, 1);
+    }
+
+    /**
+     * Decode {@code count} consecutive structs, like the values of a batch map lookup
+     *
+     * @param stride distance between the starts of two structs in bytes
+     */
+    public void addAll(MemorySegment batch, long stride, int count) {
+        ensureCapacity(size + count);
+        for (var column : columnArray) {
+            column.read(batch, stride, count, size);
+        }
+        size += count;
+    }
+
+    /**
+     * Decode {@code count} consecutive structs that are {@link BPFType#sizePadded()} bytes apart
+     */
+    public void addAll(MemorySegment batch, int count) {
+        addAll(batch, type.sizePadded(), count);
+    }
+
+    private Column column(String name) {
+        var column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No primitive column " + name + " in " + type.bpfName());
+        }
+        return column;
+    }
+
+    /**
+     * Indices of the structs with the largest values in the column, for top-N reports
+     * <p>
+     * Compares the values unsigned for unsigned BPF types like {@code u64}, even though Java stores them
+     * in signed primitives
+     *
+     * @param n maximum number of indices
+     * @return indices ordered by descending value
+     */
+    public int[] largest(String name, int n) {
+        var column = column(name);
+        int[] top = new int[Math.max(0, Math.min(n, size))];
+        int count = 0;
+        for (int i = 0; i < size && top.length > 0; i++) {
+            if (count == top.length && column.compare(i, top[count - 1]) <= 0) {
+                continue;
+            }
+            // insert into the sorted top indices, dropping the smallest if full
+            int j = count == top.length ? count - 1 : count++;
+            for (; j > 0 && column.compare(i, top[j - 1]) > 0; j--) {
+                top[j] = top[j - 1];
+            }
+            top[j] = i;
+        }
+        return top;
+    }
+
+    private <A> A values(String name, Class<A> arrayClass) {
+        var column = column(name);
+        if (!arrayClass.isInstance(column.values)) {
+            throw new IllegalArgumentException("Column " + name + " is a " +
+                    column.values.getClass().getComponentType() + " column");
+        }
+        return arrayClass.cast(column.values);
+    }
+
+    /**
+     * Values of a {@code byte} member, only the first {@link #size()} entries are valid
+     */
+    public byte[] bytes(String name) {
+        return values(name, byte[].class);
+    }
+
+    /**
+     * Values of a {@code short} member, only the first {@link #size()} entries are valid
+     */
+    public short[] shorts(String name) {
+        return values(name, short[].class);
+    }
+
+    /**
+     * Values of an {@code int} member, only the first {@link #size()} entries are valid
+     */
+    public int[] ints(String name) {
+        return values(name, int[].class);
+    }
+
+    /**
+     * Values of a {@code long} member, only the first {@link #size()} entries are valid
+     */
+    public long[] longs(String name) {
+        return values(name, long[].class);
+    }
+
+    /**
+     * Values of a {@code float} member, only the first {@link #size()} entries are valid
+     */
+    public float[] floats(String name) {
+        return values(name, float[].class);
+    }
+
+    /**
+     * Values of a {@code double} member, only the first {@link #size()} entries are valid
+     */
+    public double[] doubles(String name) {
+        return values(name, double[].class);
+    }
+}
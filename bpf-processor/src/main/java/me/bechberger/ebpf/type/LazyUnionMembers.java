@@ -0,0 +1,93 @@
+package me.bechberger.ebpf.type;
+
+import me.bechberger.ebpf.type.BPFType.BPFUnionMember;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.*;
+
+/**
+ * Members of a parsed union, that are decoded from a copy of the union memory on first access
+ * <p>
+ * Members that can't be parsed from the memory (e.g. because of an invalid enum value) are {@code null}
+ * and not contained in the {@link #entrySet()}.
+ */
+final class LazyUnionMembers extends AbstractMap<String, Object> {
+
+    private final MemorySegment memory;
+    private final long size;
+    private final Map<String, BPFType<?>> types;
+    private final Map<String, Object> decoded = new HashMap<>();
+
+    LazyUnionMembers(MemorySegment segment, long size, List<? extends BPFUnionMember<?, ?>> members) {
+        // backed by a long array to allow aligned accesses
+        this.memory = MemorySegment.ofArray(new long[(int) ((size + 7) / 8)]);
+        MemorySegment.copy(segment, 0, memory, 0, size);
+        this.size = size;
+        this.types = new LinkedHashMap<>();
+        for (var member : members) {
+            types.put(member.name(), member.type());
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (decoded.containsKey(key)) {
+            return decoded.get(key);
+        }
+        var type = types.get(key);
+        if (type == null) {
+            return null;
+        }
+        Object value;
+        try {
+            value = type.parseMemory(memory);
+        } catch (IllegalArgumentException e) {
+            value = null;
+        }
+        decoded.put((String) key, value);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return types.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        var old = get(key);
+        decoded.put(key, value);
+        return old;
+    }
+
+    /**
+     * Names of all members, without decoding them
+     */
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(types.keySet());
+    }
+
+    /**
+     * Write the original union memory back
+     */
+    void copyTo(MemorySegment segment) {
+        MemorySegment.copy(memory, 0, segment, 0, size);
+    }
+
+    /**
+     * Decodes all members
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (var name : types.keySet()) {
+            var value = get(name);
+            if (value != null) {
+                result.put(name, value);
+            }
+        }
+        return Collections.unmodifiableMap(result).entrySet();
+    }
+}
@@ -0,0 +1,187 @@
+package me.bechberger.ebpf.type;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes NUL-terminated strings in fixed size char arrays, used by {@link BPFType.StringType}
+ * <p>
+ * The terminating NUL is searched eight bytes at a time, checking at the same time whether the string
+ * is ASCII, which allows to skip the UTF-8 decoding. Short strings can be interned in a bounded cache,
+ * which helps with strings that only have a few different values, like process names.
+ */
+public final class StringCodec {
+
+    private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /** Strings longer than this are not interned */
+    public static final int MAX_INTERNED_LENGTH = 64;
+
+    private static final int INTERN_CACHE_SIZE = 4096;
+
+    private record InternEntry(byte[] bytes, String string) {
+    }
+
+    /**
+     * Direct mapped cache, a colliding string replaces the previous entry,
+     * races between threads only lead to cache misses
+     */
+    private static final InternEntry[] internCache = new InternEntry[INTERN_CACHE_SIZE];
+
+    private StringCodec() {
+    }
+
+    /**
+     * Scan for the terminating NUL
+     *
+     * @return the length of the string in the lower 32 bits, and a set 33rd bit if the string is not ASCII
+     */
+    private static long scan(MemorySegment segment, int maxLength) {
+        int max = (int) Math.min(maxLength, segment.byteSize());
+        long highBits = 0;
+        int i = 0;
+        for (; i + 8 <= max; i += 8) {
+            long word = segment.get(WORD, i);
+            // the lowest set bit marks the first zero byte, higher bits might be false positives
+            long zeros = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (zeros != 0) {
+                int bytes = Long.numberOfTrailingZeros(zeros) / 8;
+                if (bytes > 0) {
+                    highBits |= word & HIGH_BITS & (-1L >>> (64 - 8 * bytes));
+                }
+                return result(i + bytes, highBits);
+            }
+            highBits |= word & HIGH_BITS;
+        }
+        for (; i < max; i++) {
+            byte b = segment.get(ValueLayout.JAVA_BYTE, i);
+            if (b == 0) {
+                break;
+            }
+            highBits |= b & 0x80;
+        }
+        return result(i, highBits);
+    }
+
+    private static long result(int length, long highBits) {
+        return length | (highBits == 0 ? 0 : 1L << 32);
+    }
+
+    /**
+     * Length of the string, the index of the first NUL or {@code maxLength}
+     */
+    public static int length(MemorySegment segment, int maxLength) {
+        return (int) scan(segment, maxLength);
+    }
+
+    /**
+     * Decode the NUL-terminated UTF-8 string
+     *
+     * @param maxLength maximum length, including the NUL
+     */
+    public static String decode(MemorySegment segment, int maxLength) {
+        long scan = scan(segment, maxLength);
+        return decode(segment, (int) scan, (scan >>> 32) == 0);
+    }
+
+    private static String decode(MemorySegment segment, int length, boolean ascii) {
+        if (length == 0) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, bytes, 0, length);
+        // ASCII is a subset of ISO-8859-1, which is copied directly into a compact string
+        return new String(bytes, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode the NUL-terminated UTF-8 string, returning the same {@code String} instance for recently decoded
+     * strings with the same content, without allocating
+     *
+     * @param maxLength maximum length, including the NUL
+     */
+    public static String decodeInterned(MemorySegment segment, int maxLength) {
+        long scan = scan(segment, maxLength);
+        int length = (int) scan;
+        if (length > MAX_INTERNED_LENGTH) {
+            return decode(segment, length, (scan >>> 32) == 0);
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + segment.get(ValueLayout.JAVA_BYTE, i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (INTERN_CACHE_SIZE - 1);
+        var entry = internCache[index];
+        if (entry != null && contentEquals(segment, entry.bytes, length)) {
+            return entry.string;
+        }
+        var string = decode(segment, length, (scan >>> 32) == 0);
+        internCache[index] = new InternEntry(segment.asSlice(0, length).toArray(ValueLayout.JAVA_BYTE), string);
+        return string;
+    }
+
+    private static boolean contentEquals(MemorySegment segment, byte[] bytes, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (segment.get(ValueLayout.JAVA_BYTE, i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode the string as NUL-terminated UTF-8, truncating it if necessary
+     *
+     * @param maxLength maximum length, including the NUL
+     */
+    public static void encode(MemorySegment segment, String string, int maxLength) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, maxLength - 1);
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, length);
+        segment.set(ValueLayout.JAVA_BYTE, length, (byte) 0);
+    }
+
+    /**
+     * Create a {@link CharSequence} that reads the characters directly from the memory, without decoding
+     * <p>
+     * Every byte is one character, which is only correct for ASCII strings,
+     * {@link CharSequence#toString()} decodes the string properly.
+     * The sequence is only valid as long as the memory is.
+     *
+     * @param maxLength maximum length, including the NUL
+     */
+    public static CharSequence view(MemorySegment segment, int maxLength) {
+        return new SegmentCharSequence(segment, length(segment, maxLength));
+    }
+
+    private record SegmentCharSequence(MemorySegment segment, int length) implements CharSequence {
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return (char) (segment.get(ValueLayout.JAVA_BYTE, index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            return new SegmentCharSequence(segment.asSlice(start), end - start);
+        }
+
+        @Override
+        public String toString() {
+            return decode(segment, length, false);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package me.bechberger.ebpf.type;
+
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Flyweight view of a struct in native memory, that reads and writes the members directly,
+ * without creating a Java object for the struct
+ * <p>
+ * The annotation processor generates a {@code XxxView} subclass for every {@code @Type} struct {@code Xxx}
+ * declared in a {@code @BPF} program, as a nested class of the generated {@code ProgramImpl} class,
+ * with a getter and setter per member. A view can be moved to
+ * another struct via {@link #wrap(MemorySegment)}, so one view suffices to process many events:
+ * {@snippet :
+ *     var view = new ProgramImpl.EventView();
+ *     ringBuffer.setViewCallback(view, event -> {
+ *         if (event.pid() == pid) {
+ *             System.out.println(event.filename());
+ *         }
+ *     });
+ * }
+ * The view is only valid as long as the wrapped memory is.
+ *
+ * @param <T> type of the struct
+ */
+public abstract class StructView<T> {
+
+    protected MemorySegment segment;
+
+    protected StructView(MemorySegment segment) {
+        this.segment = segment;
+    }
+
+    /**
+     * Memory of the viewed struct
+     */
+    public MemorySegment segment() {
+        return segment;
+    }
+
+    /**
+     * Point the view to another struct
+     *
+     * @param segment memory of the struct, at least {@link BPFStructType#size()} bytes
+     * @return this view
+     */
+    public StructView<T> wrap(MemorySegment segment) {
+        this.segment = segment;
+        return this;
+    }
+
+    /**
+     * Type of the viewed struct
+     */
+    public abstract BPFStructType<T> structType();
+
+    /**
+     * Create a Java object from the viewed struct
+     */
+    public T materialize() {
+        return structType().parseMemory(segment);
+    }
+
+    /**
+     * Store the object in the viewed struct
+     */
+    public void store(T obj) {
+        structType().setMemory(segment, obj);
+    }
+}
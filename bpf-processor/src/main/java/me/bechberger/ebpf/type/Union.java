@@ -1,9 +1,14 @@
 package me.bechberger.ebpf.type;
 
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static me.bechberger.ebpf.type.BoxHelper.unbox;
@@ -12,6 +17,10 @@ import static me.bechberger.ebpf.type.BoxHelper.unbox;
  * Class that all unions have to extend.
  * <p>
  * Adds {@link #toString()}, {@link #equals(Object)} and {@link #hashCode()} to a class.
+ * <p>
+ * The fields of parsed unions are set when the union is created, except for unions annotated with
+ * {@link NotUsableInJava} (like the generated kernel unions): Their members are only decoded on
+ * {@link #get(String)}, as most of them are never read in Java.
  */
 public class Union extends Struct {
     /**
@@ -19,6 +28,26 @@ public class Union extends Struct {
      */
     Map<String, Object> originalValues;
 
+    /**
+     * Members whose fields are not yet set from the {@link #originalValues}, {@code null} if there are none
+     */
+    private Set<String> undecodedMembers;
+
+    /**
+     * Accessible declared fields of every union class, by name
+     */
+    private static final ClassValue<Map<String, Field>> fields = new ClassValue<>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            Map<String, Field> result = new HashMap<>();
+            for (var field : type.getDeclaredFields()) {
+                field.setAccessible(true);
+                result.put(field.getName(), field);
+            }
+            return result;
+        }
+    };
+
     public Union() {
         originalValues = null;
     }
@@ -26,22 +55,97 @@ public class Union extends Struct {
     @SuppressWarnings("unchecked")
     public <U extends Union> U init(Map<String, Object> originalValues) {
         this.originalValues = originalValues;
+        if (originalValues instanceof LazyUnionMembers lazyMembers &&
+                getClass().isAnnotationPresent(NotUsableInJava.class)) {
+            undecodedMembers = new HashSet<>(lazyMembers.keySet());
+            return (U) this;
+        }
         // use reflection to set the fields
         for (var entry : originalValues.entrySet()) {
-            Field field;
-            try {
-                field = getClass().getDeclaredField(entry.getKey());
-            } catch (NoSuchFieldException e) {
-                throw new RuntimeException("Field " + entry.getKey() + " does not exist", e);
+            setField(entry.getKey(), entry.getValue());
+        }
+        return (U) this;
+    }
+
+    private Field field(String name) {
+        Field field = fields.get(getClass()).get(name);
+        if (field == null) {
+            throw new RuntimeException("Field " + name + " does not exist");
+        }
+        return field;
+    }
+
+    private void setField(String name, Object value) {
+        Field field = field(name);
+        Object unboxed = unbox(value, field.getType());
+        try {
+            field.set(this, unboxed);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Could not set field " + name, e);
+        }
+    }
+
+    /**
+     * Decode the member from the parsed memory, if this hasn't happened yet
+     */
+    private void decode(String name) {
+        if (undecodedMembers != null && undecodedMembers.remove(name)) {
+            Object value = originalValues.get(name);
+            if (value != null) {
+                setField(name, value);
             }
-            Object unboxed = unbox(entry.getValue(), field.getType());
-            try {
-                field.setAccessible(true);
-                field.set(this, unboxed);
-            } catch (IllegalAccessException | IllegalArgumentException e) {
-                throw new IllegalArgumentException("Could not set field " + entry.getKey(), e);
+        }
+    }
+
+    private void decodeAll() {
+        if (undecodedMembers != null) {
+            for (var name : Set.copyOf(undecodedMembers)) {
+                decode(name);
             }
         }
-        return (U) this;
+    }
+
+    /**
+     * Whether the field of the member holds its parsed value (or a value set in Java)
+     */
+    boolean isDecoded(String name) {
+        return undecodedMembers == null || !undecodedMembers.contains(name);
+    }
+
+    /**
+     * Get the value of a member, decoding it on first access
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        decode(name);
+        try {
+            return (T) field(name).get(this);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Could not get field " + name, e);
+        }
+    }
+
+    /**
+     * Decodes all members
+     */
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        decodeAll();
+        if (obj instanceof Union union) {
+            union.decodeAll();
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        decodeAll();
+        return super.hashCode();
     }
 }
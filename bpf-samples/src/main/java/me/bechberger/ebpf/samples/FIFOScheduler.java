@@ -40,13 +40,11 @@ import me.bechberger.ebpf.bpf.GlobalVariable;
 import me.bechberger.ebpf.bpf.Scheduler;
 import me.bechberger.ebpf.bpf.map.BPFHashMap;
 import me.bechberger.ebpf.bpf.map.BPFLRUHashMap;
+import me.bechberger.ebpf.type.Columns;
 import me.bechberger.ebpf.type.Ptr;
 import picocli.CommandLine;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -188,28 +186,33 @@ public abstract class FIFOScheduler extends BPFProgram implements Scheduler, Run
         System.out.println("global " + String.join(" ", formatRow.apply(statsRows.get(2))));
     }
 
-    String getProcessName(int pid) {
-        try {
-            return Files.readString(Paths.get("/proc/" + pid + "/comm")).trim();
-        } catch (Exception e) {
-            return "unknown";
+    private TaskSnapshot taskSnapshot;
+
+    /**
+     * Obtain the names of all processes at once via a task iterator
+     */
+    Map<Integer, String> getProcessNames() {
+        if (taskSnapshot == null) {
+            taskSnapshot = BPFProgram.load(TaskSnapshot.class);
         }
+        return taskSnapshot.processNames();
     }
 
     void printVTimeStats() {
-        var top5 = enqueuesPerProcess.entrySet().stream()
-                .sorted(Comparator.comparingLong(e -> -e.getValue()))
-                .limit(10)
-                .toList();
+        // decode the pids and counts into primitive arrays
+        var pids = new Columns<>(enqueuesPerProcess.getKeyType());
+        var counts = new Columns<>(enqueuesPerProcess.getValueType());
+        enqueuesPerProcess.readBatched(pids, counts, 1024);
+        var names = getProcessNames();
         // Print table header
         System.out.printf("%-10s %-20s %-10s%n", "PID", "Process Name", "Enqueue Count");
         System.out.println("---------------------------------------------");
 
         // Print each process in the top 5
-        for (var e : top5) {
-            var pid = e.getKey();
-            var count = e.getValue();
-            var name = getProcessName(pid); // Assuming getProcessName(pid) retrieves the process name by PID
+        for (int i : counts.largest(Columns.VALUE, 10)) {
+            var pid = pids.ints(Columns.VALUE)[i];
+            var count = counts.longs(Columns.VALUE)[i];
+            var name = names.getOrDefault(pid, "unknown");
             name = name.substring(0, Math.min(20, name.length())); // Truncate the process name to 20 characters
             System.out.printf("%-10d %-20s %10d%n", pid, name, count);
         }
@@ -244,6 +247,14 @@ public abstract class FIFOScheduler extends BPFProgram implements Scheduler, Run
         }
     }
 
+    @Override
+    public void close() {
+        if (taskSnapshot != null) {
+            taskSnapshot.close();
+        }
+        super.close();
+    }
+
     public static void main(String[] args) {
         try (var program = BPFProgram.load(FIFOScheduler.class)) {
             new CommandLine(program).execute(args);
@@ -0,0 +1,93 @@
+package me.bechberger.ebpf.samples;
+
+import me.bechberger.ebpf.annotations.Type;
+import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.BPFProgram;
+import me.bechberger.ebpf.bpf.SkMsgHook;
+import me.bechberger.ebpf.bpf.SockOpsHook;
+import me.bechberger.ebpf.bpf.map.BPFSockHash;
+import me.bechberger.ebpf.type.Ptr;
+
+import static me.bechberger.ebpf.bpf.XDPHook.bpf_htonl;
+import static me.bechberger.ebpf.runtime.BpfDefinitions.bpf_sock_ops;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_action;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_msg_md;
+
+/**
+ * Short-circuit TCP connections between processes on the same host
+ * <p>
+ * A <code>sockops</code> program adds every established IPv4 connection whose both ends are on
+ * this host to a socket hash. The <code>sk_msg</code> program then puts every message sent on
+ * one of these sockets directly into the receive queue of the peer socket, skipping the whole
+ * TCP/IP stack of both ends.
+ * <p>
+ * Based on the sockmap examples of Cilium and Istio.
+ */
+@BPF(license = "GPL")
+public abstract class LocalTCPRedirect extends BPFProgram implements SockOpsHook, SkMsgHook {
+
+    static final int AF_INET = 2;
+    static final int BPF_SOCK_OPS_ACTIVE_ESTABLISHED_CB = 4;
+    static final int BPF_SOCK_OPS_PASSIVE_ESTABLISHED_CB = 5;
+
+    /**
+     * Identifies a socket by its connection, the local port is stored in network byte order
+     * like the remote port, so that the key of the peer can be computed in the message handler
+     */
+    @Type
+    static class SockKey {
+        public @Unsigned int remoteIP;
+        public @Unsigned int localIP;
+        public @Unsigned int localPort;
+        public @Unsigned int remotePort;
+    }
+
+    @BPFMapDefinition(maxEntries = 65535)
+    BPFSockHash<SockKey> sockets;
+
+    @Override
+    public int sockOpsHandle(Ptr<bpf_sock_ops> ops) {
+        int op = ops.val().op;
+        if (op != BPF_SOCK_OPS_ACTIVE_ESTABLISHED_CB && op != BPF_SOCK_OPS_PASSIVE_ESTABLISHED_CB) {
+            return 1;
+        }
+        // only connections between two sockets on this host
+        if (ops.val().family != AF_INET || ops.val().remote_ip4 != ops.val().local_ip4) {
+            return 1;
+        }
+        SockKey key = new SockKey();
+        key.remoteIP = ops.val().remote_ip4;
+        key.localIP = ops.val().local_ip4;
+        key.localPort = (int) bpf_htonl(ops.val().local_port);
+        key.remotePort = ops.val().remote_port;
+        sockets.update(ops, key, 0);
+        return 1;
+    }
+
+    @Override
+    public sk_action skMsgVerdict(Ptr<sk_msg_md> msg) {
+        if (msg.val().family != AF_INET) {
+            return sk_action.SK_PASS;
+        }
+        // the key of the peer socket, the remote end of this socket is the local end of the peer
+        SockKey peer = new SockKey();
+        peer.remoteIP = msg.val().local_ip4;
+        peer.localIP = msg.val().remote_ip4;
+        peer.localPort = msg.val().remote_port;
+        peer.remotePort = (int) bpf_htonl(msg.val().local_port);
+        // passes the message through the network stack if the peer is not in the map
+        sockets.redirectMsgToIngress(msg, peer);
+        return sk_action.SK_PASS;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try (LocalTCPRedirect program = BPFProgram.load(LocalTCPRedirect.class)) {
+            program.sockOpsAttach();
+            program.skMsgAttach(program.sockets);
+            System.out.println("Redirecting local TCP connections, press Ctrl-C to stop");
+            Thread.currentThread().join();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package me.bechberger.ebpf.samples;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.bpf.BPFProgram;
+import me.bechberger.ebpf.bpf.OffCPUHook;
+import me.bechberger.ebpf.bpf.StackSymbolizer;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.util.Map;
+
+/**
+ * Prints the threads that are blocked the longest and the stacks they block in,
+ * based on the {@link OffCPUHook}
+ * <p>
+ * The stacks are printed as folded stacks, with the blocked time in microseconds,
+ * which can be turned into an off-CPU flame graph with
+ * <a href="https://github.com/brendangregg/FlameGraph">flamegraph.pl</a>.
+ */
+@BPF(license = "GPL")
+@Command(name = "OffCPUTime", mixinStandardHelpOptions = true,
+        description = "Measure how long threads are blocked and print the top threads and stacks")
+public abstract class OffCPUTime extends BPFProgram implements OffCPUHook, Runnable {
+
+    @Option(names = {"-d", "--duration"}, description = "Duration in seconds", defaultValue = "10")
+    int duration;
+
+    @Option(names = {"-n", "--top"}, description = "Number of threads and stacks to print", defaultValue = "10")
+    int top;
+
+    @Override
+    public void run() {
+        offCPUAttach();
+        try {
+            Thread.sleep(duration * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.printf("%8s %8s %-16s %12s %12s %8s%n", "PID", "TGID", "COMM", "BLOCKED ms", "RUNQUEUE ms",
+                "COUNT");
+        getOffCPUTaskTimes().stream().limit(top).forEach(time ->
+                System.out.printf("%8d %8d %-16s %12.3f %12.3f %8d%n", time.pid(), time.tgid(), time.comm(),
+                        time.blockedNs() / 1_000_000.0, time.runqueueNs() / 1_000_000.0, time.count()));
+        System.out.println();
+        getOffCPUFoldedStacks(new StackSymbolizer()).entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(top)
+                .forEach(e -> System.out.println(e.getKey() + " " + e.getValue() / 1000));
+    }
+
+    public static void main(String[] args) {
+        try (OffCPUTime program = BPFProgram.load(OffCPUTime.class)) {
+            new CommandLine(program).execute(args);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package me.bechberger.ebpf.samples;
+
+import me.bechberger.ebpf.annotations.Size;
+import me.bechberger.ebpf.annotations.Type;
+import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFFunction;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.BPFJ;
+import me.bechberger.ebpf.bpf.BPFProgram;
+import me.bechberger.ebpf.bpf.StackSymbolizer;
+import me.bechberger.ebpf.bpf.map.BPFHashMap;
+import me.bechberger.ebpf.bpf.map.BPFStackTraceMap;
+import me.bechberger.ebpf.type.Ptr;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static me.bechberger.ebpf.runtime.BpfDefinitions.bpf_perf_event_data;
+import static me.bechberger.ebpf.runtime.helpers.BPFHelpers.bpf_get_current_comm;
+import static me.bechberger.ebpf.runtime.helpers.BPFHelpers.bpf_get_current_pid_tgid;
+
+/**
+ * Sampling CPU profiler that aggregates the stacks in the kernel
+ * <p>
+ * Samples every CPU at a fixed frequency via a perf event and counts every (process, user stack,
+ * kernel stack) tuple in a hash map, so the cost in user space only depends on the number of distinct stacks.
+ * The result is printed as folded stacks that can be turned into a flame graph with
+ * <a href="https://github.com/brendangregg/FlameGraph">flamegraph.pl</a>.
+ * <p>
+ * Run {@code jcmd <pid> Compiler.perfmap} before the end of the profiling to resolve JIT-compiled Java methods.
+ */
+@BPF(license = "GPL")
+@Command(name = "Profiler", mixinStandardHelpOptions = true,
+        description = "Sample the stacks of all processes and print them as folded stacks")
+public abstract class Profiler extends BPFProgram implements Runnable {
+
+    static final int TASK_COMM_LEN = 16;
+
+    @Type
+    static class SampleKey {
+        @Unsigned int pid;
+        int userStackId;
+        int kernelStackId;
+        @Size(TASK_COMM_LEN) String comm;
+    }
+
+    @BPFMapDefinition(maxEntries = 16384)
+    BPFStackTraceMap stacks;
+
+    @BPFMapDefinition(maxEntries = 16384)
+    BPFHashMap<SampleKey, @Unsigned Long> counts;
+
+    @BPFFunction(section = "perf_event")
+    public int sample(Ptr<bpf_perf_event_data> ctx) {
+        SampleKey key = new SampleKey();
+        key.pid = (int) (bpf_get_current_pid_tgid() >> 32);
+        key.userStackId = stacks.getUserStackId(ctx);
+        key.kernelStackId = stacks.getKernelStackId(ctx);
+        bpf_get_current_comm(Ptr.of(key.comm), TASK_COMM_LEN);
+        Ptr<@Unsigned Long> count = counts.bpf_get(key);
+        if (count == null) {
+            counts.put(key, 1L);
+        } else {
+            BPFJ.sync_fetch_and_add(count, 1L);
+        }
+        return 0;
+    }
+
+    @Option(names = {"-f", "--frequency"}, description = "Samples per second and CPU", defaultValue = "99")
+    int frequency;
+
+    @Option(names = {"-d", "--duration"}, description = "Duration in seconds", defaultValue = "10")
+    int duration;
+
+    @Option(names = {"-o", "--output"}, description = "Output file, stdout by default")
+    Path output;
+
+    /**
+     * Aggregate the samples into folded stacks
+     */
+    Map<String, Long> foldedStacks() {
+        var symbolizer = new StackSymbolizer();
+        Map<String, Long> folded = new HashMap<>();
+        counts.forEach((key, count) -> {
+            var stack = symbolizer.fold(key.comm, key.pid, stacks.getStack(key.userStackId),
+                    stacks.getStack(key.kernelStackId));
+            folded.merge(stack, count, Long::sum);
+        });
+        return folded;
+    }
+
+    @Override
+    public void run() {
+        perfEventAttachSampling(getProgramByName("sample"), frequency);
+        try {
+            Thread.sleep(duration * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (PrintStream out = output == null ? System.out : new PrintStream(Files.newOutputStream(output))) {
+            foldedStacks().entrySet().stream().sorted(Map.Entry.comparingByKey())
+                    .forEach(e -> out.println(e.getKey() + " " + e.getValue()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        try (Profiler program = BPFProgram.load(Profiler.class)) {
+            new CommandLine(program).execute(args);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.bechberger.ebpf.samples;
+
+import me.bechberger.ebpf.annotations.Size;
+import me.bechberger.ebpf.annotations.Type;
+import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.bpf.BPFProgram;
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark that compares parsing events with the generated struct codec, the compiled generic parser
+ * and the reflective member-wise parser that was used before both,
+ * doesn't load any eBPF program and therefore doesn't require root
+ * <p>
+ * Run it via {@code java -cp bpf-samples/target/bpf-samples.jar me.bechberger.ebpf.samples.StructCodecBenchmark}
+ */
+@BPF
+public abstract class StructCodecBenchmark extends BPFProgram {
+
+    static final String EBPF_PROGRAM = "#include \"vmlinux.h\"";
+
+    @Type
+    record SyscallEvent(@Unsigned int pid, @Unsigned int tid, @Unsigned long timestamp, int syscall, long ret,
+                        @Unsigned long durationNs, @Size(16) String comm) {
+    }
+
+    static final int EVENTS = 1024;
+
+    /**
+     * The parser of struct types before the codecs and the compiled parser: parses every member
+     * via its type into a list and passes the list to the constructor
+     */
+    static <T> T parseReflective(BPFStructType<T> type, MemorySegment segment) {
+        List<Object> args = type.members().stream()
+                .map(member -> (Object) member.type().parseMemory(segment.asSlice(member.offset()))).toList();
+        return type.constructor().apply(args);
+    }
+
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(2)
+    public static class Benchmarks {
+
+        private Arena arena;
+        private MemorySegment[] events;
+        private BPFStructType<SyscallEvent> codecType;
+        private BPFStructType<SyscallEvent> genericType;
+
+        @Setup
+        public void setup() {
+            codecType = BPFProgram.getStructTypeForClass(StructCodecBenchmark.class, SyscallEvent.class);
+            genericType = codecType.withoutCodec();
+            arena = Arena.ofConfined();
+            var memory = arena.allocate(codecType.sizePadded() * EVENTS, codecType.alignment());
+            events = new MemorySegment[EVENTS];
+            for (int i = 0; i < EVENTS; i++) {
+                events[i] = memory.asSlice(i * codecType.sizePadded(), codecType.size());
+                codecType.setMemory(events[i],
+                        new SyscallEvent(i, i, System.nanoTime(), i % 300, i, i * 10L, "java"));
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            arena.close();
+        }
+
+        @Benchmark
+        @OperationsPerInvocation(EVENTS)
+        public void reflective(Blackhole blackhole) {
+            for (var event : events) {
+                blackhole.consume(parseReflective(genericType, event));
+            }
+        }
+
+        @Benchmark
+        @OperationsPerInvocation(EVENTS)
+        public void generic(Blackhole blackhole) {
+            for (var event : events) {
+                blackhole.consume(genericType.parseMemory(event));
+            }
+        }
+
+        @Benchmark
+        @OperationsPerInvocation(EVENTS)
+        public void codec(Blackhole blackhole) {
+            for (var event : events) {
+                blackhole.consume(codecType.parseMemory(event));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StructCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
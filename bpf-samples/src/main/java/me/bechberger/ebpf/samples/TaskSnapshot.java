@@ -0,0 +1,83 @@
+package me.bechberger.ebpf.samples;
+
+import me.bechberger.ebpf.annotations.Size;
+import me.bechberger.ebpf.annotations.Type;
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.bpf.BPFIterator;
+import me.bechberger.ebpf.bpf.BPFProgram;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot all tasks with a BPF task iterator, instead of reading <code>/proc/[pid]/comm</code>
+ * for every process
+ */
+@BPF(license = "GPL")
+public abstract class TaskSnapshot extends BPFProgram {
+
+    static final int TASK_COMM_LEN = 16;
+
+    @Type(name = "task_info")
+    record TaskInfo(int pid, int tgid, @Size(TASK_COMM_LEN) String comm) {}
+
+    private static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            struct task_info {
+                s32 pid;
+                s32 tgid;
+                char comm[16];
+            };
+
+            SEC("iter/task")
+            int dump_task(struct bpf_iter__task *ctx) {
+                struct task_struct *task = ctx->task;
+                if (task == NULL) {
+                    return 0;
+                }
+                struct task_info info = {};
+                info.pid = task->pid;
+                info.tgid = task->tgid;
+                __builtin_memcpy(info.comm, task->comm, sizeof(info.comm));
+                bpf_seq_write(ctx->meta->seq, &info, sizeof(info));
+                return 0;
+            }
+            """;
+
+    private BPFIterator<TaskInfo> iterator;
+
+    /**
+     * All tasks (threads) currently known to the kernel
+     */
+    List<TaskInfo> tasks() {
+        if (iterator == null) {
+            iterator = iterator("dump_task", getTypeForClass(TaskInfo.class));
+        }
+        return iterator.read();
+    }
+
+    /**
+     * Process name for every process id, obtained in a single pass
+     */
+    public Map<Integer, String> processNames() {
+        Map<Integer, String> names = new HashMap<>();
+        for (var task : tasks()) {
+            if (task.pid() == task.tgid()) {
+                names.put(task.pid(), task.comm());
+            }
+        }
+        return names;
+    }
+
+    public static void main(String[] args) {
+        try (TaskSnapshot program = BPFProgram.load(TaskSnapshot.class)) {
+            System.out.printf("%-10s %-10s %s%n", "PID", "TGID", "Command");
+            for (var task : program.tasks()) {
+                System.out.printf("%-10d %-10d %s%n", task.pid(), task.tgid(), task.comm());
+            }
+        }
+    }
+}
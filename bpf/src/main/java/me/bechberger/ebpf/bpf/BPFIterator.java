@@ -0,0 +1,154 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.BPFProgram.ProgramHandle;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.shared.LibC;
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.Ptr;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Typed reader for a BPF iterator program (<code>bpf_iter</code>), which walks kernel objects
+ * like tasks, open files or TCP sockets and writes one record per object
+ * <p>
+ * Every read creates a new iterator instance and yields a snapshot of all objects with a few
+ * system calls, instead of reading many files in <code>/proc</code>.
+ * Iterator programs are placed in sections like <code>iter/task</code>, <code>iter/task_file</code>
+ * or <code>iter/tcp</code> and write records of the same type via <code>bpf_seq_write</code>:
+ * {@snippet :
+ *     struct task_info { s32 pid; char comm[16]; };
+ *
+ *     SEC("iter/task")
+ *     int dump_task(struct bpf_iter__task *ctx) {
+ *         struct task_struct *task = ctx->task;
+ *         if (task == NULL) {
+ *             return 0;
+ *         }
+ *         struct task_info info = { .pid = task->pid };
+ *         __builtin_memcpy(info.comm, task->comm, sizeof(info.comm));
+ *         bpf_seq_write(ctx->meta->seq, &info, sizeof(info));
+ *         return 0;
+ *     }
+ * }
+ * and are read in Java via
+ * {@snippet :
+ *     try (var iterator = program.iterator("dump_task", program.getTypeForClass(TaskInfo.class))) {
+ *         List<TaskInfo> tasks = iterator.read();
+ *     }
+ * }
+ * @param <T> type of the records
+ */
+public class BPFIterator<T> implements AutoCloseable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final BPFProgram program;
+    private final ProgramHandle handle;
+    private final BPFType<T> recordType;
+    private final BPFProgram.BPFLink link;
+
+    BPFIterator(BPFProgram program, ProgramHandle handle, BPFType<T> recordType, BPFProgram.BPFLink link) {
+        this.program = program;
+        this.handle = handle;
+        this.recordType = recordType;
+        this.link = link;
+    }
+
+    /**
+     * Run the iterator and return the raw output
+     *
+     * @throws BPFError if creating or reading the iterator failed
+     */
+    public byte[] readBytes() {
+        int fd = Lib.bpf_iter_create(Lib.bpf_link__fd(link.segment()));
+        if (fd < 0) {
+            throw new BPFError("Failed to create iterator for " + handle.name(), -fd);
+        }
+        try (var arena = Arena.ofConfined()) {
+            var buffer = arena.allocate(READ_BUFFER_SIZE);
+            var out = new ByteArrayOutputStream();
+            while (true) {
+                var ret = LibC.read(fd, buffer);
+                if (ret.result() < 0) {
+                    throw new BPFError("Failed to read iterator " + handle.name(), ret.err());
+                }
+                if (ret.result() == 0) {
+                    return out.toByteArray();
+                }
+                out.writeBytes(buffer.asSlice(0, ret.result()).toArray(JAVA_BYTE));
+            }
+        } finally {
+            LibC.close(fd);
+        }
+    }
+
+    /**
+     * Run the iterator and parse all records
+     *
+     * @return snapshot of all records
+     * @throws BPFError if creating or reading the iterator failed, or the output is not a sequence of records
+     */
+    public List<T> read() {
+        var segment = MemorySegment.ofArray(readBytes());
+        long stride = recordType.sizePadded();
+        if (segment.byteSize() % stride != 0) {
+            throw new BPFError("Iterator output of " + segment.byteSize() + " bytes is not a multiple of the " +
+                    "record size " + stride);
+        }
+        // heap segments are only byte aligned, so parse from a copy with the required alignment
+        try (var arena = Arena.ofConfined()) {
+            var aligned = arena.allocate(Math.max(segment.byteSize(), 1), recordType.alignment());
+            MemorySegment.copy(segment, 0, aligned, 0, segment.byteSize());
+            int count = (int) (segment.byteSize() / stride);
+            List<T> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                records.add(recordType.parseMemory(aligned.asSlice(i * stride, recordType.size())));
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Run the iterator and stream all records
+     */
+    public Stream<T> stream() {
+        return read().stream();
+    }
+
+    public ProgramHandle getHandle() {
+        return handle;
+    }
+
+    /**
+     * Detach the iterator program
+     */
+    @Override
+    public void close() {
+        program.detachProgram(link);
+    }
+
+    /**
+     * Write a record to the output of the iterator, in eBPF
+     *
+     * @param ctx iterator context, e.g. <code>struct bpf_iter__task *</code>
+     * @param record record to write
+     * @return 0 on success, negative error otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_seq_write
+     */
+    @BuiltinBPFFunction("bpf_seq_write($arg1->meta->seq, $pointery$arg2, sizeof($arg2))")
+    @NotUsableInJava
+    public static <R> long seqWrite(Ptr<?> ctx, R record) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
@@ -25,13 +25,18 @@ import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.MemorySegment;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.IntStream;
 
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
 import static me.bechberger.ebpf.NameUtil.toConstantCase;
 import static me.bechberger.ebpf.bpf.raw.Lib.*;
 
@@ -119,11 +124,67 @@ public abstract class BPFProgram implements AutoCloseable {
      * @return instance of the implementation class, created using the default constructor
      */
     public static <T extends BPFProgram, S extends T> S load(Class<T> clazz) {
+        return load(clazz, (MapReuse) null);
+    }
+
+    /**
+     * Loads the implementation class of the given abstract BPFProgram subclass, reusing all maps of
+     * the passed program that have the same name (and are not internal maps like <code>.data</code>
+     * or program arrays)
+     * <p>
+     * Both programs then operate on the same kernel maps, which is useful for upgrading a running program
+     * via {@link #replace(BPFProgram)} without losing its state. Program arrays are not reused, as their
+     * entries would run the new tail call stages before the programs are replaced.
+     *
+     * @param clazz abstract BPFProgram subclass
+     * @param reuseMapsOf program whose maps should be reused
+     * @return instance of the implementation class
+     */
+    public static <T extends BPFProgram, S extends T> S load(Class<T> clazz, BPFProgram reuseMapsOf) {
+        return load(clazz, new MapReuse(MapReuse.mapsOf(reuseMapsOf), null, false));
+    }
+
+    /**
+     * Loads the implementation class of the given abstract BPFProgram subclass, reusing the passed maps
+     * of the passed program
+     *
+     * @param clazz abstract BPFProgram subclass
+     * @param reuseMapsOf program whose maps should be reused
+     * @param mapNames names of the maps to reuse, every map has to exist in both programs
+     * @return instance of the implementation class
+     * @see #initTailCalls() for reused program arrays
+     */
+    public static <T extends BPFProgram, S extends T> S load(Class<T> clazz, BPFProgram reuseMapsOf,
+                                                             Collection<String> mapNames) {
+        return load(clazz, new MapReuse(MapReuse.mapsOf(reuseMapsOf), Set.copyOf(mapNames), true));
+    }
+
+    static <T extends BPFProgram, S extends T> S load(Class<T> clazz, @Nullable MapReuse mapReuse) {
         try {
             KernelFeatures.checkRequirements("Loading BPF program", clazz);
-            var program = BPFProgram.<T, S>getImplClass(clazz).getConstructor().newInstance();
+            currentMapReuse.set(mapReuse);
+            S program;
+            try {
+                program = BPFProgram.<T, S>getImplClass(clazz).getConstructor().newInstance();
+            } finally {
+                currentMapReuse.remove();
+            }
             program.initGlobals();
+            if (checkKernelTypes) {
+                try {
+                    program.checkKernelTypes();
+                } catch (BPFError e) {
+                    program.close();
+                    throw e;
+                }
+            }
+            program.initTailCalls();
             return program;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof BPFError error) {
+                throw error;
+            }
+            throw new RuntimeException(e);
         } catch (BPFError e) {
             throw e;
         } catch (Exception e) {
@@ -131,6 +192,49 @@ public abstract class BPFProgram implements AutoCloseable {
         }
     }
 
+    /**
+     * Provides the file descriptors of existing maps
+     */
+    @FunctionalInterface
+    interface MapFdProvider {
+        /**
+         * Get the file descriptor of the map that should be used instead of creating the passed map
+         *
+         * @param name   name of the map
+         * @param object opened but not yet loaded object (struct bpf_object *)
+         * @param map    map of the object (struct bpf_map *)
+         * @return file descriptor or null if there is no such map
+         */
+        @Nullable Integer getFd(String name, MemorySegment object, MemorySegment map);
+    }
+
+    /**
+     * Existing maps that should be reused when loading a program
+     *
+     * @param provider provides the existing maps
+     * @param mapNames names of the maps, or null for all maps that the provider knows
+     * @param requireAll whether all named maps have to exist in the loaded program and the provider
+     */
+    record MapReuse(MapFdProvider provider, @Nullable Set<String> mapNames, boolean requireAll) {
+
+        /** Provider for the maps of the passed program */
+        static MapFdProvider mapsOf(BPFProgram program) {
+            return (name, object, map) -> {
+                try {
+                    return program.getMapDescriptorByName(name).fd();
+                } catch (BPFMapNotFoundError e) {
+                    return null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Passes the map reuse configuration from {@link #load(Class, MapReuse)} to the constructor,
+     * as the generated implementation classes only have a default constructor
+     */
+    private static final ThreadLocal<MapReuse> currentMapReuse = new ThreadLocal<>();
+
     /**
      * The eBPF object, struct bpf_object *ebpf_object
      */
@@ -141,20 +245,40 @@ public abstract class BPFProgram implements AutoCloseable {
      */
     public record BPFLink(MemorySegment segment) {}
 
-    private final Set<BPFLink> attachedPrograms = new HashSet<>();
+    /**
+     * Attached links and the programs they link to
+     */
+    private final Map<BPFLink, ProgramHandle> attachedPrograms = new HashMap<>();
+
+    /**
+     * Links that were attached solely based on the section of their program, so they can be attached again
+     */
+    private final Set<BPFLink> autoAttachedLinks = new HashSet<>();
     private final Set<Integer> openedFDs = new HashSet<>();
 
     private final Set<BPFMap> attachedMaps = new HashSet<>();
 
-    private final Set<MemorySegment> attachedStructOps = new HashSet<>();
+    /**
+     * Names of the maps that are reused from another program
+     */
+    private final Set<String> reusedMaps = new HashSet<>();
 
-    record AttachedXDPIfIndex(int ifindex, int flags) {}
+    /**
+     * Struct ops links and the names of their maps
+     */
+    private final Map<MemorySegment, String> attachedStructOps = new HashMap<>();
+
+    record AttachedXDPIfIndex(ProgramHandle handle, int ifindex, int flags) {}
 
     private final Set<AttachedXDPIfIndex> attachedXDPIfIndexes = new HashSet<>();
 
     record AttachedTCIfIndex(ProgramHandle handle, int ifindex, boolean ingress, int priority) {}
     private final Set<AttachedTCIfIndex> attachedTCIfIndices = new HashSet<>();
 
+    private final Set<StatsHandle> statsHandles = new HashSet<>();
+
+    private final Set<ProgramStatsSampler> statsSamplers = new HashSet<>();
+
     private volatile boolean closed = false;
 
     /**
@@ -202,6 +326,127 @@ public abstract class BPFProgram implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns the type with the layout of the running kernel, if it is a kernel type
+     * from {@code me.bechberger.ebpf.runtime}, see {@link KernelBTF#relocate(BPFType)}
+     * <p>
+     * Only use this for memory that is a raw copy of kernel memory, e.g. a struct that the eBPF program
+     * copies with <code>bpf_probe_read_kernel</code>. The key and value types of maps and the types of
+     * ring buffer events have the layout that the eBPF program was compiled with.
+     *
+     * @throws KernelBTF.KernelTypeMismatchError if the type can't be relocated
+     * @see #setKernelTypeCheck(boolean) for checking all used kernel types when loading
+     */
+    public static <T> BPFType<T> kernelType(BPFType<T> type) {
+        if (!KernelBTF.isKernelType(type)) {
+            return type;
+        }
+        var kernelBTF = KernelBTF.running();
+        return kernelBTF == null ? type : kernelBTF.relocate(type);
+    }
+
+    /**
+     * Returns the type with the layout of the running kernel, for parsing the values of a map that the eBPF
+     * program fills with raw copies of kernel memory
+     *
+     * @param map map whose values are parsed with the returned type
+     * @throws KernelBTF.KernelTypeMismatchError if the type can't be relocated or the relocated type
+     *                                           is larger than the values of the map
+     * @see #kernelType(BPFType)
+     */
+    public static <T> BPFType<T> kernelType(BPFType<T> type, BPFMap map) {
+        var relocated = kernelType(type);
+        int valueSize = map.getInfo().valueSize();
+        if (relocated.size() > valueSize) {
+            throw new KernelBTF.KernelTypeMismatchError(type.bpfName(), List.of("size " + relocated.size() +
+                    " is larger than the value size " + valueSize + " of the map"));
+        }
+        return relocated;
+    }
+
+    private static volatile boolean checkKernelTypes = false;
+
+    /**
+     * Check the kernel types used by every program loaded afterwards against the running kernel,
+     * disabled by default
+     * <p>
+     * Loading fails with a {@link KernelBTF.KernelTypeMismatchError} if the layout of a used kernel type
+     * differs in the running kernel, see {@link #getUsedKernelTypes()}. Enable it for programs that copy raw
+     * kernel memory into maps or events, as these copies have the layout of the running kernel and not the
+     * layout the program was compiled with. The check is skipped if the kernel doesn't expose its BTF.
+     */
+    public static void setKernelTypeCheck(boolean enabled) {
+        checkKernelTypes = enabled;
+    }
+
+    /**
+     * Kernel types used by this program: in the keys, values and events of its maps and in the types
+     * defined in the program, including kernel structs nested in other types
+     */
+    public Set<BPFType<?>> getUsedKernelTypes() {
+        Set<BPFType<?>> types = new LinkedHashSet<>();
+        for (var map : attachedMaps) {
+            map.getTypes().forEach(types::add);
+        }
+        for (var field : getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) &&
+                    BPFType.class.isAssignableFrom(field.getType())) {
+                try {
+                    types.add((BPFType<?>) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        Set<BPFType<?>> kernelTypes = new LinkedHashSet<>();
+        Set<BPFType<?>> visited = new HashSet<>();
+        for (var type : types) {
+            collectKernelTypes(type, kernelTypes, visited);
+        }
+        return kernelTypes;
+    }
+
+    private static void collectKernelTypes(@Nullable BPFType<?> type, Set<BPFType<?>> kernelTypes,
+                                           Set<BPFType<?>> visited) {
+        if (type == null || !visited.add(type)) {
+            return;
+        }
+        if (KernelBTF.isKernelType(type)) {
+            // nested kernel structs are checked with their kernel type
+            kernelTypes.add(type);
+            return;
+        }
+        switch (type) {
+            case BPFStructType<?> struct -> struct.members().forEach(m -> collectKernelTypes(m.type(), kernelTypes,
+                    visited));
+            case BPFUnionType<?> union -> union.members().forEach(m -> collectKernelTypes(m.type(), kernelTypes,
+                    visited));
+            case BPFType.BPFArrayType<?> array -> collectKernelTypes(array.memberType(), kernelTypes, visited);
+            case BPFType.BPFTypedef<?, ?> typedef -> collectKernelTypes(typedef.wrapped(), kernelTypes, visited);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Check that the used kernel types match the running kernel
+     *
+     * @throws KernelBTF.KernelTypeMismatchError for the first type that differs
+     * @see #setKernelTypeCheck(boolean)
+     */
+    private void checkKernelTypes() {
+        var kernelBTF = KernelBTF.running();
+        if (kernelBTF == null) {
+            return;
+        }
+        for (var type : getUsedKernelTypes()) {
+            var differences = kernelBTF.differences(type);
+            if (!differences.isEmpty()) {
+                throw new KernelBTF.KernelTypeMismatchError(type.bpfName(), differences);
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> BPFType<T> getTypeForImplClass(Class<?> outerImpl, Class<T> inner, boolean canonical) {
         String fieldName = toConstantCase(canonical ? inner.getCanonicalName() : inner.getSimpleName())
@@ -228,20 +473,182 @@ public abstract class BPFProgram implements AutoCloseable {
      */
     private MemorySegment loadProgram() {
         Path objFile = getTmpObjectFile();
-        try (Arena arena = Arena.ofConfined()) {
-            MemorySegment fileName = arena.allocateFrom(objFile.toString());
+        var logLevel = verifierLogLevel;
+        long logBufferSize = logLevel.bufferSize();
+        while (true) {
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment fileName = arena.allocateFrom(objFile.toString());
+
+                var ebpf_object = BPF_OBJECT__OPEN_FILE.call(fileName, MemorySegment.NULL);
+                if (ebpf_object.result() == MemorySegment.NULL) {
+                    throw new BPFLoadError("Failed to open eBPF file: " + Util.errnoString(ebpf_object.err()));
+                }
+
+                var mapReuse = currentMapReuse.get();
+                if (mapReuse != null) {
+                    reusedMaps.clear();
+                    reusedMaps.addAll(reuseMaps(ebpf_object.result(), mapReuse));
+                }
+
+                Map<String, MemorySegment> logBuffers = setupVerifierLogs(arena, ebpf_object.result(), logLevel,
+                        logBufferSize);
 
-            var ebpf_object = BPF_OBJECT__OPEN_FILE.call(fileName, MemorySegment.NULL);
-            if (ebpf_object.result() == MemorySegment.NULL) {
-                throw new BPFLoadError("Failed to open eBPF file: " + Util.errnoString(ebpf_object.err()));
+                var ret = BPF_OBJECT__LOAD.call(ebpf_object.result());
+                if (ret.result() == -PanamaUtil.ERRNO_ENOSPC && logBufferSize < MAX_VERIFIER_LOG_BUFFER_SIZE &&
+                        logBuffers.values().stream().anyMatch(BPFProgram::isLogBufferFull)) {
+                    // the verifier log didn't fit into the buffer, an object can only be loaded once
+                    Lib.bpf_object__close(ebpf_object.result());
+                    logBufferSize = Math.min(logBufferSize * 4, MAX_VERIFIER_LOG_BUFFER_SIZE);
+                    continue;
+                }
+                if (ret.hasError() && ret.result() != 0 && logLevel == LoadReport.LogLevel.NONE) {
+                    // load again with the verifier log to report the error
+                    Lib.bpf_object__close(ebpf_object.result());
+                    logLevel = LoadReport.LogLevel.STATS;
+                    logBufferSize = logLevel.bufferSize();
+                    continue;
+                }
+                this.loadReport = new LoadReport(logLevel, logBuffers.entrySet().stream()
+                        .map(e -> LoadReport.parse(e.getKey(), e.getValue().getString(0),
+                                isLogBufferFull(e.getValue()))).toList());
+                if (ret.hasError() && ret.result() != 0) {
+                    throw new BPFLoadError("Failed to load eBPF object: " + Util.errnoString(ret.err()) +
+                            formatVerifierLogsForError(loadReport));
+                }
+                return ebpf_object.result();
             }
+        }
+    }
+
+    /**
+     * Whether the verifier log filled the buffer, the kernel fills it up to the terminating zero byte
+     * when truncating
+     */
+    private static boolean isLogBufferFull(MemorySegment buffer) {
+        return buffer.getString(0).length() >= buffer.byteSize() - 1;
+    }
+
+    /**
+     * Largest verifier log buffer per program, loading is retried with larger buffers up to this size
+     */
+    private static final long MAX_VERIFIER_LOG_BUFFER_SIZE = 256L * 1024 * 1024;
+
+    private static volatile LoadReport.LogLevel verifierLogLevel = LoadReport.LogLevel.NONE;
+
+    /**
+     * Set the level of the verifier log captured for every program loaded afterwards,
+     * the default is {@link LoadReport.LogLevel#NONE}
+     * <p>
+     * Programs that fail to load are loaded again with {@link LoadReport.LogLevel#STATS}
+     * to report the verifier error.
+     *
+     * @see #getLoadReport()
+     */
+    public static void setVerifierLogLevel(LoadReport.LogLevel level) {
+        verifierLogLevel = level;
+    }
 
-            var ret = BPF_OBJECT__LOAD.call(ebpf_object.result());
-            if (ret.hasError() && ret.result() != 0) {
-                throw new BPFLoadError("Failed to load eBPF object: " + Util.errnoString(ret.err()));
+    private @Nullable LoadReport loadReport;
+
+    /**
+     * Get the verifier statistics (processed instructions, stack depth, states) of all programs,
+     * captured while loading
+     *
+     * @return report, without programs if the log level is {@link LoadReport.LogLevel#NONE}
+     */
+    public LoadReport getLoadReport() {
+        return Objects.requireNonNull(loadReport);
+    }
+
+    /**
+     * Set a verifier log buffer for every program of the opened but not yet loaded object
+     *
+     * @return program name to log buffer
+     */
+    private static Map<String, MemorySegment> setupVerifierLogs(Arena arena, MemorySegment object,
+                                                                LoadReport.LogLevel level, long bufferSize) {
+        Map<String, MemorySegment> buffers = new LinkedHashMap<>();
+        if (level == LoadReport.LogLevel.NONE) {
+            return buffers;
+        }
+        for (MemorySegment prog = Lib.bpf_object__next_program(object, MemorySegment.NULL);
+             prog != MemorySegment.NULL && prog.address() != 0;
+             prog = Lib.bpf_object__next_program(object, prog)) {
+            if (!Lib.bpf_program__autoload(prog)) {
+                continue;
+            }
+            MemorySegment buffer = arena.allocate(bufferSize);
+            buffer.set(JAVA_BYTE, 0, (byte) 0);
+            Lib.bpf_program__set_log_buf(prog, buffer, buffer.byteSize());
+            Lib.bpf_program__set_log_level(prog, level.level());
+            buffers.put(PanamaUtil.toString(Lib.bpf_program__name(prog)), buffer);
+        }
+        return buffers;
+    }
+
+    private static String formatVerifierLogsForError(LoadReport report) {
+        StringBuilder builder = new StringBuilder();
+        for (var program : report.programs()) {
+            var log = program.log().strip();
+            if (log.isEmpty()) {
+                continue;
+            }
+            // the error is at the end of the log, omit the start of long logs
+            var lines = log.lines().toList();
+            builder.append("\n--- verifier log of ").append(program.name())
+                    .append(program.logTruncated() ? " (truncated) ---\n" : " ---\n");
+            if (lines.size() > 50) {
+                builder.append("... (").append(lines.size() - 50).append(" lines omitted)\n");
+            }
+            builder.append(String.join("\n", lines.subList(Math.max(0, lines.size() - 50), lines.size())));
+        }
+        return builder.toString();
+    }
+
+    private static final HandlerWithErrno<Integer> BPF_MAP__REUSE_FD =
+            new HandlerWithErrno<>("bpf_map__reuse_fd",
+                    FunctionDescriptor.of(JAVA_INT, PanamaUtil.POINTER, JAVA_INT));
+
+    /**
+     * Let the maps of the opened but not yet loaded object use the file descriptors of the maps
+     * of another program
+     *
+     * @return names of the reused maps
+     */
+    private static Set<String> reuseMaps(MemorySegment object, MapReuse mapReuse) {
+        Set<String> remaining = mapReuse.mapNames() == null ? null : new HashSet<>(mapReuse.mapNames());
+        Set<String> reused = new HashSet<>();
+        for (MemorySegment map = Lib.bpf_object__next_map(object, MemorySegment.NULL);
+             map != MemorySegment.NULL && map.address() != 0;
+             map = Lib.bpf_object__next_map(object, map)) {
+            var name = PanamaUtil.toString(Lib.bpf_map__name(map));
+            if (remaining == null) {
+                // internal maps like .data and .bss hold the global variables, struct ops belong to the program
+                // and program arrays hold its tail call stages
+                if (name.contains(".") || Lib.bpf_map__type(map) == BPF_MAP_TYPE_STRUCT_OPS() ||
+                        Lib.bpf_map__type(map) == BPF_MAP_TYPE_PROG_ARRAY()) {
+                    continue;
+                }
+            } else if (!remaining.remove(name)) {
+                continue;
+            }
+            Integer sourceFd = mapReuse.provider().getFd(name, object, map);
+            if (sourceFd == null) {
+                if (mapReuse.requireAll()) {
+                    throw new BPFMapNotFoundError(name);
+                }
+                continue;
+            }
+            var ret = BPF_MAP__REUSE_FD.call(map, sourceFd);
+            if (ret.result() < 0) {
+                throw new BPFLoadError("Failed to reuse map " + name + ": " + Util.errnoString(-ret.result()));
             }
-            return ebpf_object.result();
+            reused.add(name);
         }
+        if (mapReuse.requireAll() && remaining != null && !remaining.isEmpty()) {
+            throw new BPFMapNotFoundError(String.join(", ", remaining));
+        }
+        return reused;
     }
 
     /**
@@ -280,6 +687,78 @@ public abstract class BPFProgram implements AutoCloseable {
         return names;
     }
 
+    /**
+     * Tail call stage that is placed into a program array reused from another program
+     * when this program replaces the other program
+     */
+    record PendingTailCall(String map, int index, ProgramHandle prog) {}
+
+    private final List<PendingTailCall> pendingTailCalls = new ArrayList<>();
+
+    private BPFProgArray getProgArray(String name) {
+        return attachedMaps.stream()
+                .filter(m -> m instanceof BPFProgArray && m.getFd().name().equals(name))
+                .map(m -> (BPFProgArray) m).findFirst()
+                .orElseGet(() -> getMapByName(name, fd -> new BPFProgArray(fd, BPFMap.getInfo(fd).maxEntries())));
+    }
+
+    /**
+     * Place all functions annotated with {@link TailCallTarget} into their program arrays
+     * <p>
+     * Called by {@link #load(Class)}. Program arrays that are reused from another program
+     * (via {@link #load(Class, BPFProgram, Collection)}) are still used by the other program,
+     * so their entries are only set when the other program is replaced by this program
+     * via {@link #replace(BPFProgram)}.
+     *
+     * @throws BPFError if a program array or program does not exist
+     */
+    public void initTailCalls() {
+        var programClass = getClass().getSuperclass();
+        for (var method : programClass.getMethods()) {
+            var target = findParentAnnotation(programClass, method, TailCallTarget.class);
+            if (target == null) {
+                continue;
+            }
+            var prog = getProgramByName(getBPFFunctionName(method));
+            if (reusedMaps.contains(target.map())) {
+                pendingTailCalls.add(new PendingTailCall(target.map(), target.index(), prog));
+                continue;
+            }
+            getProgArray(target.map()).set(target.index(), prog);
+        }
+    }
+
+    private static final HandlerWithErrno<MemorySegment> BPF_PROGRAM__ATTACH_ITER =
+            new HandlerWithErrno<>("bpf_program__attach_iter",
+                    FunctionDescriptor.of(PanamaUtil.POINTER, PanamaUtil.POINTER, PanamaUtil.POINTER));
+
+    /**
+     * Attach an iterator program (e.g. in section <code>iter/task</code>) and read it as a typed iterator
+     *
+     * @param prog       iterator program
+     * @param recordType type of the records the program writes via <code>bpf_seq_write</code>
+     * @return iterator, closing it detaches the program
+     * @throws BPFAttachError if attaching failed
+     */
+    public <T> BPFIterator<T> iterator(ProgramHandle prog, BPFType<T> recordType) {
+        var ret = BPF_PROGRAM__ATTACH_ITER.call(prog.prog(), MemorySegment.NULL);
+        if (ret.result() == MemorySegment.NULL || ret.result().address() == 0) {
+            throw new BPFAttachError(prog.name, ret.err());
+        }
+        var link = new BPFLink(ret.result());
+        attachedPrograms.put(link, prog);
+        return new BPFIterator<>(this, prog, recordType, link);
+    }
+
+    /**
+     * Attach an iterator program by name
+     *
+     * @see #iterator(ProgramHandle, BPFType)
+     */
+    public <T> BPFIterator<T> iterator(String name, BPFType<T> recordType) {
+        return iterator(getProgramByName(name), recordType);
+    }
+
     public void attachLSMHooks() {
         for (var method : getClass().getSuperclass().getDeclaredMethods()) {
             var annotation = findParentAnnotation(getClass().getSuperclass(), method, BPFFunction.class);
@@ -302,7 +781,8 @@ public abstract class BPFProgram implements AutoCloseable {
         if (link.segment.address() == 0) {
             throw new BPFAttachError(prog.name, ret.err());
         }
-        attachedPrograms.add(link);
+        attachedPrograms.put(link, prog);
+        autoAttachedLinks.add(link);
     }
 
     private <T extends Annotation> @Nullable T findParentAnnotation(Class<?> programClass, Method method, Class<T> annotationClass) {
@@ -407,6 +887,155 @@ public abstract class BPFProgram implements AutoCloseable {
     public record ProgramHandle(String name, MemorySegment prog) {
     }
 
+    /**
+     * Get handles for all programs (entry point functions) in the eBPF object
+     *
+     * @return program handles in the order of the object file
+     */
+    public List<ProgramHandle> getPrograms() {
+        List<ProgramHandle> programs = new ArrayList<>();
+        for (MemorySegment prog = Lib.bpf_object__next_program(this.ebpf_object, MemorySegment.NULL);
+             prog != MemorySegment.NULL && prog.address() != 0;
+             prog = Lib.bpf_object__next_program(this.ebpf_object, prog)) {
+            programs.add(new ProgramHandle(PanamaUtil.toString(Lib.bpf_program__name(prog)), prog));
+        }
+        return programs;
+    }
+
+    /**
+     * Runtime statistics of a program, as collected by the kernel
+     * <p>
+     * The kernel only collects the run count and time while statistics are enabled,
+     * see {@link #enableStats()}
+     *
+     * @param name name of the program
+     * @param runCount number of invocations
+     * @param runTimeNs accumulated run time of all invocations in nanoseconds
+     * @param recursionMisses number of invocations that were skipped due to recursion
+     */
+    public record ProgramStats(String name, long runCount, long runTimeNs, long recursionMisses) {
+
+        /** Average run time per invocation in nanoseconds, or 0 if the program didn't run */
+        public double averageRunTimeNs() {
+            return runCount == 0 ? 0 : (double) runTimeNs / runCount;
+        }
+
+        /** Difference to previously obtained statistics of the same program */
+        public ProgramStats minus(ProgramStats previous) {
+            return new ProgramStats(name, runCount - previous.runCount, runTimeNs - previous.runTimeNs,
+                    recursionMisses - previous.recursionMisses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d runs, %.1f ns/run, %d recursion misses", name, runCount,
+                    averageRunTimeNs(), recursionMisses);
+        }
+    }
+
+    /**
+     * Get the runtime statistics of a program
+     *
+     * @param prog program handle
+     * @return statistics, the counters are only updated while statistics are enabled
+     * @throws BPFError if the program info could not be obtained
+     */
+    public ProgramStats getStats(ProgramHandle prog) {
+        try (var arena = Arena.ofConfined()) {
+            var info = bpf_prog_info.allocate(arena);
+            info.fill((byte) 0);
+            var infoSizeRef = PanamaUtil.allocateIntRef(arena, (int) info.byteSize());
+            var ret = Lib.bpf_obj_get_info_by_fd(Lib.bpf_program__fd(prog.prog()), info, infoSizeRef);
+            if (ret < 0) {
+                throw new BPFError("Failed to get program info of " + prog.name(), -ret);
+            }
+            return new ProgramStats(prog.name(), bpf_prog_info.run_cnt(info), bpf_prog_info.run_time_ns(info),
+                    bpf_prog_info.recursion_misses(info));
+        }
+    }
+
+    /**
+     * Get the runtime statistics of all programs of this eBPF object
+     *
+     * @see #getStats(ProgramHandle)
+     */
+    public List<ProgramStats> getStats() {
+        return getPrograms().stream().map(this::getStats).toList();
+    }
+
+    private static final HandlerWithErrno<Integer> BPF_ENABLE_STATS =
+            new HandlerWithErrno<>("bpf_enable_stats",
+                    FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+
+    /**
+     * Handle that keeps the kernel-wide collection of program run time statistics enabled
+     * (<code>BPF_ENABLE_STATS</code>) until it is closed
+     */
+    public static class StatsHandle implements AutoCloseable {
+        private final int fd;
+        private boolean closed = false;
+
+        private StatsHandle(int fd) {
+            this.fd = fd;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                LibC.close(fd);
+            }
+        }
+    }
+
+    /**
+     * Enable the collection of run counts and run times for all eBPF programs
+     * <p>
+     * Collecting these statistics has a small overhead on every program invocation,
+     * so it is only enabled as long as the returned handle is open (or this program is open).
+     *
+     * @return handle that disables the collection when closed
+     * @throws BPFError if the statistics could not be enabled
+     */
+    public StatsHandle enableStats() {
+        var ret = BPF_ENABLE_STATS.call(BPF_STATS_RUN_TIME());
+        if (ret.result() < 0) {
+            throw new BPFError("Failed to enable BPF stats", ret.err());
+        }
+        var handle = new StatsHandle(ret.result());
+        statsHandles.add(handle);
+        return handle;
+    }
+
+    /**
+     * Periodically sample the runtime statistics of all programs, with statistics
+     * enabled while sampling
+     * <p>
+     * Example: {@snippet :
+     *    try (var sampler = program.sampleStats(Duration.ofSeconds(1),
+     *            stats -> stats.forEach(System.out::println))) {
+     *        program.tracePrintLoop();
+     *    }
+     * }
+     *
+     * @param interval sampling interval
+     * @param consumer receives the statistics of every program for the past interval
+     * @return sampler, close it to stop sampling, it is closed when this program is closed
+     */
+    public synchronized ProgramStatsSampler sampleStats(Duration interval, Consumer<List<ProgramStats>> consumer) {
+        var sampler = new ProgramStatsSampler(this, interval, consumer);
+        statsSamplers.add(sampler);
+        return sampler;
+    }
+
+    synchronized void removeStatsSampler(ProgramStatsSampler sampler) {
+        statsSamplers.remove(sampler);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
     public static class BPFProgramNotFound extends BPFError {
         public BPFProgramNotFound(String name) {
             super("Program not found: " + name);
@@ -472,7 +1101,8 @@ public abstract class BPFProgram implements AutoCloseable {
         if (link.segment.address() == 0) {
             throw new BPFAttachError(prog.name, ret.err());
         }
-        attachedPrograms.add(link);
+        attachedPrograms.put(link, prog);
+        autoAttachedLinks.add(link);
         return link;
     }
 
@@ -508,6 +1138,183 @@ public abstract class BPFProgram implements AutoCloseable {
         return this;
     }
 
+    private static final HandlerWithErrno<MemorySegment> BPF_PROGRAM__ATTACH_KPROBE_MULTI_OPTS =
+            new HandlerWithErrno<>("bpf_program__attach_kprobe_multi_opts",
+                    FunctionDescriptor.of(PanamaUtil.POINTER, PanamaUtil.POINTER, PanamaUtil.POINTER,
+                            PanamaUtil.POINTER));
+
+    /**
+     * Attach a single kprobe program to multiple kernel functions with one link (kprobe.multi)
+     * <p>
+     * This is much faster than attaching a program per function, as it requires a single
+     * system call. The program can use <code>bpf_get_func_ip</code> to find out which function it was called for.
+     * For glob patterns, use a <code>kprobe.multi/pattern</code> section and {@link #autoAttachProgram(ProgramHandle)}.
+     *
+     * @param prog     kprobe program, in a <code>kprobe.multi</code> section
+     * @param symbols  names of the kernel functions, e.g. <code>do_sys_openat2</code>
+     * @param retprobe attach to the function returns instead
+     * @return link, detached when this program is closed
+     * @throws BPFAttachError if attaching failed, e.g. on kernels older than 5.18
+     */
+    public BPFLink attachKprobeMulti(ProgramHandle prog, List<String> symbols, boolean retprobe) {
+        if (symbols.isEmpty()) {
+            throw new IllegalArgumentException("No symbols given");
+        }
+        try (var arena = Arena.ofConfined()) {
+            MemorySegment syms = arena.allocate(PanamaUtil.POINTER, symbols.size());
+            for (int i = 0; i < symbols.size(); i++) {
+                syms.setAtIndex(PanamaUtil.POINTER, i, arena.allocateFrom(symbols.get(i)));
+            }
+            MemorySegment opts = arena.allocate(bpf_kprobe_multi_opts.sizeof());
+            opts.fill((byte) 0);
+            bpf_kprobe_multi_opts.sz(opts, bpf_kprobe_multi_opts.sizeof());
+            bpf_kprobe_multi_opts.syms(opts, syms);
+            bpf_kprobe_multi_opts.cnt(opts, symbols.size());
+            bpf_kprobe_multi_opts.retprobe(opts, retprobe);
+            var ret = BPF_PROGRAM__ATTACH_KPROBE_MULTI_OPTS.call(prog.prog(), MemorySegment.NULL, opts);
+            if (ret.result() == MemorySegment.NULL || ret.result().address() == 0) {
+                throw new BPFAttachError(prog.name, ret.err());
+            }
+            var link = new BPFLink(ret.result());
+            attachedPrograms.put(link, prog);
+            return link;
+        }
+    }
+
+    private static final HandlerWithErrno<MemorySegment> BPF_PROGRAM__ATTACH_UPROBE_OPTS =
+            new HandlerWithErrno<>("bpf_program__attach_uprobe_opts",
+                    FunctionDescriptor.of(PanamaUtil.POINTER, PanamaUtil.POINTER, JAVA_INT, PanamaUtil.POINTER,
+                            JAVA_LONG, PanamaUtil.POINTER));
+
+    /**
+     * Attach a uprobe program to a function offset in a user-space binary
+     *
+     * @param prog     uprobe program, in a <code>uprobe</code> section
+     * @param binary   path of the binary or shared library
+     * @param offset   file offset of the function
+     * @param retprobe attach to the function returns instead
+     * @param pid      process to trace, or -1 for all processes
+     * @return link, detached when this program is closed
+     * @throws BPFAttachError if attaching failed
+     */
+    public BPFLink uprobeAttach(ProgramHandle prog, Path binary, long offset, boolean retprobe, int pid) {
+        try (var arena = Arena.ofConfined()) {
+            MemorySegment opts = arena.allocate(bpf_uprobe_opts.sizeof());
+            opts.fill((byte) 0);
+            bpf_uprobe_opts.sz(opts, bpf_uprobe_opts.sizeof());
+            bpf_uprobe_opts.retprobe(opts, retprobe);
+            var ret = BPF_PROGRAM__ATTACH_UPROBE_OPTS.call(prog.prog(), pid,
+                    arena.allocateFrom(binary.toString()), offset, opts);
+            if (ret.result() == MemorySegment.NULL || ret.result().address() == 0) {
+                throw new BPFAttachError(prog.name, ret.err());
+            }
+            var link = new BPFLink(ret.result());
+            attachedPrograms.put(link, prog);
+            return link;
+        }
+    }
+
+    /**
+     * Attach a uprobe program to a function in a user-space binary
+     * <p>
+     * The symbol is resolved with the {@link ElfSymbolResolver}, which caches the symbol table of every binary.
+     *
+     * @param symbol function name, mangled for C++ functions
+     * @see #uprobeAttach(ProgramHandle, Path, long, boolean, int)
+     */
+    public BPFLink uprobeAttach(ProgramHandle prog, Path binary, String symbol, boolean retprobe, int pid) {
+        long offset;
+        try {
+            offset = ElfSymbolResolver.resolve(binary, symbol);
+        } catch (BPFError e) {
+            throw new BPFAttachError(prog.name, e.getMessage());
+        }
+        return uprobeAttach(prog, binary, offset, retprobe, pid);
+    }
+
+    private static final HandlerWithErrno<MemorySegment> BPF_PROGRAM__ATTACH_USDT =
+            new HandlerWithErrno<>("bpf_program__attach_usdt",
+                    FunctionDescriptor.of(PanamaUtil.POINTER, PanamaUtil.POINTER, JAVA_INT, PanamaUtil.POINTER,
+                            PanamaUtil.POINTER, PanamaUtil.POINTER, PanamaUtil.POINTER));
+
+    /**
+     * Attach a program to a USDT (user statically defined tracing) probe,
+     * like HotSpot's <code>hotspot:gc__begin</code>
+     *
+     * @param prog     program, in a <code>usdt</code> section
+     * @param binary   path of the binary or shared library that defines the probe
+     * @param provider provider of the probe, e.g. <code>hotspot</code>
+     * @param name     name of the probe, e.g. <code>gc__begin</code>
+     * @param pid      process to trace, or -1 for all processes
+     * @return link, detached when this program is closed
+     * @throws BPFAttachError if attaching failed, e.g. if the probe doesn't exist
+     */
+    public BPFLink usdtAttach(ProgramHandle prog, Path binary, String provider, String name, int pid) {
+        try (var arena = Arena.ofConfined()) {
+            var ret = BPF_PROGRAM__ATTACH_USDT.call(prog.prog(), pid, arena.allocateFrom(binary.toString()),
+                    arena.allocateFrom(provider), arena.allocateFrom(name), MemorySegment.NULL);
+            if (ret.result() == MemorySegment.NULL || ret.result().address() == 0) {
+                throw new BPFAttachError(prog.name, ret.err());
+            }
+            var link = new BPFLink(ret.result());
+            attachedPrograms.put(link, prog);
+            return link;
+        }
+    }
+
+    private static final HandlerWithErrno<MemorySegment> BPF_PROGRAM__ATTACH_PERF_EVENT =
+            new HandlerWithErrno<>("bpf_program__attach_perf_event",
+                    FunctionDescriptor.of(PanamaUtil.POINTER, PanamaUtil.POINTER, JAVA_INT));
+
+    /**
+     * Attach a program to a perf event, the perf event is closed when the program is detached
+     *
+     * @param prog        program, in a <code>perf_event</code> section
+     * @param perfEventFd file descriptor obtained via {@link LibC#perfEventOpen(MemorySegment, int, int, int, long)}
+     * @return link, detached when this program is closed
+     * @throws BPFAttachError if attaching failed
+     */
+    public BPFLink perfEventAttach(ProgramHandle prog, int perfEventFd) {
+        var ret = BPF_PROGRAM__ATTACH_PERF_EVENT.call(prog.prog(), perfEventFd);
+        if (ret.result() == MemorySegment.NULL || ret.result().address() == 0) {
+            LibC.close(perfEventFd);
+            throw new BPFAttachError(prog.name, ret.err());
+        }
+        var link = new BPFLink(ret.result());
+        attachedPrograms.put(link, prog);
+        return link;
+    }
+
+    /**
+     * Run a program with a fixed frequency on every online CPU, using the CPU clock software event
+     * <p>
+     * This is the basis of sampling profilers: the program is called in the context of the task
+     * that currently runs on the CPU.
+     *
+     * @param prog      program, in a <code>perf_event</code> section
+     * @param frequency samples per second and CPU, e.g. 99
+     * @return links, one per CPU
+     * @throws BPFAttachError if opening a perf event or attaching failed, all links of this call are detached then
+     */
+    public List<BPFLink> perfEventAttachSampling(ProgramHandle prog, int frequency) {
+        List<BPFLink> links = new ArrayList<>();
+        try (var arena = Arena.ofConfined()) {
+            var attr = LibC.allocatePerfEventAttrWithFrequency(arena, LibC.PERF_TYPE_SOFTWARE,
+                    LibC.PERF_COUNT_SW_CPU_CLOCK, frequency);
+            for (int cpu : me.bechberger.ebpf.shared.Util.getOnlineCPUs()) {
+                var fd = LibC.perfEventOpen(attr, -1, cpu, -1, LibC.PERF_FLAG_FD_CLOEXEC);
+                if (fd.result() < 0) {
+                    throw new BPFAttachError(prog.name, fd.err());
+                }
+                links.add(perfEventAttach(prog, fd.result()));
+            }
+        } catch (BPFAttachError e) {
+            links.forEach(this::detachProgram);
+            throw e;
+        }
+        return links;
+    }
+
     public void xdpAttach(ProgramHandle prog, List<Integer> ifindex) {
         for (var index : ifindex) {
             xdpAttach(prog, index);
@@ -515,13 +1322,81 @@ public abstract class BPFProgram implements AutoCloseable {
     }
 
     public void xdpAttach(ProgramHandle prog, int ifindex) {
+        xdpAttach(prog, ifindex, XDPMode.AUTO, true);
+    }
+
+    /**
+     * Attach an XDP program to multiple network interfaces
+     *
+     * @see #xdpAttach(ProgramHandle, int, XDPMode, boolean)
+     */
+    public List<XDPMode> xdpAttach(ProgramHandle prog, List<Integer> ifindexes, XDPMode mode, boolean allowGeneric) {
+        return ifindexes.stream().map(index -> xdpAttach(prog, index, mode, allowGeneric)).toList();
+    }
+
+    /**
+     * Attach an XDP program to a network interface in the given mode
+     * <p>
+     * If attaching in the requested mode fails with <code>EOPNOTSUPP</code> or <code>EINVAL</code>
+     * (e.g. because the driver doesn't support native XDP), the program is attached in generic mode if allowed,
+     * all other errors (like <code>EBUSY</code> or <code>EPERM</code>) are thrown. Disallow the generic mode to fail fast instead
+     * of silently running in the much slower generic mode.
+     *
+     * @param prog         program to attach
+     * @param ifindex      network interface index
+     * @param mode         requested mode
+     * @param allowGeneric allow falling back to or choosing the generic mode
+     * @return the mode that is actually used
+     * @throws BPFAttachError if attaching failed, or the program would run in generic mode while not allowed
+     */
+    public XDPMode xdpAttach(ProgramHandle prog, int ifindex, XDPMode mode, boolean allowGeneric) {
+        if (mode == XDPMode.GENERIC && !allowGeneric) {
+            throw new IllegalArgumentException("Generic mode requested but not allowed");
+        }
         int fd = Lib.bpf_program__fd(prog.prog());
-        int flags = NetworkUtil.XDP_FLAGS_UPDATE_IF_NOEXIST;
+        int flags = NetworkUtil.XDP_FLAGS_UPDATE_IF_NOEXIST | mode.flags();
         int err = Lib.bpf_xdp_attach(ifindex, fd, flags, MemorySegment.NULL);
-        if (err > 0) {
-            throw new BPFAttachError(prog.name, err);
+        // only fall back if the driver doesn't support the mode, not e.g. if a program is already attached (EBUSY)
+        if ((err == -PanamaUtil.ERRNO_EOPNOTSUPP || err == -PanamaUtil.ERRNO_EINVAL) &&
+                mode != XDPMode.GENERIC && allowGeneric) {
+            flags = NetworkUtil.XDP_FLAGS_UPDATE_IF_NOEXIST | XDPMode.GENERIC.flags();
+            err = Lib.bpf_xdp_attach(ifindex, fd, flags, MemorySegment.NULL);
+        }
+        if (err < 0) {
+            throw new BPFAttachError(prog.name, -err);
+        }
+        var effectiveMode = getXDPMode(ifindex);
+        if (effectiveMode == XDPMode.GENERIC && !allowGeneric) {
+            Lib.bpf_xdp_detach(ifindex, flags, MemorySegment.NULL);
+            throw new BPFAttachError(prog.name, "Driver of interface " + ifindex +
+                    " only supports the generic XDP mode, which is not allowed");
+        }
+        // detaching requires the mode flags
+        if (effectiveMode != null) {
+            flags |= effectiveMode.flags();
+        }
+        attachedXDPIfIndexes.add(new AttachedXDPIfIndex(prog, ifindex, flags));
+        return effectiveMode == null ? mode : effectiveMode;
+    }
+
+    /**
+     * Get the mode of the XDP program attached to the network interface
+     *
+     * @param ifindex network interface index
+     * @return mode, or null if no or multiple programs are attached
+     * @throws BPFError if the query failed
+     */
+    public static @Nullable XDPMode getXDPMode(int ifindex) {
+        try (var arena = Arena.ofConfined()) {
+            MemorySegment opts = arena.allocate(bpf_xdp_query_opts.sizeof());
+            opts.fill((byte) 0);
+            bpf_xdp_query_opts.sz(opts, bpf_xdp_query_opts.sizeof());
+            int err = Lib.bpf_xdp_query(ifindex, 0, opts);
+            if (err < 0) {
+                throw new BPFError("Failed to query XDP mode of " + ifindex, -err);
+            }
+            return XDPMode.fromAttachMode(bpf_xdp_query_opts.attach_mode(opts));
         }
-        attachedXDPIfIndexes.add(new AttachedXDPIfIndex(ifindex, flags));
     }
 
     public void tcAttach(ProgramHandle prog, List<Integer> ifindex, boolean ingress) {
@@ -530,27 +1405,123 @@ public abstract class BPFProgram implements AutoCloseable {
         }
     }
 
+    /**
+     * Whether the kernel supports TCX links (Linux 6.6+), null if not yet known
+     */
+    private static volatile @Nullable Boolean tcxSupported = null;
+
+    /**
+     * Index of the loopback interface, which exists in every network namespace
+     */
+    private static final int LOOPBACK_IFINDEX = 1;
+
+    /**
+     * Probe whether the kernel supports TCX links, by querying the TCX programs of the loopback interface
+     * <p>
+     * Kernels without TCX don't know the attach type and fail with <code>EINVAL</code>. Only this probe
+     * decides whether TCX is used, errors of attaching a specific program (e.g. because of a wrong
+     * program type or interface) are thrown and not cached. Inconclusive probes (e.g. <code>EPERM</code>)
+     * are not cached either, TCX is tried in this case.
+     */
+    static boolean isTCXSupported() {
+        var supported = tcxSupported;
+        if (supported != null) {
+            return supported;
+        }
+        try (var arena = Arena.ofConfined()) {
+            var count = PanamaUtil.allocateIntRef(arena, 0);
+            int err = Lib.bpf_prog_query(LOOPBACK_IFINDEX, BPF_TCX_INGRESS(), 0, MemorySegment.NULL,
+                    MemorySegment.NULL, count);
+            if (err == 0) {
+                tcxSupported = true;
+            } else if (err == -PanamaUtil.ERRNO_EINVAL || err == -PanamaUtil.ERRNO_EOPNOTSUPP) {
+                tcxSupported = false;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * TC program attached via a TCX link
+     */
+    record AttachedTCXLink(ProgramHandle handle, int ifindex, boolean ingress, int linkFd) {}
+
+    private final Set<AttachedTCXLink> attachedTCXLinks = new HashSet<>();
+
+    /**
+     * Attach a TC classifier to a network interface
+     * <p>
+     * Uses a TCX link if the kernel supports it, which allows multiple programs per interface
+     * and is detached when this program is closed. Otherwise, the program is attached as a filter
+     * of the <code>clsact</code> qdisc via netlink, creating the qdisc if needed and keeping
+     * the filters of other programs. No external processes are started.
+     *
+     * @param prog    program to attach
+     * @param ifindex network interface index
+     * @param ingress attach to the ingress or egress hook
+     * @throws BPFAttachError if attaching failed
+     */
     public void tcAttach(ProgramHandle prog, int ifindex, boolean ingress) {
+        if (isTCXSupported()) {
+            attachedTCXLinks.add(tcxAttach(prog, ifindex, ingress));
+            return;
+        }
         var tcIfIndex = new AttachedTCIfIndex(prog, ifindex, ingress, 0);
         try (var arena = Arena.ofConfined()) {
             MemorySegment hook = allocateTCHookObject(arena, tcIfIndex);
-            // run tc qdisc del dev $DEVICE clsact on the command line
-            // to remove the clsact qdisc if it exists
-            try {
-                Runtime.getRuntime().exec(new String[]{"tc", "qdisc", "del", "dev", NetworkUtil.getNetworkInterfaceName(ifindex), "clsact"}).waitFor();
-            } catch (IOException | InterruptedException e) {
-            }
-            hook = allocateTCHookObject(arena, tcIfIndex);
             MemorySegment opts = allocateTCOptsObject(arena, tcIfIndex);
             int err = Lib.bpf_tc_hook_create(hook);
-            if (err > 0) {
-                throw new BPFAttachError(prog.name, err);
+            // the clsact qdisc is shared by all programs on the interface, so reuse it if it exists
+            if (err < 0 && err != -PanamaUtil.ERRNO_EEXIST) {
+                throw new BPFAttachError(prog.name, -err);
             }
             err = Lib.bpf_tc_attach(hook, opts);
-            if (err > 0) {
-                throw new BPFAttachError(prog.name, err);
+            if (err < 0) {
+                throw new BPFAttachError(prog.name, -err);
+            }
+            // libbpf chooses the priority if none is given, we need it to replace or detach the filter later
+            attachedTCIfIndices.add(new AttachedTCIfIndex(prog, ifindex, ingress, bpf_tc_opts.priority(opts)));
+        }
+    }
+
+    /**
+     * Attach the program via a TCX link, see {@link #isTCXSupported()}
+     *
+     * @return the attached link
+     * @throws BPFAttachError if attaching failed
+     */
+    private AttachedTCXLink tcxAttach(ProgramHandle prog, int ifindex, boolean ingress) {
+        // bpf_program__attach_tcx uses the expected attach type of the program, which is not set for SEC("tc"),
+        // so create the link directly with the TCX attach type
+        int linkFd = Lib.bpf_link_create(Lib.bpf_program__fd(prog.prog()), ifindex,
+                ingress ? BPF_TCX_INGRESS() : BPF_TCX_EGRESS(), MemorySegment.NULL);
+        if (linkFd < 0) {
+            throw new BPFAttachError(prog.name, -linkFd);
+        }
+        return new AttachedTCXLink(prog, ifindex, ingress, linkFd);
+    }
+
+    /**
+     * Remove the <code>clsact</code> qdisc of the network interface, including all TC filters attached to it
+     * by any program (like <code>tc qdisc del dev $DEVICE clsact</code>)
+     * <p>
+     * Not needed for programs attached via TCX links
+     *
+     * @param ifindex network interface index
+     * @throws BPFError if destroying the hook failed
+     */
+    public static void tcDestroyHook(int ifindex) {
+        try (var arena = Arena.ofConfined()) {
+            MemorySegment hook = arena.allocate(bpf_tc_hook.sizeof());
+            hook.fill((byte) 0);
+            bpf_tc_hook.sz(hook, bpf_tc_hook.sizeof());
+            bpf_tc_hook.ifindex(hook, ifindex);
+            bpf_tc_hook.attach_point(hook, BPF_TC_INGRESS() | BPF_TC_EGRESS());
+            int err = Lib.bpf_tc_hook_destroy(hook);
+            if (err < 0 && err != -PanamaUtil.ERRNO_ENOENT) {
+                throw new BPFError("Destroying TC hook of " + ifindex, -err);
             }
-            attachedTCIfIndices.add(tcIfIndex);
         }
     }
 
@@ -589,7 +1560,7 @@ public abstract class BPFProgram implements AutoCloseable {
         if (resultAndErr.result() == MemorySegment.NULL) {
             throw new BPFAttachError(handle.name, resultAndErr.err());
         }
-        attachedPrograms.add(new BPFLink(resultAndErr.result()));
+        attachedPrograms.put(new BPFLink(resultAndErr.result()), handle);
     }
 
     public void cgroupAttach(ProgramHandle handle, String cgroupName) {
@@ -609,6 +1580,46 @@ public abstract class BPFProgram implements AutoCloseable {
         cgroupAttachInternal(handle, cgroupName);
     }
 
+    record AttachedSockMapProgram(ProgramHandle handle, int mapFd, int attachType) {}
+
+    private final Set<AttachedSockMapProgram> attachedSockMapPrograms = new HashSet<>();
+
+    /**
+     * Attach a program to a {@link BPFSockMap} or {@link BPFSockHash}, so that it runs for all sockets in the map
+     *
+     * @param prog       program, e.g. in section <code>sk_msg</code>
+     * @param sockMap    socket map
+     * @param attachType attach type, e.g. <code>BPF_SK_MSG_VERDICT</code>
+     * @throws BPFAttachError if attaching failed
+     */
+    public void sockMapAttach(ProgramHandle prog, BPFMap sockMap, int attachType) {
+        var progFd = Lib.bpf_program__fd(prog.prog());
+        if (progFd < 0) {
+            throw new BPFAttachError(prog.name, -progFd);
+        }
+        int mapFd = sockMap.getFd().fd();
+        var ret = Lib.bpf_prog_attach(progFd, mapFd, attachType, 0);
+        if (ret < 0) {
+            throw new BPFAttachError(prog.name, -ret);
+        }
+        attachedSockMapPrograms.add(new AttachedSockMapProgram(prog, mapFd, attachType));
+    }
+
+    /**
+     * Attach an <code>sk_msg</code> program to a socket map, it is then called for every message sent
+     * on one of the sockets in the map
+     *
+     * @see #sockMapAttach(ProgramHandle, BPFMap, int)
+     */
+    public void skMsgAttach(ProgramHandle prog, BPFMap sockMap) {
+        sockMapAttach(prog, sockMap, BPF_SK_MSG_VERDICT());
+    }
+
+    private void sockMapDetach(AttachedSockMapProgram attached) {
+        Lib.bpf_prog_detach2(Lib.bpf_program__fd(attached.handle.prog()), attached.mapFd, attached.attachType);
+        attachedSockMapPrograms.remove(attached);
+    }
+
     private MemorySegment allocateTCHookObject(Arena arena, AttachedTCIfIndex tcIfIndex) {
         MemorySegment hook = arena.allocate(bpf_tc_hook.sizeof());
         hook.fill((byte) 0);
@@ -638,17 +1649,313 @@ public abstract class BPFProgram implements AutoCloseable {
         try (var arena = Arena.ofConfined()) {
             MemorySegment hook = allocateTCHookObject(arena, tcIfIndex);
             MemorySegment opts = allocateTCOptsObject(arena, tcIfIndex);
-            /*bpf_tc_opts.prog_fd(opts, 0);
-            bpf_tc_opts.prog_id(opts, 0);*/
+            // libbpf identifies the filter by handle and priority and rejects detach requests with a program
+            bpf_tc_opts.prog_fd(opts, 0);
+            bpf_tc_opts.prog_id(opts, 0);
             int err = Lib.bpf_tc_detach(hook, opts);
-            if (err > 0) {
-                throw new BPFError("Detaching " + tcIfIndex.handle.name, err);
+            if (err < 0) {
+                throw new BPFError("Detaching " + tcIfIndex.handle.name, -err);
+            }
+        }
+    }
+
+    private static final HandlerWithErrno<Integer> BPF_LINK__UPDATE_PROGRAM =
+            new HandlerWithErrno<>("bpf_link__update_program",
+                    FunctionDescriptor.of(JAVA_INT, PanamaUtil.POINTER, PanamaUtil.POINTER));
+
+    private static final HandlerWithErrno<Integer> BPF_LINK__UPDATE_MAP =
+            new HandlerWithErrno<>("bpf_link__update_map",
+                    FunctionDescriptor.of(JAVA_INT, PanamaUtil.POINTER, PanamaUtil.POINTER));
+
+    /**
+     * Atomically replace the program of an attached link, without detaching it
+     * <p>
+     * The new program has to have the same type and attach type as the old one,
+     * but can belong to another {@link BPFProgram}
+     *
+     * @param link link attached by this program
+     * @param newProg program that should be run instead
+     * @throws BPFAttachError if the kernel does not allow to update the link
+     */
+    public void updateProgram(BPFLink link, ProgramHandle newProg) {
+        if (!attachedPrograms.containsKey(link)) {
+            throw new IllegalArgumentException("Program not attached");
+        }
+        var ret = BPF_LINK__UPDATE_PROGRAM.call(link.segment, newProg.prog());
+        if (ret.result() < 0) {
+            throw new BPFAttachError(newProg.name, -ret.result());
+        }
+        attachedPrograms.put(link, newProg);
+    }
+
+    /**
+     * Atomically replace the XDP program attached to a network interface by this program
+     * <p>
+     * Uses {@link NetworkUtil#XDP_FLAGS_REPLACE}, so the kernel checks that the old program is still
+     * attached and there is no moment where no program is attached
+     *
+     * @param ifindex network interface index
+     * @param newProg program that should be run instead
+     * @throws IllegalArgumentException if this program did not attach an XDP program to the interface
+     * @throws BPFAttachError if replacing failed
+     */
+    public void xdpReplace(int ifindex, ProgramHandle newProg) {
+        var attached = attachedXDPIfIndexes.stream().filter(a -> a.ifindex == ifindex).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No XDP program attached to " + ifindex));
+        int flags = (attached.flags & NetworkUtil.XDP_FLAGS_MODES) | NetworkUtil.XDP_FLAGS_REPLACE;
+        try (var arena = Arena.ofConfined()) {
+            MemorySegment opts = arena.allocate(bpf_xdp_attach_opts.sizeof());
+            opts.fill((byte) 0);
+            bpf_xdp_attach_opts.sz(opts, bpf_xdp_attach_opts.sizeof());
+            bpf_xdp_attach_opts.old_prog_fd(opts, Lib.bpf_program__fd(attached.handle.prog()));
+            int err = Lib.bpf_xdp_attach(ifindex, Lib.bpf_program__fd(newProg.prog()), flags, opts);
+            if (err < 0) {
+                throw new BPFAttachError(newProg.name, -err);
             }
         }
+        attachedXDPIfIndexes.remove(attached);
+        attachedXDPIfIndexes.add(new AttachedXDPIfIndex(newProg, ifindex, attached.flags));
+    }
+
+    /**
+     * Atomically replace the TC filter attached by this program, using <code>BPF_TC_F_REPLACE</code>
+     */
+    private AttachedTCIfIndex tcReplace(AttachedTCIfIndex attached, ProgramHandle newProg) {
+        var replacement = new AttachedTCIfIndex(newProg, attached.ifindex, attached.ingress, attached.priority);
+        try (var arena = Arena.ofConfined()) {
+            MemorySegment hook = allocateTCHookObject(arena, replacement);
+            MemorySegment opts = allocateTCOptsObject(arena, replacement);
+            bpf_tc_opts.flags(opts, BPF_TC_F_REPLACE());
+            int err = Lib.bpf_tc_attach(hook, opts);
+            if (err < 0) {
+                throw new BPFAttachError(newProg.name, -err);
+            }
+        }
+        attachedTCIfIndices.remove(attached);
+        return replacement;
+    }
+
+    /**
+     * Link types that support <code>bpf_link_update</code>, all other links (like fentry, LSM, kprobes
+     * and perf events) can only be replaced by attaching the new program and destroying the old link
+     */
+    private static final Set<Integer> UPDATABLE_LINK_TYPES = Set.of(BPF_LINK_TYPE_CGROUP(), BPF_LINK_TYPE_ITER(),
+            BPF_LINK_TYPE_NETNS(), BPF_LINK_TYPE_XDP(), BPF_LINK_TYPE_TCX());
+
+    private int getLinkType(BPFLink link) {
+        try (var arena = Arena.ofConfined()) {
+            var info = bpf_link_info.allocate(arena);
+            info.fill((byte) 0);
+            var infoSizeRef = PanamaUtil.allocateIntRef(arena, (int) info.byteSize());
+            var ret = Lib.bpf_obj_get_info_by_fd(Lib.bpf_link__fd(link.segment()), info, infoSizeRef);
+            if (ret < 0) {
+                throw new BPFError("Failed to get link info of " + attachedPrograms.get(link).name(), -ret);
+            }
+            return bpf_link_info.type(info);
+        }
+    }
+
+    /**
+     * Hot upgrade: replace all programs attached by this program with the programs of the same name
+     * from the passed program
+     * <p>
+     * This covers links, XDP, TC, socket maps and struct ops (like schedulers registered via
+     * <code>SEC(".struct_ops.link")</code>). Cgroup, iterator, netns, XDP and TCX links, XDP, TC, socket map
+     * programs and struct ops are replaced atomically without detaching them in between. Links that the kernel can't update
+     * (like fentry, fexit, LSM and kprobes) are only supported if they were attached via
+     * {@link #autoAttachProgram(ProgramHandle)} or {@link #attachLSMHook(ProgramHandle)}: the new program is
+     * attached via its section first and the old link is destroyed afterwards, so both programs run
+     * for a short time.
+     * <p>
+     * All attachments are transferred to the passed program,
+     * so this program can afterwards be closed without affecting them.
+     * Use {@link #load(Class, BPFProgram)} to load the new program with the maps of this program.
+     * <p>
+     * Example: {@snippet :
+     *     var newFirewall = BPFProgram.load(Firewall.class, oldFirewall);
+     *     oldFirewall.replace(newFirewall);
+     *     oldFirewall.close();
+     * }
+     * The tail call stages of the passed program are placed into the program arrays it reuses from this program
+     * first (see {@link #initTailCalls()}).
+     * <p>
+     * The replacement is all-or-nothing: every program is looked up and every link is checked before
+     * any attachment is touched, and if replacing an attachment fails, all already replaced attachments
+     * are rolled back to the programs of this program.
+     *
+     * @param other already loaded program that contains programs with the same names
+     * @throws BPFProgramNotFound if the other program lacks a program
+     * @throws BPFAttachError if a link can't be replaced or replacing any attachment failed
+     */
+    public void replace(BPFProgram other) {
+        if (other == this) {
+            return;
+        }
+        // look up everything and check all links before touching any attachment
+        Map<BPFLink, ProgramHandle> updatedLinks = new HashMap<>();
+        Map<BPFLink, ProgramHandle> reattachedLinks = new HashMap<>();
+        for (var entry : attachedPrograms.entrySet()) {
+            var newProg = other.getProgramByName(entry.getValue().name());
+            if (UPDATABLE_LINK_TYPES.contains(getLinkType(entry.getKey()))) {
+                updatedLinks.put(entry.getKey(), newProg);
+            } else if (autoAttachedLinks.contains(entry.getKey())) {
+                reattachedLinks.put(entry.getKey(), newProg);
+            } else {
+                throw new BPFAttachError(newProg.name, "Link can neither be updated nor attached again via " +
+                        "the program section");
+            }
+        }
+        Map<AttachedXDPIfIndex, ProgramHandle> xdpPrograms = new HashMap<>();
+        for (var attached : attachedXDPIfIndexes) {
+            xdpPrograms.put(attached, other.getProgramByName(attached.handle.name()));
+        }
+        Map<AttachedTCIfIndex, ProgramHandle> tcPrograms = new HashMap<>();
+        for (var attached : attachedTCIfIndices) {
+            tcPrograms.put(attached, other.getProgramByName(attached.handle.name()));
+        }
+        Map<AttachedTCXLink, ProgramHandle> tcxPrograms = new HashMap<>();
+        for (var attached : attachedTCXLinks) {
+            tcxPrograms.put(attached, other.getProgramByName(attached.handle.name()));
+        }
+        Map<AttachedSockMapProgram, ProgramHandle> sockMapPrograms = new HashMap<>();
+        for (var attached : attachedSockMapPrograms) {
+            sockMapPrograms.put(attached, other.getProgramByName(attached.handle.name()));
+        }
+        Map<MemorySegment, MemorySegment> structOpsMaps = new HashMap<>();
+        for (var entry : attachedStructOps.entrySet()) {
+            structOpsMaps.put(entry.getKey(), other.getMapDescriptorByName(entry.getValue()).map());
+        }
+
+        List<Runnable> rollback = new ArrayList<>();
+        Map<AttachedSockMapProgram, Integer> sockMapFds = new HashMap<>();
+        try {
+            // the tail call stages of the other program in the program arrays it reuses from this program
+            for (var tailCall : other.pendingTailCalls) {
+                var progArray = other.getProgArray(tailCall.map());
+                int oldProgramId = progArray.getProgramId(tailCall.index());
+                progArray.set(tailCall.index(), tailCall.prog());
+                rollback.add(() -> {
+                    if (oldProgramId == -1) {
+                        progArray.remove(tailCall.index());
+                    } else {
+                        progArray.setById(tailCall.index(), oldProgramId);
+                    }
+                });
+            }
+            for (var entry : updatedLinks.entrySet()) {
+                var oldProg = attachedPrograms.get(entry.getKey());
+                updateProgram(entry.getKey(), entry.getValue());
+                rollback.add(() -> updateProgram(entry.getKey(), oldProg));
+            }
+            for (var entry : reattachedLinks.entrySet()) {
+                var newLink = other.autoAttachProgram(entry.getValue());
+                rollback.add(() -> other.detachProgram(newLink));
+            }
+            for (var entry : xdpPrograms.entrySet()) {
+                var attached = entry.getKey();
+                xdpReplace(attached.ifindex, entry.getValue());
+                rollback.add(() -> xdpReplace(attached.ifindex, attached.handle));
+            }
+            for (var entry : tcPrograms.entrySet()) {
+                var attached = entry.getKey();
+                var replacement = tcReplace(attached, entry.getValue());
+                rollback.add(() -> attachedTCIfIndices.add(tcReplace(replacement, attached.handle)));
+                other.attachedTCIfIndices.add(replacement);
+                rollback.add(() -> other.attachedTCIfIndices.remove(replacement));
+            }
+            for (var entry : tcxPrograms.entrySet()) {
+                var attached = entry.getKey();
+                updateTCXLink(attached, entry.getValue());
+                rollback.add(() -> updateTCXLink(attached, attached.handle));
+            }
+            for (var entry : sockMapPrograms.entrySet()) {
+                var attached = entry.getKey();
+                // the other program needs its own file descriptor, the map one is closed with this program
+                var mapFd = LibC.dup(attached.mapFd);
+                if (mapFd.result() < 0) {
+                    throw new BPFError("Failed to duplicate the file descriptor of a socket map", mapFd.err());
+                }
+                sockMapFds.put(attached, mapFd.result());
+                rollback.add(() -> LibC.close(mapFd.result()));
+                // attaching to a socket map atomically replaces the program with the same attach type
+                sockMapReattach(attached, entry.getValue());
+                rollback.add(() -> sockMapReattach(attached, attached.handle));
+            }
+            for (var entry : structOpsMaps.entrySet()) {
+                var name = attachedStructOps.get(entry.getKey());
+                updateStructOpsLink(entry.getKey(), name, entry.getValue());
+                rollback.add(() -> updateStructOpsLink(entry.getKey(), name, getMapDescriptorByName(name).map()));
+            }
+        } catch (RuntimeException e) {
+            for (int i = rollback.size() - 1; i >= 0; i--) {
+                try {
+                    rollback.get(i).run();
+                } catch (RuntimeException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+            }
+            throw e;
+        }
+
+        // everything is replaced, transfer the attachments to the other program
+        other.pendingTailCalls.clear();
+        for (var entry : updatedLinks.entrySet()) {
+            attachedPrograms.remove(entry.getKey());
+            other.attachedPrograms.put(entry.getKey(), entry.getValue());
+        }
+        for (var link : reattachedLinks.keySet()) {
+            detachProgram(link);
+        }
+        for (var entry : xdpPrograms.entrySet()) {
+            var attached = entry.getKey();
+            attachedXDPIfIndexes.removeIf(a -> a.ifindex == attached.ifindex);
+            other.attachedXDPIfIndexes.add(new AttachedXDPIfIndex(entry.getValue(), attached.ifindex, attached.flags));
+        }
+        for (var entry : tcxPrograms.entrySet()) {
+            var attached = entry.getKey();
+            attachedTCXLinks.remove(attached);
+            other.attachedTCXLinks.add(new AttachedTCXLink(entry.getValue(), attached.ifindex, attached.ingress,
+                    attached.linkFd));
+        }
+        for (var entry : sockMapPrograms.entrySet()) {
+            var attached = entry.getKey();
+            attachedSockMapPrograms.remove(attached);
+            int mapFd = sockMapFds.get(attached);
+            other.openedFDs.add(mapFd);
+            other.attachedSockMapPrograms.add(new AttachedSockMapProgram(entry.getValue(), mapFd,
+                    attached.attachType));
+        }
+        for (var link : structOpsMaps.keySet()) {
+            other.attachedStructOps.put(link, attachedStructOps.remove(link));
+        }
+    }
+
+    /**
+     * Attach the program to the socket map of the attachment, replacing the attached program
+     */
+    private void sockMapReattach(AttachedSockMapProgram attached, ProgramHandle prog) {
+        var ret = Lib.bpf_prog_attach(Lib.bpf_program__fd(prog.prog()), attached.mapFd, attached.attachType, 0);
+        if (ret < 0) {
+            throw new BPFAttachError(prog.name, -ret);
+        }
+    }
+
+    private void updateTCXLink(AttachedTCXLink attached, ProgramHandle newProg) {
+        int err = Lib.bpf_link_update(attached.linkFd, Lib.bpf_program__fd(newProg.prog()), MemorySegment.NULL);
+        if (err < 0) {
+            throw new BPFAttachError(newProg.name, -err);
+        }
+    }
+
+    private void updateStructOpsLink(MemorySegment link, String name, MemorySegment map) {
+        var ret = BPF_LINK__UPDATE_MAP.call(link, map);
+        if (ret.result() < 0) {
+            throw new BPFAttachError("struct ops " + name, -ret.result());
+        }
     }
 
     public void detachProgram(BPFLink link) {
-        if (!attachedPrograms.contains(link)) {
+        if (!attachedPrograms.containsKey(link)) {
             throw new IllegalArgumentException("Program not attached");
         }
         if (link.segment.address() == 0) {
@@ -656,6 +1963,7 @@ public abstract class BPFProgram implements AutoCloseable {
         }
         Lib.bpf_link__destroy(link.segment);
         attachedPrograms.remove(link);
+        autoAttachedLinks.remove(link);
     }
 
     /**
@@ -666,11 +1974,18 @@ public abstract class BPFProgram implements AutoCloseable {
         if (closed) {
             return;
         }
+        // stop the samplers before the programs are freed
+        List<ProgramStatsSampler> samplers;
+        synchronized (this) {
+            samplers = new ArrayList<>(statsSamplers);
+        }
+        samplers.forEach(ProgramStatsSampler::close);
         closed = true;
-        for (var structOps : attachedStructOps) {
+        statsHandles.forEach(StatsHandle::close);
+        for (var structOps : attachedStructOps.keySet()) {
             Lib.bpf_link__destroy(structOps);
         }
-        for (var prog : new HashSet<>(attachedPrograms)) {
+        for (var prog : new HashSet<>(attachedPrograms.keySet())) {
             detachProgram(prog);
         }
         for (var ifindex : new HashSet<>(attachedXDPIfIndexes)) {
@@ -679,6 +1994,12 @@ public abstract class BPFProgram implements AutoCloseable {
         for (var tcIfIndex : new HashSet<>(attachedTCIfIndices)) {
             tcDetach(tcIfIndex);
         }
+        for (var link : attachedTCXLinks) {
+            LibC.close(link.linkFd);
+        }
+        for (var attached : new HashSet<>(attachedSockMapPrograms)) {
+            sockMapDetach(attached);
+        }
         for (var map : new HashSet<>(attachedMaps)) {
             map.close();
         }
@@ -812,7 +2133,7 @@ public abstract class BPFProgram implements AutoCloseable {
         if (res.result() == MemorySegment.NULL && res.hasError()) {
             throw new BPFAttachError("Failed to attach struct ops " + name, res.err());
         }
-        attachedStructOps.add(res.result());
+        attachedStructOps.put(res.result(), name);
     }
 
     /**
@@ -930,13 +2251,19 @@ public abstract class BPFProgram implements AutoCloseable {
                 return info & 0xffff;
             }
 
+            private static boolean kflag(int info) {
+                return (info >>> 31) != 0;
+            }
+
             private final BTF btf;
+            private final int id;
             private final MemorySegment typeObj;
             private final Kind kind;
             private final String name;
 
-            public BTFType(BTF btf, MemorySegment typeObj) {
+            public BTFType(BTF btf, int id, MemorySegment typeObj) {
                 this.btf = btf;
+                this.id = id;
                 this.typeObj = typeObj;
                 this.kind = Kind.fromValue(kind(btf_type.info(typeObj)));
                 this.name = PanamaUtil.toString(Lib.btf__name_by_offset(btf.bpfObject, btf_type.name_off(typeObj)));
@@ -950,10 +2277,65 @@ public abstract class BPFProgram implements AutoCloseable {
                 return name;
             }
 
+            int id() {
+                return id;
+            }
+
             int memberCount() {
                 return vlen(btf_type.info(typeObj));
             }
 
+            /**
+             * Size of the type in bytes, following typedefs and modifiers
+             */
+            long size() {
+                long size = Lib.btf__resolve_size(btf.bpfObject, id);
+                if (size < 0) {
+                    throw new BPFError("Failed to resolve size of BTF type " + name);
+                }
+                return size;
+            }
+
+            /**
+             * The type itself or the type it refers to, skipping typedefs and modifiers like {@code const}
+             */
+            BTFType resolve() {
+                int resolved = Lib.btf__resolve_type(btf.bpfObject, id);
+                if (resolved < 0) {
+                    throw new BPFError("Failed to resolve BTF type " + name);
+                }
+                return btf.getTypeById(resolved);
+            }
+
+            /**
+             * Member of a struct or union
+             *
+             * @param name         name of the member, empty for anonymous structs and unions
+             * @param type         type of the member
+             * @param bitOffset    offset from the start of the struct in bits
+             * @param bitfieldSize size of the bitfield in bits, or 0 if the member is no bitfield
+             */
+            record Member(String name, BTFType type, int bitOffset, int bitfieldSize) {
+            }
+
+            List<Member> members() {
+                if (kind != Kind.STRUCT && kind != Kind.UNION) {
+                    throw new BPFError("BTF type " + name + " is no struct or union");
+                }
+                // in c code:
+                // btf_member *ptr = (struct btf_member *)(type + 1);
+                boolean kflag = kflag(btf_type.info(typeObj));
+                var members = typeObj.address() + btf_type.sizeof();
+                return IntStream.range(0, memberCount()).mapToObj(i -> {
+                    var elem = MemorySegment.ofAddress(members + i * btf_member.sizeof()).reinterpret(btf_member.sizeof());
+                    int offset = btf_member.offset(elem);
+                    String memberName = PanamaUtil.toString(Lib.btf__name_by_offset(btf.bpfObject, btf_member.name_off(elem)));
+                    // with kflag set, the upper 8 bits contain the bitfield size
+                    return new Member(memberName, btf.getTypeById(btf_member.type(elem)),
+                            kflag ? offset & 0xffffff : offset, kflag ? offset >>> 24 : 0);
+                }).toList();
+            }
+
             record VariableSectionInfo(BTFType type, int offset, int size) {
                 String name() {
                     return type.name;
@@ -989,7 +2371,7 @@ public abstract class BPFProgram implements AutoCloseable {
                     if (segment == MemorySegment.NULL) {
                         throw new BPFError("Failed to get BTF type by id: " + id);
                     }
-                    return new BTFType(this, segment);
+                    return new BTFType(this, id, segment);
                 }
             });
         }
@@ -997,6 +2379,18 @@ public abstract class BPFProgram implements AutoCloseable {
         BTFType findTypeByName(String name) {
             return getTypeById(findIdByName(name));
         }
+
+        /**
+         * Find the type with the passed name and kind
+         *
+         * @return the type or null if there is no such type
+         */
+        @Nullable BTFType findTypeByName(String name, Kind kind) {
+            try (Arena arena = Arena.ofConfined()) {
+                int id = Lib.btf__find_by_name_kind(bpfObject, arena.allocateFrom(name), kind.value());
+                return id < 0 ? null : getTypeById(id);
+            }
+        }
     }
 
     private BTF btf = null;
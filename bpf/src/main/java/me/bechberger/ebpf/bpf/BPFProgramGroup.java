@@ -0,0 +1,254 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.bpf.BPFProgram.MapReuse;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.bpf.raw.bpf_map_create_opts;
+import me.bechberger.ebpf.shared.LibC;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * Loads multiple BPF programs in parallel that share some of their maps
+ * <p>
+ * Every shared map is created once, with the definition (including the BTF of the key and value)
+ * of the first program that declares it, and all programs of the group that declare a map with the same name
+ * use it, so there is no duplicated map memory. All programs have to declare the map with the same
+ * type, key and value size, maximum number of entries and flags.
+ * <p>
+ * Example: {@snippet :
+ *    try (var group = BPFProgramGroup.load(Set.of("config"), Firewall.class, PacketLogger.class)) {
+ *        Firewall firewall = group.get(Firewall.class);
+ *        firewall.xdpAttach();
+ *        // ...
+ *    }
+ * }
+ */
+public class BPFProgramGroup implements AutoCloseable {
+
+    private final Set<String> sharedMapNames;
+    private final Map<String, Integer> sharedMapFds = new HashMap<>();
+    private final Map<String, MapDefinition> sharedMapDefinitions = new HashMap<>();
+    private final Map<Class<?>, BPFProgram> programs = new LinkedHashMap<>();
+    private boolean closed = false;
+
+    private BPFProgramGroup(Set<String> sharedMapNames) {
+        this.sharedMapNames = sharedMapNames;
+    }
+
+    /**
+     * Load the programs in parallel, sharing the maps with the given names
+     *
+     * @param sharedMapNames names of the maps to share, every map has to be declared by at least one program
+     * @param classes        abstract BPFProgram subclasses, each at most once
+     * @return group of loaded programs
+     * @throws IllegalArgumentException if a class is passed twice
+     * @throws BPFError if any program could not be loaded or declares a shared map differently,
+     *                  all other programs are closed in this case
+     * @throws BPFProgram.BPFMapNotFoundError if no program declares a shared map
+     */
+    @SafeVarargs
+    public static BPFProgramGroup load(Collection<String> sharedMapNames, Class<? extends BPFProgram>... classes) {
+        return load(sharedMapNames, List.of(classes));
+    }
+
+    /**
+     * Load the programs in parallel, sharing the maps with the given names
+     *
+     * @see #load(Collection, Class[])
+     */
+    public static BPFProgramGroup load(Collection<String> sharedMapNames,
+                                       List<Class<? extends BPFProgram>> classes) {
+        if (Set.copyOf(classes).size() != classes.size()) {
+            throw new IllegalArgumentException("Every program class can only be part of a group once: " + classes);
+        }
+        var group = new BPFProgramGroup(Set.copyOf(sharedMapNames));
+        var reuse = new MapReuse(group::getOrCreateSharedMap, group.sharedMapNames, false);
+        int threads = Math.max(1, Math.min(classes.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BPFProgram>> futures = classes.stream()
+                    .map(clazz -> executor.submit(() -> (BPFProgram) BPFProgram.load(clazz, reuse))).toList();
+            BPFError error = null;
+            for (int i = 0; i < classes.size(); i++) {
+                try {
+                    group.programs.put(classes.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause() instanceof BPFError bpfError ? bpfError :
+                                new BPFError("Failed to load " + classes.get(i).getSimpleName(), e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (error == null) {
+                        error = new BPFError("Interrupted while loading " + classes.get(i).getSimpleName(), e);
+                    }
+                }
+            }
+            if (error != null) {
+                group.close();
+                throw error;
+            }
+            var missing = new HashSet<>(group.sharedMapNames);
+            missing.removeAll(group.sharedMapFds.keySet());
+            if (!missing.isEmpty()) {
+                group.close();
+                throw new BPFProgram.BPFMapNotFoundError(String.join(", ", missing));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return group;
+    }
+
+    /**
+     * Definition of a map of an opened object
+     */
+    private record MapDefinition(int type, int keySize, int valueSize, int maxEntries, int flags) {
+
+        static MapDefinition of(MemorySegment map) {
+            return new MapDefinition(Lib.bpf_map__type(map), Lib.bpf_map__key_size(map),
+                    Lib.bpf_map__value_size(map), Lib.bpf_map__max_entries(map), Lib.bpf_map__map_flags(map));
+        }
+    }
+
+    /**
+     * Create the shared map on first use, based on the map definition of the opened object
+     *
+     * @throws BPFError if the map was already created with a different definition
+     */
+    private synchronized Integer getOrCreateSharedMap(String name, MemorySegment object, MemorySegment map) {
+        var definition = MapDefinition.of(map);
+        var existing = sharedMapFds.get(name);
+        if (existing != null) {
+            var sharedDefinition = sharedMapDefinitions.get(name);
+            if (!sharedDefinition.equals(definition)) {
+                throw new BPFError("Shared map " + name + " is declared as " + definition +
+                        ", but was created as " + sharedDefinition);
+            }
+            return existing;
+        }
+        try (var arena = Arena.ofConfined()) {
+            var opts = bpf_map_create_opts.allocate(arena);
+            opts.fill((byte) 0);
+            bpf_map_create_opts.sz(opts, bpf_map_create_opts.sizeof());
+            bpf_map_create_opts.map_flags(opts, Lib.bpf_map__map_flags(map));
+            bpf_map_create_opts.numa_node(opts, Lib.bpf_map__numa_node(map));
+            bpf_map_create_opts.map_extra(opts, Lib.bpf_map__map_extra(map));
+            MemorySegment btf = MemorySegment.NULL;
+            if (Lib.bpf_map__btf_value_type_id(map) != 0) {
+                int btfFd = Lib.bpf_object__btf_fd(object);
+                if (btfFd < 0) {
+                    btf = loadBTFCopy(arena, object);
+                    btfFd = btf == MemorySegment.NULL ? -1 : Lib.btf__fd(btf);
+                }
+                if (btfFd >= 0) {
+                    bpf_map_create_opts.btf_fd(opts, btfFd);
+                    bpf_map_create_opts.btf_key_type_id(opts, Lib.bpf_map__btf_key_type_id(map));
+                    bpf_map_create_opts.btf_value_type_id(opts, Lib.bpf_map__btf_value_type_id(map));
+                }
+            }
+            try {
+                int fd = createMap(arena, name, map, opts);
+                if (fd < 0 && bpf_map_create_opts.btf_fd(opts) != 0) {
+                    // like libbpf, retry without BTF for kernels that reject the BTF of the map
+                    bpf_map_create_opts.btf_fd(opts, 0);
+                    bpf_map_create_opts.btf_key_type_id(opts, 0);
+                    bpf_map_create_opts.btf_value_type_id(opts, 0);
+                    fd = createMap(arena, name, map, opts);
+                }
+                if (fd < 0) {
+                    throw new BPFError("Failed to create shared map " + name, -fd);
+                }
+                sharedMapFds.put(name, fd);
+                sharedMapDefinitions.put(name, definition);
+                return fd;
+            } finally {
+                if (btf != MemorySegment.NULL) {
+                    // the map keeps its own reference to the BTF
+                    Lib.btf__free(btf);
+                }
+            }
+        }
+    }
+
+    private static int createMap(Arena arena, String name, MemorySegment map, MemorySegment opts) {
+        return Lib.bpf_map_create(Lib.bpf_map__type(map), arena.allocateFrom(name),
+                Lib.bpf_map__key_size(map), Lib.bpf_map__value_size(map), Lib.bpf_map__max_entries(map), opts);
+    }
+
+    /**
+     * Load a copy of the BTF of the opened object into the kernel, as the object itself loads its BTF
+     * only when it is loaded, the copy has the same type ids
+     *
+     * @return BTF (struct btf *) or NULL if the object has no BTF or the kernel rejects it
+     */
+    private static MemorySegment loadBTFCopy(Arena arena, MemorySegment object) {
+        var objectBTF = Lib.bpf_object__btf(object);
+        if (objectBTF == MemorySegment.NULL || objectBTF.address() == 0) {
+            return MemorySegment.NULL;
+        }
+        var sizeRef = arena.allocate(JAVA_INT);
+        var data = Lib.btf__raw_data(objectBTF, sizeRef);
+        if (data == MemorySegment.NULL || data.address() == 0) {
+            return MemorySegment.NULL;
+        }
+        var btf = Lib.btf__new(data, sizeRef.get(JAVA_INT, 0));
+        if (btf == MemorySegment.NULL || Lib.libbpf_get_error(btf) != 0) {
+            return MemorySegment.NULL;
+        }
+        if (Lib.btf__load_into_kernel(btf) < 0) {
+            Lib.btf__free(btf);
+            return MemorySegment.NULL;
+        }
+        return btf;
+    }
+
+    /**
+     * Get the loaded program for the passed class
+     *
+     * @throws IllegalArgumentException if the class is not part of this group
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends BPFProgram> T get(Class<T> clazz) {
+        var program = programs.get(clazz);
+        if (program == null) {
+            throw new IllegalArgumentException(clazz.getSimpleName() + " is not part of this group");
+        }
+        return (T) program;
+    }
+
+    /**
+     * All loaded programs, in the order of the passed classes
+     */
+    public List<BPFProgram> getPrograms() {
+        return List.copyOf(programs.values());
+    }
+
+    /**
+     * Names of the shared maps
+     */
+    public Set<String> getSharedMapNames() {
+        return sharedMapNames;
+    }
+
+    /**
+     * Close all programs and the shared maps
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        programs.values().forEach(BPFProgram::close);
+        sharedMapFds.values().forEach(LibC::close);
+    }
+}
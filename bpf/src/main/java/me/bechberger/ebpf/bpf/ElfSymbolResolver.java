@@ -0,0 +1,226 @@
+package me.bechberger.ebpf.bpf;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves function symbols of 64-bit little-endian ELF binaries and shared libraries to file offsets,
+ * as required for uprobes
+ * <p>
+ * The function table of every binary is parsed only once and then cached, as long as the file is not modified.
+ * This makes attaching many probes to large libraries like <code>libjvm.so</code> cheap.
+ */
+public class ElfSymbolResolver {
+
+    private static final int SHT_SYMTAB = 2;
+    private static final int SHT_DYNSYM = 11;
+    private static final int STT_FUNC = 2;
+    private static final int STT_GNU_IFUNC = 10;
+    private static final int PT_LOAD = 1;
+    private static final int PF_X = 1;
+
+    private record CacheKey(Path path, long size, long lastModified) {}
+
+    private record Segment(long vaddr, long memsz, long offset) {}
+
+    /**
+     * Function table of a binary, with the functions also sorted by offset for symbolization
+     */
+    private record SymbolTable(Map<String, Long> offsets, long[] sortedOffsets, String[] sortedNames) {
+
+        static SymbolTable of(Map<String, Long> offsets) {
+            var entries = offsets.entrySet().stream().sorted(Map.Entry.comparingByValue()).toList();
+            long[] sortedOffsets = new long[entries.size()];
+            String[] sortedNames = new String[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                sortedOffsets[i] = entries.get(i).getValue();
+                sortedNames[i] = entries.get(i).getKey();
+            }
+            return new SymbolTable(offsets, sortedOffsets, sortedNames);
+        }
+
+        @Nullable String symbolize(long offset) {
+            int index = Arrays.binarySearch(sortedOffsets, offset);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index < 0 ? null : sortedNames[index];
+        }
+    }
+
+    private static final Map<CacheKey, SymbolTable> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Get the file offset of a function in the binary
+     *
+     * @param binary path of the binary or shared library
+     * @param symbol symbol name, mangled for C++ functions
+     * @return file offset of the function
+     * @throws BPFError if the binary can't be read or doesn't contain the symbol
+     */
+    public static long resolve(Path binary, String symbol) {
+        var offset = functionOffsets(binary).get(symbol);
+        if (offset == null) {
+            throw new BPFError("Symbol " + symbol + " not found in " + binary);
+        }
+        return offset;
+    }
+
+    /**
+     * Get the file offsets of all functions in the binary, cached per binary
+     *
+     * @throws BPFError if the binary can't be read or is not a supported ELF file
+     */
+    public static Map<String, Long> functionOffsets(Path binary) {
+        return symbolTable(binary).offsets();
+    }
+
+    /**
+     * Find the function that contains the file offset, used to symbolize stack traces
+     *
+     * @param binary path of the binary or shared library
+     * @param offset file offset
+     * @return name of the closest function that starts at or before the offset, or null if there is none
+     * @throws BPFError if the binary can't be read or is not a supported ELF file
+     */
+    public static @Nullable String symbolize(Path binary, long offset) {
+        return symbolTable(binary).symbolize(offset);
+    }
+
+    private static SymbolTable symbolTable(Path binary) {
+        CacheKey key;
+        try {
+            var real = binary.toRealPath();
+            key = new CacheKey(real, Files.size(real), Files.getLastModifiedTime(real).toMillis());
+        } catch (IOException e) {
+            throw new BPFError("Cannot read " + binary, e);
+        }
+        return cache.computeIfAbsent(key, k -> {
+            try (var channel = FileChannel.open(k.path, StandardOpenOption.READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return SymbolTable.of(parse(buffer.order(ByteOrder.LITTLE_ENDIAN)));
+            } catch (IOException e) {
+                throw new BPFError("Cannot read " + k.path, e);
+            }
+        });
+    }
+
+    /**
+     * Parse the function symbols of an ELF file
+     *
+     * @param elf content of the file in little-endian order
+     * @return map of symbol name to file offset
+     * @throws BPFError if the file is not a 64-bit little-endian ELF file
+     */
+    static Map<String, Long> parse(ByteBuffer elf) {
+        if (elf.limit() < 64 || elf.getInt(0) != 0x464c457f) {
+            throw new BPFError("Not an ELF file");
+        }
+        if (elf.get(4) != 2 || elf.get(5) != 1) {
+            throw new BPFError("Only 64-bit little-endian ELF files are supported");
+        }
+        var segments = executableSegments(elf);
+        long shoff = elf.getLong(0x28);
+        int shentsize = Short.toUnsignedInt(elf.getShort(0x3A));
+        int shnum = Short.toUnsignedInt(elf.getShort(0x3C));
+        Map<String, Long> offsets = new HashMap<>();
+        for (int i = 0; i < shnum; i++) {
+            int header = (int) (shoff + (long) i * shentsize);
+            int type = elf.getInt(header + 4);
+            if (type != SHT_SYMTAB && type != SHT_DYNSYM) {
+                continue;
+            }
+            long offset = elf.getLong(header + 0x18);
+            long size = elf.getLong(header + 0x20);
+            int link = elf.getInt(header + 0x28);
+            long entsize = elf.getLong(header + 0x38);
+            long strtab = elf.getLong((int) (shoff + (long) link * shentsize) + 0x18);
+            for (long sym = offset; entsize > 0 && sym + entsize <= offset + size; sym += entsize) {
+                int symType = elf.get((int) sym + 4) & 0xf;
+                int shndx = Short.toUnsignedInt(elf.getShort((int) sym + 6));
+                long value = elf.getLong((int) sym + 8);
+                if ((symType != STT_FUNC && symType != STT_GNU_IFUNC) || shndx == 0 || value == 0) {
+                    continue;
+                }
+                var name = readString(elf, (int) (strtab + Integer.toUnsignedLong(elf.getInt((int) sym))));
+                if (!name.isEmpty()) {
+                    offsets.putIfAbsent(name, toFileOffset(segments, value));
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private static List<Segment> executableSegments(ByteBuffer elf) {
+        long phoff = elf.getLong(0x20);
+        int phentsize = Short.toUnsignedInt(elf.getShort(0x36));
+        int phnum = Short.toUnsignedInt(elf.getShort(0x38));
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < phnum; i++) {
+            int header = (int) (phoff + (long) i * phentsize);
+            if (elf.getInt(header) == PT_LOAD && (elf.getInt(header + 4) & PF_X) != 0) {
+                segments.add(new Segment(elf.getLong(header + 0x10), elf.getLong(header + 0x28),
+                        elf.getLong(header + 0x08)));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Convert a virtual address to a file offset, like libbpf does
+     */
+    private static long toFileOffset(List<Segment> segments, long address) {
+        for (var segment : segments) {
+            if (address >= segment.vaddr && address < segment.vaddr + segment.memsz) {
+                return address - segment.vaddr + segment.offset;
+            }
+        }
+        return address;
+    }
+
+    private static String readString(ByteBuffer elf, int start) {
+        int end = start;
+        while (end < elf.limit() && elf.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        elf.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Path of the <code>libjvm.so</code> of the current JVM
+     *
+     * @throws BPFError if the library can't be found
+     */
+    public static Path libJVMPath() {
+        var javaHome = Path.of(System.getProperty("java.home"));
+        for (var vm : List.of("server", "client", "zero")) {
+            var path = javaHome.resolve("lib").resolve(vm).resolve("libjvm.so");
+            if (Files.exists(path)) {
+                return path;
+            }
+        }
+        // fall back to the mapped libraries of the current process
+        try (var lines = Files.lines(Path.of("/proc/self/maps"))) {
+            return lines.filter(l -> l.endsWith("/libjvm.so")).map(l -> Path.of(l.substring(l.indexOf('/'))))
+                    .findFirst().orElseThrow(() -> new BPFError("libjvm.so not found"));
+        } catch (IOException e) {
+            throw new BPFError("libjvm.so not found", e);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.bpf.BPFProgram.BTF;
+import me.bechberger.ebpf.bpf.BPFProgram.BTF.BTFType;
+import me.bechberger.ebpf.bpf.BPFProgram.BTF.BTFType.Member;
+import me.bechberger.ebpf.bpf.BPFProgram.BTF.Kind;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.BPFType.BPFInlineUnionType;
+import me.bechberger.ebpf.type.BPFType.BPFStructMember;
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Layouts of the kernel types in a kernel, obtained from its BTF
+ * <p>
+ * The Java classes for kernel types in {@code me.bechberger.ebpf.runtime} are generated from the BTF
+ * of one kernel, the member offsets might differ on other kernels. {@link #relocate(BPFType)} compares
+ * a kernel type with this kernel and returns a type with the member offsets of this kernel.
+ * This is only needed for types that view raw kernel memory, e.g. structs that the eBPF program copies
+ * byte-wise from the kernel, see {@link BPFProgram#kernelType(BPFType)}.
+ * <p>
+ * Only the kernel types themselves (and kernel structs nested in them) are relocated,
+ * the layout of user defined types and of map keys and values is fixed when compiling the eBPF program.
+ */
+public final class KernelBTF {
+
+    /**
+     * BTF of the running kernel
+     */
+    public static final Path VMLINUX_BTF = Path.of("/sys/kernel/btf/vmlinux");
+
+    private static final Path KERNEL_NOTES = Path.of("/sys/kernel/notes");
+
+    private static final String RUNTIME_PACKAGE = "me.bechberger.ebpf.runtime.";
+
+    /**
+     * ELF note type of the GNU build ID
+     */
+    private static final int NT_GNU_BUILD_ID = 3;
+
+    /**
+     * Thrown if a kernel type can't be relocated to the layout of a kernel
+     */
+    public static class KernelTypeMismatchError extends BPFError {
+        public KernelTypeMismatchError(String typeName, List<String> problems) {
+            super("Kernel type " + typeName + " doesn't match the kernel: " + String.join(", ", problems));
+        }
+    }
+
+    /**
+     * Result of comparing a type with the kernel
+     *
+     * @param type        type with the layout of the kernel
+     * @param differences differences between the original type and the kernel, that are fixed in {@code type},
+     *                    including missing members that are parsed as zero
+     * @param problems    differences that can't be fixed, like members with a different size
+     */
+    private record Relocation(BPFType<?> type, List<String> differences, List<String> problems) {
+    }
+
+    private static final Map<String, KernelBTF> byBuildId = new HashMap<>();
+
+    private final BTF btf;
+    private final @Nullable String buildId;
+    private final Map<BPFType<?>, Relocation> relocations = new IdentityHashMap<>();
+
+    private KernelBTF(BTF btf, @Nullable String buildId) {
+        this.btf = btf;
+        this.buildId = buildId;
+    }
+
+    /**
+     * BTF of the running kernel, cached per kernel build ID
+     *
+     * @return the BTF or null if the kernel doesn't expose its BTF at {@link #VMLINUX_BTF}
+     */
+    public static synchronized @Nullable KernelBTF running() {
+        if (!Files.exists(VMLINUX_BTF)) {
+            return null;
+        }
+        var buildId = readBuildId();
+        var kernelBTF = byBuildId.get(buildId);
+        if (kernelBTF == null) {
+            var btf = Lib.btf__load_vmlinux_btf();
+            if (btf == MemorySegment.NULL || Lib.libbpf_get_error(btf) != 0) {
+                throw new BPFError("Failed to load the BTF of the running kernel");
+            }
+            kernelBTF = new KernelBTF(new BTF(btf), buildId);
+            byBuildId.put(buildId, kernelBTF);
+        }
+        return kernelBTF;
+    }
+
+    /**
+     * Parse the BTF of another kernel, e.g. to check types against a kernel that is not running
+     *
+     * @param btfFile raw BTF file like {@code /sys/kernel/btf/vmlinux} or an ELF file with a BTF section
+     */
+    public static KernelBTF parse(Path btfFile) {
+        try (Arena arena = Arena.ofConfined()) {
+            var btf = Lib.btf__parse(arena.allocateFrom(btfFile.toString()), MemorySegment.NULL);
+            if (btf == MemorySegment.NULL || Lib.libbpf_get_error(btf) != 0) {
+                throw new BPFError("Failed to parse BTF file " + btfFile);
+            }
+            return new KernelBTF(new BTF(btf), null);
+        }
+    }
+
+    /**
+     * Build ID of the running kernel, or its release and version if the build ID is not available
+     */
+    static String readBuildId() {
+        try {
+            var buildId = parseBuildId(Files.readAllBytes(KERNEL_NOTES));
+            if (buildId != null) {
+                return buildId;
+            }
+        } catch (IOException ignored) {
+        }
+        try {
+            return Files.readString(Path.of("/proc/sys/kernel/osrelease")).strip() + " " +
+                    Files.readString(Path.of("/proc/sys/kernel/version")).strip();
+        } catch (IOException e) {
+            throw new BPFError("Failed to read the kernel version", e);
+        }
+    }
+
+    /**
+     * Find the GNU build ID in the ELF notes of the kernel
+     *
+     * @param notes content of {@code /sys/kernel/notes}
+     * @return build ID as hex string or null if not found
+     */
+    static @Nullable String parseBuildId(byte[] notes) {
+        var buffer = ByteBuffer.wrap(notes).order(ByteOrder.nativeOrder());
+        while (buffer.remaining() >= 12) {
+            int nameSize = buffer.getInt();
+            int descSize = buffer.getInt();
+            int type = buffer.getInt();
+            int paddedNameSize = (nameSize + 3) & ~3;
+            int paddedDescSize = (descSize + 3) & ~3;
+            if (nameSize < 0 || descSize < 0 || paddedNameSize + paddedDescSize > buffer.remaining()) {
+                return null;
+            }
+            byte[] name = new byte[paddedNameSize];
+            buffer.get(name);
+            byte[] desc = new byte[paddedDescSize];
+            buffer.get(desc);
+            if (type == NT_GNU_BUILD_ID && new String(name, 0, nameSize, StandardCharsets.US_ASCII).equals("GNU\0")) {
+                return HexFormat.of().formatHex(desc, 0, descSize);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build ID of the kernel, or null if the BTF was parsed from a file
+     */
+    public @Nullable String buildId() {
+        return buildId;
+    }
+
+    /**
+     * Is the type a struct generated from the kernel BTF into {@code me.bechberger.ebpf.runtime}?
+     */
+    public static boolean isKernelType(BPFType<?> type) {
+        return type instanceof BPFStructType<?> structType && structType.javaClass() != null &&
+                structType.javaClass().klass().startsWith(RUNTIME_PACKAGE);
+    }
+
+    /**
+     * Returns the type with the layout of the passed kernel type in this kernel
+     *
+     * @param type kernel type, other types are returned unchanged
+     * @return the passed type if the layouts match, otherwise a copy with the member offsets of this kernel,
+     * members missing in this kernel are {@link BPFStructType#absentMembers() absent} and parsed as zero
+     * @throws KernelTypeMismatchError if the layout differs in a way that can't be fixed, e.g. a member has
+     *                                 a different size
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> BPFType<T> relocate(BPFType<T> type) {
+        if (!isKernelType(type)) {
+            return type;
+        }
+        var relocation = relocation(type);
+        if (!relocation.problems.isEmpty()) {
+            throw new KernelTypeMismatchError(type.bpfName(), relocation.problems);
+        }
+        return (BPFType<T>) relocation.type;
+    }
+
+    /**
+     * Differences between the layout of the passed kernel type and this kernel
+     *
+     * @return descriptions of all differences, empty if the layouts match or the type is no kernel type
+     */
+    public synchronized List<String> differences(BPFType<?> type) {
+        if (!isKernelType(type)) {
+            return List.of();
+        }
+        var relocation = relocation(type);
+        List<String> result = new ArrayList<>(relocation.differences);
+        result.addAll(relocation.problems);
+        return result;
+    }
+
+    private Relocation relocation(BPFType<?> type) {
+        var relocation = relocations.get(type);
+        if (relocation == null) {
+            relocation = relocateStruct((BPFStructType<?>) type);
+            relocations.put(type, relocation);
+        }
+        return relocation;
+    }
+
+    private @Nullable BTFType findStruct(String name) {
+        var struct = btf.findTypeByName(name, Kind.STRUCT);
+        if (struct != null) {
+            return struct;
+        }
+        var typedef = btf.findTypeByName(name, Kind.TYPEDEF);
+        if (typedef != null && typedef.resolve().kind() == Kind.STRUCT) {
+            return typedef.resolve();
+        }
+        return null;
+    }
+
+    /**
+     * Collect the members of the struct, including the members of anonymous structs and unions
+     */
+    private static void collectMembers(BTFType struct, int bitOffset, Map<String, Member> members) {
+        for (var member : struct.members()) {
+            var resolved = member.type().resolve();
+            if (member.name().isEmpty() && (resolved.kind() == Kind.STRUCT || resolved.kind() == Kind.UNION)) {
+                collectMembers(resolved, bitOffset + member.bitOffset(), members);
+            } else {
+                members.put(member.name(), new Member(member.name(), member.type(),
+                        bitOffset + member.bitOffset(), member.bitfieldSize()));
+            }
+        }
+    }
+
+    private <T> Relocation relocateStruct(BPFStructType<T> type) {
+        var kernelType = findStruct(type.bpfName());
+        if (kernelType == null) {
+            return new Relocation(type, List.of(), List.of("struct " + type.bpfName() + " not found"));
+        }
+        Map<String, Member> kernelMembers = new HashMap<>();
+        collectMembers(kernelType, 0, kernelMembers);
+
+        List<String> differences = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        List<BPFStructMember<T, ?>> members = new ArrayList<>();
+        Set<String> absentMembers = new HashSet<>();
+        for (var member : type.members()) {
+            String kernelName = member.name();
+            if (member.type() instanceof BPFInlineUnionType<?> unionType) {
+                // the members of inline unions are members of the struct in the kernel BTF
+                kernelName = unionType.members().stream().map(BPFType.BPFUnionMember::name)
+                        .filter(kernelMembers::containsKey).findFirst().orElse(member.name());
+            }
+            var kernelMember = kernelMembers.get(kernelName);
+            if (kernelMember == null) {
+                // like a CO-RE read guarded by bpf_core_field_exists
+                differences.add("member " + member.name() + " is missing and read as zero");
+                absentMembers.add(member.name());
+                members.add(member);
+                continue;
+            }
+            BPFType<?> memberType = member.type();
+            if (isKernelType(memberType)) {
+                var nested = relocation(memberType);
+                problems.addAll(nested.problems.stream().map(p -> member.name() + ": " + p).toList());
+                memberType = nested.type;
+            } else if (kernelMember.bitfieldSize() == 0 && !(memberType instanceof BPFInlineUnionType<?>)) {
+                long kernelSize = kernelMember.type().size();
+                if (kernelSize != 0 && kernelSize != memberType.size()) {
+                    problems.add("member " + member.name() + " has size " + kernelSize + " instead of " +
+                            memberType.size());
+                }
+            }
+            int offset = kernelMember.bitOffset() / 8;
+            if (offset != member.offset()) {
+                differences.add("member " + member.name() + " is at offset " + offset + " instead of " +
+                        member.offset());
+            }
+            members.add(relocateMember(member, memberType, offset));
+        }
+        long size = kernelType.size();
+        if (size != type.size()) {
+            differences.add("size is " + size + " instead of " + type.size());
+        }
+        boolean unchanged = differences.isEmpty() &&
+                IntStream.range(0, members.size()).allMatch(i -> members.get(i).type() == type.members().get(i).type());
+        if (!problems.isEmpty() || unchanged) {
+            return new Relocation(type, differences, problems);
+        }
+        var sorted = members.stream().filter(m -> !absentMembers.contains(m.name()))
+                .sorted(Comparator.comparingInt(BPFStructMember::offset)).toList();
+        for (int i = 1; i < sorted.size(); i++) {
+            var prev = sorted.get(i - 1);
+            if (prev.offset() + prev.type().size() > sorted.get(i).offset()) {
+                problems.add("member " + sorted.get(i).name() + " overlaps member " + prev.name());
+            }
+        }
+        if (!problems.isEmpty()) {
+            return new Relocation(type, differences, problems);
+        }
+        try {
+            return new Relocation(type.withMembers(members, size, absentMembers), differences, problems);
+        } catch (IllegalArgumentException e) {
+            return new Relocation(type, differences, List.of(e.getMessage()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P, M> BPFStructMember<P, M> relocateMember(BPFStructMember<P, M> member, BPFType<?> type,
+                                                               int offset) {
+        return new BPFStructMember<>(member.name(), (BPFType<M>) type, offset, member.getter(), member.ebpfSize());
+    }
+}
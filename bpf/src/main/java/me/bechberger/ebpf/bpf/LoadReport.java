@@ -0,0 +1,180 @@
+package me.bechberger.ebpf.bpf;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verifier statistics of all programs of a loaded eBPF object, obtained via {@link BPFProgram#getLoadReport()}
+ * <p>
+ * Useful to spot programs that approach the verifier limits before they fail to load.
+ *
+ * @param logLevel log level used while loading
+ * @param programs report for every program in the object
+ */
+public record LoadReport(LogLevel logLevel, List<ProgramReport> programs) {
+
+    /**
+     * Maximum number of instructions the verifier processes for a program
+     */
+    public static final int INSN_PROCESSED_LIMIT = 1_000_000;
+
+    /**
+     * Maximum combined stack depth of a call chain, the stack depths of the calling programs and
+     * sub-programs add up
+     */
+    public static final int MAX_STACK_DEPTH = 512;
+
+    /**
+     * Verifier log level, see <code>BPF_LOG_*</code> in the kernel
+     */
+    public enum LogLevel {
+        /** Don't capture the verifier log */
+        NONE(0),
+        /** Only statistics and errors */
+        STATS(4),
+        /** Verifier log for every branch, plus statistics */
+        BRANCHES(1 | 4),
+        /** Verifier log for every instruction, plus statistics, very verbose */
+        INSTRUCTIONS(2 | 4);
+
+        private final int level;
+
+        LogLevel(int level) {
+            this.level = level;
+        }
+
+        /** Kernel log level flags */
+        public int level() {
+            return level;
+        }
+
+        /** Initial size of the log buffer per program, it is grown if the log doesn't fit */
+        int bufferSize() {
+            return this == STATS ? 64 * 1024 : 16 * 1024 * 1024;
+        }
+    }
+
+    /**
+     * Verifier statistics of a single program
+     *
+     * @param name                 name of the program
+     * @param processedInsns       number of instructions processed by the verifier, or -1 if unknown
+     * @param maxStatesPerInsn     maximum number of states per instruction, or -1 if unknown
+     * @param totalStates          total number of verifier states, or -1 if unknown
+     * @param peakStates           peak number of verifier states, or -1 if unknown
+     * @param stackDepths          stack depth of the main program and each sub-program
+     * @param verificationTimeUsec time the verification took in microseconds, or -1 if unknown
+     * @param log                  captured verifier log
+     * @param logTruncated         whether the log didn't fit into the log buffer, the statistics
+     *                             at its end might then be missing
+     */
+    public record ProgramReport(String name, int processedInsns, int maxStatesPerInsn, int totalStates,
+                                int peakStates, List<Integer> stackDepths, long verificationTimeUsec, String log,
+                                boolean logTruncated) {
+
+        /** Largest stack depth of the main program or a single sub-program (per frame) */
+        public int maxStackDepth() {
+            return stackDepths.stream().mapToInt(Integer::intValue).max().orElse(0);
+        }
+
+        /**
+         * Upper bound of the combined stack depth of the deepest call chain, which the verifier limits
+         * to {@link #MAX_STACK_DEPTH}
+         * <p>
+         * This is the sum of the stack depths of the main program and all sub-programs,
+         * as the log doesn't contain the call graph.
+         */
+        public int callChainStackDepth() {
+            return stackDepths.stream().mapToInt(Integer::intValue).sum();
+        }
+
+        /** Fraction of the verifier instruction limit used by this program */
+        public double insnLimitUsage() {
+            return processedInsns < 0 ? 0 : (double) processedInsns / INSN_PROCESSED_LIMIT;
+        }
+
+        /**
+         * Is this program close to the instruction or stack limit of the verifier?
+         *
+         * @param threshold fraction of the limits, e.g. 0.8
+         */
+        public boolean approachesLimits(double threshold) {
+            return insnLimitUsage() >= threshold || callChainStackDepth() >= MAX_STACK_DEPTH * threshold;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d insns processed (%.1f%% of limit), stack depth %s, %d total states, " +
+                            "%d peak states%s", name, processedInsns, insnLimitUsage() * 100, stackDepths,
+                    totalStates, peakStates, logTruncated ? " (log truncated)" : "");
+        }
+    }
+
+    private static final Pattern PROCESSED_PATTERN = Pattern.compile(
+            "processed (\\d+) insns \\(limit \\d+\\) max_states_per_insn (\\d+) total_states (\\d+) peak_states (\\d+)");
+    private static final Pattern STACK_DEPTH_PATTERN = Pattern.compile("stack depth ([\\d+]+)");
+    private static final Pattern VERIFICATION_TIME_PATTERN = Pattern.compile("verification time (\\d+) usec");
+
+    /**
+     * Parse the statistics from the complete verifier log of a program
+     *
+     * @see #parse(String, String, boolean)
+     */
+    static ProgramReport parse(String name, String log) {
+        return parse(name, log, false);
+    }
+
+    /**
+     * Parse the statistics from the verifier log of a program
+     *
+     * @param name      name of the program
+     * @param log       verifier log
+     * @param truncated whether the log didn't fit into the log buffer
+     * @return parsed report, with -1 for every statistic that could not be found
+     */
+    static ProgramReport parse(String name, String log, boolean truncated) {
+        int processed = -1, maxStates = -1, totalStates = -1, peakStates = -1;
+        List<Integer> stackDepths = new ArrayList<>();
+        long verificationTime = -1;
+        // the statistics are at the end of the log, so use the last match
+        Matcher matcher = PROCESSED_PATTERN.matcher(log);
+        while (matcher.find()) {
+            processed = Integer.parseInt(matcher.group(1));
+            maxStates = Integer.parseInt(matcher.group(2));
+            totalStates = Integer.parseInt(matcher.group(3));
+            peakStates = Integer.parseInt(matcher.group(4));
+        }
+        matcher = STACK_DEPTH_PATTERN.matcher(log);
+        while (matcher.find()) {
+            stackDepths = Arrays.stream(matcher.group(1).split("\\+")).filter(s -> !s.isEmpty())
+                    .map(Integer::parseInt).toList();
+        }
+        matcher = VERIFICATION_TIME_PATTERN.matcher(log);
+        while (matcher.find()) {
+            verificationTime = Long.parseLong(matcher.group(1));
+        }
+        return new ProgramReport(name, processed, maxStates, totalStates, peakStates, stackDepths,
+                verificationTime, log, truncated);
+    }
+
+    /**
+     * Get the report of a specific program
+     */
+    public @Nullable ProgramReport getProgramReport(String name) {
+        return programs.stream().filter(p -> p.name().equals(name)).findFirst().orElse(null);
+    }
+
+    /**
+     * Reports of all programs that are close to the verifier limits
+     *
+     * @param threshold fraction of the limits, e.g. 0.8
+     */
+    public List<ProgramReport> programsApproachingLimits(double threshold) {
+        return programs.stream().filter(p -> p.approachesLimits(threshold)).toList();
+    }
+}
@@ -0,0 +1,313 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPFInterface;
+import me.bechberger.ebpf.bpf.map.BPFHashMap;
+import me.bechberger.ebpf.bpf.map.BPFStackTraceMap;
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.BPFType.AnnotatedClass;
+import me.bechberger.ebpf.type.BPFType.BPFIntType;
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+import me.bechberger.ebpf.type.BPFType.UBPFStructMember;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how long every thread is blocked (off-CPU), aggregated per task and per stack in kernel maps
+ * <p>
+ * Hooks the <code>sched_switch</code> and <code>sched_wakeup</code> tracepoints: a thread that leaves the
+ * CPU without being runnable starts an off-CPU period, its wakeup ends the blocked time and its next
+ * switch-in ends the time spent in the run queue. Only the aggregates are stored in the kernel,
+ * so user space just reads them periodically via batch map reads:
+ * {@snippet :
+ *     @BPF(license = "GPL")
+ *     public abstract class OffCPU extends BPFProgram implements OffCPUHook {}
+ *
+ *     program.offCPUAttach();
+ *     // ...
+ *     program.getOffCPUTaskTimes().forEach(System.out::println);
+ * }
+ * Requires <code>tp_btf</code> support and a kernel with <code>task_struct.__state</code> (5.14+).
+ */
+@BPFInterface(
+        after = """
+                #define OFFCPU_MAX_ENTRIES 16384
+                #define OFFCPU_TASK_COMM_LEN 16
+
+                struct offcpu_start {
+                    u64 switch_out_ns;
+                    u64 wakeup_ns;
+                    s32 user_stack_id;
+                    s32 kernel_stack_id;
+                };
+
+                struct offcpu_stack_key {
+                    u32 pid;
+                    u32 tgid;
+                    s32 user_stack_id;
+                    s32 kernel_stack_id;
+                    char comm[OFFCPU_TASK_COMM_LEN];
+                };
+
+                struct offcpu_task_time {
+                    u64 blocked_ns;
+                    u64 runqueue_ns;
+                    u64 count;
+                    u32 tgid;
+                    char comm[OFFCPU_TASK_COMM_LEN];
+                };
+
+                struct {
+                    __uint(type, BPF_MAP_TYPE_HASH);
+                    __uint(max_entries, OFFCPU_MAX_ENTRIES);
+                    __type(key, u32);
+                    __type(value, struct offcpu_start);
+                } offcpu_starts SEC(".maps");
+
+                struct {
+                    __uint(type, BPF_MAP_TYPE_STACK_TRACE);
+                    __uint(max_entries, OFFCPU_MAX_ENTRIES);
+                    __uint(key_size, sizeof(u32));
+                    __uint(value_size, 127 * sizeof(u64));
+                } offcpu_stacks SEC(".maps");
+
+                struct {
+                    __uint(type, BPF_MAP_TYPE_HASH);
+                    __uint(max_entries, OFFCPU_MAX_ENTRIES);
+                    __type(key, struct offcpu_stack_key);
+                    __type(value, u64);
+                } offcpu_stack_times SEC(".maps");
+
+                struct {
+                    __uint(type, BPF_MAP_TYPE_HASH);
+                    __uint(max_entries, OFFCPU_MAX_ENTRIES);
+                    __type(key, u32);
+                    __type(value, struct offcpu_task_time);
+                } offcpu_task_times SEC(".maps");
+
+                SEC("tp_btf/sched_switch")
+                int BPF_PROG(offcpu_sched_switch, bool preempt, struct task_struct *prev, struct task_struct *next) {
+                    u64 now = bpf_ktime_get_ns();
+                    u32 prev_pid = prev->pid;
+                    // only count threads that block, preempted threads are still runnable
+                    if (prev_pid != 0 && prev->__state != 0) {
+                        struct offcpu_start start = {};
+                        start.switch_out_ns = now;
+                        start.user_stack_id = bpf_get_stackid(ctx, &offcpu_stacks, BPF_F_USER_STACK);
+                        start.kernel_stack_id = bpf_get_stackid(ctx, &offcpu_stacks, 0);
+                        bpf_map_update_elem(&offcpu_starts, &prev_pid, &start, BPF_ANY);
+                    }
+                    u32 pid = next->pid;
+                    struct offcpu_start *start = bpf_map_lookup_elem(&offcpu_starts, &pid);
+                    if (!start) {
+                        return 0;
+                    }
+                    u64 wakeup = start->wakeup_ns ? start->wakeup_ns : now;
+                    u64 blocked = wakeup - start->switch_out_ns;
+                    u64 runqueue = now - wakeup;
+
+                    struct offcpu_stack_key key = {};
+                    key.pid = pid;
+                    key.tgid = next->tgid;
+                    key.user_stack_id = start->user_stack_id;
+                    key.kernel_stack_id = start->kernel_stack_id;
+                    bpf_probe_read_kernel_str(key.comm, sizeof(key.comm), next->comm);
+                    u64 *stack_time = bpf_map_lookup_elem(&offcpu_stack_times, &key);
+                    if (stack_time) {
+                        __sync_fetch_and_add(stack_time, blocked);
+                    } else {
+                        bpf_map_update_elem(&offcpu_stack_times, &key, &blocked, BPF_NOEXIST);
+                    }
+
+                    struct offcpu_task_time *task_time = bpf_map_lookup_elem(&offcpu_task_times, &pid);
+                    if (task_time) {
+                        __sync_fetch_and_add(&task_time->blocked_ns, blocked);
+                        __sync_fetch_and_add(&task_time->runqueue_ns, runqueue);
+                        __sync_fetch_and_add(&task_time->count, 1);
+                    } else {
+                        struct offcpu_task_time time = {};
+                        time.blocked_ns = blocked;
+                        time.runqueue_ns = runqueue;
+                        time.count = 1;
+                        time.tgid = key.tgid;
+                        __builtin_memcpy(time.comm, key.comm, sizeof(time.comm));
+                        bpf_map_update_elem(&offcpu_task_times, &pid, &time, BPF_NOEXIST);
+                    }
+                    bpf_map_delete_elem(&offcpu_starts, &pid);
+                    return 0;
+                }
+
+                SEC("tp_btf/sched_wakeup")
+                int BPF_PROG(offcpu_sched_wakeup, struct task_struct *p) {
+                    u32 pid = p->pid;
+                    struct offcpu_start *start = bpf_map_lookup_elem(&offcpu_starts, &pid);
+                    if (start && start->wakeup_ns == 0) {
+                        start->wakeup_ns = bpf_ktime_get_ns();
+                    }
+                    return 0;
+                }
+                """
+)
+public interface OffCPUHook {
+
+    /**
+     * Aggregated off-CPU time of a thread
+     *
+     * @param pid        thread id
+     * @param tgid       process id
+     * @param comm       name of the thread
+     * @param blockedNs  time between blocking and wakeup
+     * @param runqueueNs time between wakeup and running again
+     * @param count      number of off-CPU periods
+     */
+    record TaskOffCPUTime(int pid, int tgid, String comm, long blockedNs, long runqueueNs, long count) {
+        public long totalNs() {
+            return blockedNs + runqueueNs;
+        }
+    }
+
+    /**
+     * Aggregated blocked time of a thread for a specific stack, at the point where it left the CPU
+     *
+     * @param userStackId   id in the <code>offcpu_stacks</code> map, negative if not available
+     * @param kernelStackId id in the <code>offcpu_stacks</code> map, negative if not available
+     */
+    record StackOffCPUTime(int pid, int tgid, String comm, int userStackId, int kernelStackId, long blockedNs) {}
+
+    /**
+     * Key of <code>offcpu_stack_times</code>, without the blocked time
+     */
+    record StackKey(int pid, int tgid, int userStackId, int kernelStackId, String comm) {}
+
+    /**
+     * Value of <code>offcpu_task_times</code>, without the pid
+     */
+    record TaskTime(long blockedNs, long runqueueNs, long count, int tgid, String comm) {}
+
+    int OFFCPU_MAX_ENTRIES = 16384;
+    int OFFCPU_TASK_COMM_LEN = 16;
+
+    BPFStructType<StackKey> STACK_KEY_TYPE = BPFStructType.autoLayout("offcpu_stack_key",
+            List.of(new UBPFStructMember<>("pid", BPFIntType.UINT32, StackKey::pid),
+                    new UBPFStructMember<>("tgid", BPFIntType.UINT32, StackKey::tgid),
+                    new UBPFStructMember<>("user_stack_id", BPFIntType.INT32, StackKey::userStackId),
+                    new UBPFStructMember<>("kernel_stack_id", BPFIntType.INT32, StackKey::kernelStackId),
+                    new UBPFStructMember<>("comm", new BPFType.StringType(OFFCPU_TASK_COMM_LEN, true), StackKey::comm)),
+            new AnnotatedClass(StackKey.class, List.of()),
+            fields -> new StackKey((int) fields.get(0), (int) fields.get(1), (int) fields.get(2),
+                    (int) fields.get(3), (String) fields.get(4)));
+
+    BPFStructType<TaskTime> TASK_TIME_TYPE = BPFStructType.autoLayout("offcpu_task_time",
+            List.of(new UBPFStructMember<>("blocked_ns", BPFIntType.UINT64, TaskTime::blockedNs),
+                    new UBPFStructMember<>("runqueue_ns", BPFIntType.UINT64, TaskTime::runqueueNs),
+                    new UBPFStructMember<>("count", BPFIntType.UINT64, TaskTime::count),
+                    new UBPFStructMember<>("tgid", BPFIntType.UINT32, TaskTime::tgid),
+                    new UBPFStructMember<>("comm", new BPFType.StringType(OFFCPU_TASK_COMM_LEN, true), TaskTime::comm)),
+            new AnnotatedClass(TaskTime.class, List.of()),
+            fields -> new TaskTime((long) fields.get(0), (long) fields.get(1), (long) fields.get(2),
+                    (int) fields.get(3), (String) fields.get(4)));
+
+    /**
+     * Attach to the <code>sched_switch</code> and <code>sched_wakeup</code> tracepoints
+     *
+     * @throws BPFProgram.BPFAttachError if attaching failed
+     */
+    default void offCPUAttach() {
+        if (this instanceof BPFProgram program) {
+            program.autoAttachProgram("offcpu_sched_switch");
+            program.autoAttachProgram("offcpu_sched_wakeup");
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Read the off-CPU time of all threads via batch map reads, sorted by total time descending
+     */
+    default List<TaskOffCPUTime> getOffCPUTaskTimes() {
+        if (this instanceof BPFProgram program) {
+            return taskTimesMap(program).readBatched().stream()
+                    .map(e -> new TaskOffCPUTime(e.getKey(), e.getValue().tgid(), e.getValue().comm(),
+                            e.getValue().blockedNs(), e.getValue().runqueueNs(), e.getValue().count()))
+                    .sorted(Comparator.comparingLong(TaskOffCPUTime::totalNs).reversed()).toList();
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Read the blocked time per thread and stack via batch map reads, sorted by blocked time descending
+     */
+    default List<StackOffCPUTime> getOffCPUStackTimes() {
+        if (this instanceof BPFProgram program) {
+            return stackTimesMap(program).readBatched().stream()
+                    .map(e -> new StackOffCPUTime(e.getKey().pid(), e.getKey().tgid(), e.getKey().comm(),
+                            e.getKey().userStackId(), e.getKey().kernelStackId(), e.getValue()))
+                    .sorted(Comparator.comparingLong(StackOffCPUTime::blockedNs).reversed()).toList();
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Map of the stacks referenced by {@link StackOffCPUTime}
+     */
+    default BPFStackTraceMap getOffCPUStacks() {
+        if (this instanceof BPFProgram program) {
+            return new BPFStackTraceMap(program.getMapDescriptorByName("offcpu_stacks"), OFFCPU_MAX_ENTRIES);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Aggregate the blocked time into folded stacks, for off-CPU flame graphs
+     *
+     * @param symbolizer symbolizer to resolve the stack addresses
+     * @return folded stack to blocked time in nanoseconds
+     */
+    default Map<String, Long> getOffCPUFoldedStacks(StackSymbolizer symbolizer) {
+        var stacks = getOffCPUStacks();
+        Map<String, Long> folded = new HashMap<>();
+        for (var time : getOffCPUStackTimes()) {
+            var stack = symbolizer.fold(time.comm(), time.tgid(), stacks.getStack(time.userStackId()),
+                    stacks.getStack(time.kernelStackId()));
+            folded.merge(stack, time.blockedNs(), Long::sum);
+        }
+        return folded;
+    }
+
+    /**
+     * Clear the aggregated times and stacks, e.g. to start a new reporting interval
+     */
+    default void clearOffCPUTimes() {
+        if (this instanceof BPFProgram program) {
+            var stacks = getOffCPUStacks();
+            for (var time : getOffCPUStackTimes()) {
+                stacks.delete(time.userStackId());
+                stacks.delete(time.kernelStackId());
+            }
+            stackTimesMap(program).clear();
+            taskTimesMap(program).clear();
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /*
+     * The maps are not recorded in the program, as they are created on every call and
+     * share the file descriptors owned by the program
+     */
+
+    private static BPFHashMap<StackKey, Long> stackTimesMap(BPFProgram program) {
+        return new BPFHashMap<>(program.getMapDescriptorByName("offcpu_stack_times"), false, STACK_KEY_TYPE,
+                BPFIntType.UINT64);
+    }
+
+    private static BPFHashMap<Integer, TaskTime> taskTimesMap(BPFProgram program) {
+        return new BPFHashMap<>(program.getMapDescriptorByName("offcpu_task_times"), false, BPFIntType.UINT32,
+                TASK_TIME_TYPE);
+    }
+}
@@ -0,0 +1,92 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.bpf.BPFProgram.ProgramStats;
+import me.bechberger.ebpf.bpf.BPFProgram.StatsHandle;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Periodically samples the runtime statistics of all programs of a {@link BPFProgram}
+ * and reports the statistics for each interval
+ * <p>
+ * Kernel statistics collection is enabled while the sampler runs.
+ * Create it via {@link BPFProgram#sampleStats(Duration, Consumer)}, it is closed at the latest
+ * when the program is closed.
+ */
+public class ProgramStatsSampler implements AutoCloseable {
+
+    private final BPFProgram program;
+    private final Duration interval;
+    private final Consumer<List<ProgramStats>> consumer;
+    private final StatsHandle statsHandle;
+    private final Thread thread;
+    private final Map<String, ProgramStats> previous = new HashMap<>();
+    private volatile boolean running = true;
+
+    ProgramStatsSampler(BPFProgram program, Duration interval, Consumer<List<ProgramStats>> consumer) {
+        this.program = program;
+        this.interval = interval;
+        this.consumer = consumer;
+        this.statsHandle = program.enableStats();
+        for (var stats : program.getStats()) {
+            previous.put(stats.name(), stats);
+        }
+        this.thread = new Thread(this::run, "bpf-stats-sampler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            var stats = sample();
+            if (stats.isEmpty()) {
+                return;
+            }
+            consumer.accept(stats);
+        }
+    }
+
+    /**
+     * Obtain the statistics since the last sample
+     *
+     * @return statistics, empty if the sampler or program is closed
+     */
+    synchronized List<ProgramStats> sample() {
+        if (!running || program.isClosed()) {
+            return List.of();
+        }
+        return program.getStats().stream().map(stats -> {
+            var prev = previous.put(stats.name(), stats);
+            return prev == null ? stats : stats.minus(prev);
+        }).toList();
+    }
+
+    /**
+     * Stop sampling and disable the statistics collection
+     * <p>
+     * Waits for a running sample to finish, unless called by the consumer
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        statsHandle.close();
+        program.removeStatsSampler(this);
+    }
+}
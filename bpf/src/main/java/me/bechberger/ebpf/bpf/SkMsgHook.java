@@ -0,0 +1,46 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPFFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.map.BPFMap;
+import me.bechberger.ebpf.type.Ptr;
+
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_action;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_msg_md;
+
+/**
+ * Handle every message sent on a socket of a {@link me.bechberger.ebpf.bpf.map.BPFSockMap}
+ * or {@link me.bechberger.ebpf.bpf.map.BPFSockHash}
+ * <p>
+ * The handler can pass, drop or redirect the message to another socket, e.g. via
+ * {@link me.bechberger.ebpf.bpf.map.BPFSockHash#redirectMsgToIngress(Ptr, Object)}.
+ * <p>
+ * See <a href="https://ebpf-docs.dylanreimerink.nl/linux/program-type/BPF_PROG_TYPE_SK_MSG/">ebpf-docs.dylanreimerink.nl</a>
+ */
+public interface SkMsgHook {
+
+    /**
+     * Handle an outgoing message
+     * <p>
+     * See <a href="https://ebpf-docs.dylanreimerink.nl/linux/program-context/sk_msg_md/">ebpf-docs.dylanreimerink.nl</a>
+     * for more info on the passed parameter
+     */
+    @BPFFunction(section = "sk_msg")
+    @NotUsableInJava
+    default sk_action skMsgVerdict(Ptr<sk_msg_md> msg) {
+        return sk_action.SK_PASS;
+    }
+
+    /**
+     * Attach the message handler to the socket map
+     *
+     * @param sockMap {@link me.bechberger.ebpf.bpf.map.BPFSockMap} or {@link me.bechberger.ebpf.bpf.map.BPFSockHash}
+     */
+    default void skMsgAttach(BPFMap sockMap) {
+        if (this instanceof BPFProgram program) {
+            program.skMsgAttach(program.getProgramByName("skMsgVerdict"), sockMap);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+}
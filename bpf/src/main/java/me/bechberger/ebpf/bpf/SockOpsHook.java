@@ -0,0 +1,55 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.type.Ptr;
+
+import static me.bechberger.ebpf.runtime.BpfDefinitions.bpf_sock_ops;
+
+/**
+ * Handle TCP socket events (connection established, retransmits, ...) of all sockets in a cgroup
+ * <p>
+ * Commonly used to add new connections to a {@link me.bechberger.ebpf.bpf.map.BPFSockHash}
+ * when <code>op</code> is <code>BPF_SOCK_OPS_ACTIVE_ESTABLISHED_CB</code> or
+ * <code>BPF_SOCK_OPS_PASSIVE_ESTABLISHED_CB</code>.
+ * <p>
+ * See <a href="https://ebpf-docs.dylanreimerink.nl/linux/program-type/BPF_PROG_TYPE_SOCK_OPS/">ebpf-docs.dylanreimerink.nl</a>
+ */
+public interface SockOpsHook {
+
+    /**
+     * Handle a socket operation
+     * <p>
+     * See <a href="https://ebpf-docs.dylanreimerink.nl/linux/program-context/bpf_sock_ops/">ebpf-docs.dylanreimerink.nl</a>
+     * for more info on the passed parameter
+     *
+     * @return 1 on success, the meaning of the value depends on the operation otherwise
+     */
+    @BPFFunction(section = "sockops")
+    @NotUsableInJava
+    default int sockOpsHandle(Ptr<bpf_sock_ops> ops) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Attach the socket operations handler to the specified cgroup
+     *
+     * @param cgroupName name of the cgroup
+     * @see CGroupHook#cgroupAttachIngress(String)
+     */
+    default void sockOpsAttach(String cgroupName) {
+        if (this instanceof BPFProgram program) {
+            program.cgroupAttach(program.getProgramByName("sockOpsHandle"), cgroupName);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Attach the socket operations handler to the {@code user.slice} cgroup
+     */
+    default void sockOpsAttach() {
+        sockOpsAttach("user.slice");
+    }
+}
@@ -0,0 +1,174 @@
+package me.bechberger.ebpf.bpf;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the addresses of stack traces (e.g. from a {@link me.bechberger.ebpf.bpf.map.BPFStackTraceMap})
+ * to function names and formats them as folded stacks for flame graphs
+ * <p>
+ * Kernel addresses are resolved via <code>/proc/kallsyms</code>, user addresses via the memory mappings
+ * of the process and the symbol tables of the mapped binaries (see {@link ElfSymbolResolver}).
+ * JIT-compiled code is resolved via the perf map <code>/tmp/perf-[pid].map</code> if present,
+ * which HotSpot writes via <code>jcmd [pid] Compiler.perfmap</code>.
+ * <p>
+ * Mappings and perf maps are cached per process, call {@link #clear()} to drop them.
+ */
+public class StackSymbolizer {
+
+    private static final String UNKNOWN = "[unknown]";
+
+    private record Symbols(long[] addresses, String[] names) {
+
+        static Symbols of(List<Map.Entry<Long, String>> entries) {
+            var sorted = entries.stream().sorted(Map.Entry.comparingByKey()).toList();
+            return new Symbols(sorted.stream().mapToLong(Map.Entry::getKey).toArray(),
+                    sorted.stream().map(Map.Entry::getValue).toArray(String[]::new));
+        }
+
+        @Nullable String lookup(long address) {
+            int index = Arrays.binarySearch(addresses, address);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index < 0 ? null : names[index];
+        }
+    }
+
+    private record Mapping(long start, long end, long offset, String path) {}
+
+    private @Nullable Symbols kernelSymbols;
+    private final Map<Integer, List<Mapping>> mappings = new HashMap<>();
+    private final Map<Integer, Symbols> perfMaps = new HashMap<>();
+
+    /**
+     * Resolve a kernel address
+     *
+     * @return function name or <code>[unknown]</code>
+     */
+    public String symbolizeKernel(long address) {
+        if (kernelSymbols == null) {
+            kernelSymbols = readKernelSymbols();
+        }
+        var name = kernelSymbols.lookup(address);
+        return name == null ? UNKNOWN : name;
+    }
+
+    private static Symbols readKernelSymbols() {
+        List<Map.Entry<Long, String>> entries = new ArrayList<>();
+        try (var lines = Files.lines(Path.of("/proc/kallsyms"))) {
+            lines.forEach(line -> {
+                var parts = line.split("\\s+");
+                if (parts.length >= 3 && (parts[1].equalsIgnoreCase("t") || parts[1].equalsIgnoreCase("w"))) {
+                    entries.add(Map.entry(Long.parseUnsignedLong(parts[0], 16), parts[2]));
+                }
+            });
+        } catch (IOException e) {
+            throw new BPFError("Cannot read /proc/kallsyms", e);
+        }
+        return Symbols.of(entries);
+    }
+
+    /**
+     * Resolve a user-space address of a process
+     *
+     * @return function name, <code>[binary name]</code> if the binary has no symbol for the address,
+     * or <code>[unknown]</code>
+     */
+    public String symbolizeUser(int pid, long address) {
+        for (var mapping : mappings.computeIfAbsent(pid, StackSymbolizer::readMappings)) {
+            if (address >= mapping.start && address < mapping.end) {
+                try {
+                    var name = ElfSymbolResolver.symbolize(Path.of(mapping.path),
+                            address - mapping.start + mapping.offset);
+                    if (name != null) {
+                        return name;
+                    }
+                } catch (BPFError e) {
+                    // not a readable ELF file
+                }
+                return "[" + Path.of(mapping.path).getFileName() + "]";
+            }
+        }
+        var name = perfMaps.computeIfAbsent(pid, StackSymbolizer::readPerfMap).lookup(address);
+        return name == null ? UNKNOWN : name;
+    }
+
+    private static List<Mapping> readMappings(int pid) {
+        List<Mapping> result = new ArrayList<>();
+        try (var lines = Files.lines(Path.of("/proc/" + pid + "/maps"))) {
+            lines.forEach(line -> {
+                // start-end perms offset dev inode path
+                var parts = line.split("\\s+", 6);
+                if (parts.length < 6 || !parts[1].contains("x") || !parts[5].startsWith("/")) {
+                    return;
+                }
+                var range = parts[0].split("-");
+                result.add(new Mapping(Long.parseUnsignedLong(range[0], 16), Long.parseUnsignedLong(range[1], 16),
+                        Long.parseUnsignedLong(parts[2], 16), parts[5]));
+            });
+        } catch (IOException e) {
+            // process already exited
+        }
+        return result;
+    }
+
+    private static Symbols readPerfMap(int pid) {
+        List<Map.Entry<Long, String>> entries = new ArrayList<>();
+        var path = Path.of("/tmp/perf-" + pid + ".map");
+        if (Files.exists(path)) {
+            try (var lines = Files.lines(path)) {
+                lines.forEach(line -> {
+                    // start size name
+                    var parts = line.split(" ", 3);
+                    if (parts.length == 3) {
+                        entries.add(Map.entry(Long.parseUnsignedLong(parts[0].replace("0x", ""), 16), parts[2]));
+                    }
+                });
+            } catch (IOException | NumberFormatException e) {
+                // ignore broken perf maps
+            }
+        }
+        return Symbols.of(entries);
+    }
+
+    /**
+     * Format a sample as a folded stack, root frame first, kernel frames are suffixed with <code>_[k]</code>
+     *
+     * @param name        name of the root frame, e.g. the process name
+     * @param pid         process id
+     * @param userStack   user stack, innermost frame first, or null
+     * @param kernelStack kernel stack, innermost frame first, or null
+     * @return folded stack, e.g. <code>java;main;read;ksys_read_[k]</code>
+     */
+    public String fold(String name, int pid, long @Nullable [] userStack, long @Nullable [] kernelStack) {
+        var builder = new StringBuilder(name.replace(';', '_'));
+        if (userStack != null) {
+            for (int i = userStack.length - 1; i >= 0; i--) {
+                builder.append(';').append(symbolizeUser(pid, userStack[i]).replace(';', '_'));
+            }
+        }
+        if (kernelStack != null) {
+            for (int i = kernelStack.length - 1; i >= 0; i--) {
+                builder.append(';').append(symbolizeKernel(kernelStack[i])).append("_[k]");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Drop the cached mappings and perf maps of all processes
+     */
+    public void clear() {
+        mappings.clear();
+        perfMaps.clear();
+    }
+}
@@ -0,0 +1,82 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.Includes;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.BPFProgram.BPFLink;
+import me.bechberger.ebpf.type.Ptr;
+
+import java.nio.file.Path;
+
+/**
+ * Attach programs to USDT (user statically defined tracing) probes, like the probes of HotSpot
+ * <p>
+ * Implement a method per probe with {@code @BPFFunction(section = "usdt")} and attach it via
+ * {@link #usdtAttach(String, Path, String, String)}:
+ * {@snippet :
+ *     @BPFFunction(section = "usdt")
+ *     public void gcBegin(Ptr<pt_regs> ctx) {
+ *         // ...
+ *     }
+ *
+ *     program.usdtAttachHotSpot("gcBegin", "gc__begin");
+ * }
+ * Arguments of the probe are read with {@link #bpf_usdt_arg(Ptr, long, Ptr)}.
+ * Some HotSpot probes require <code>-XX:+ExtendedDTraceProbes</code>, see
+ * <a href="https://docs.oracle.com/javase/8/docs/technotes/guides/vm/dtrace.html">the DTrace probe list</a>.
+ */
+@Includes("bpf/usdt.bpf.h")
+public interface USDTHook {
+
+    /**
+     * Attach the program to a probe in all processes
+     *
+     * @param programName name of the program
+     * @param binary      binary or shared library that defines the probe
+     * @param provider    provider of the probe
+     * @param name        name of the probe
+     * @throws BPFProgram.BPFAttachError if attaching failed
+     */
+    default BPFLink usdtAttach(String programName, Path binary, String provider, String name) {
+        if (this instanceof BPFProgram program) {
+            return program.usdtAttach(program.getProgramByName(programName), binary, provider, name, -1);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Attach the program to a <code>hotspot</code> probe of the <code>libjvm.so</code> of the current JVM,
+     * for all JVMs that use this library
+     *
+     * @param name name of the probe, e.g. <code>gc__begin</code> or <code>thread__start</code>
+     * @see #usdtAttach(String, Path, String, String)
+     */
+    default BPFLink usdtAttachHotSpot(String programName, String name) {
+        return usdtAttach(programName, ElfSymbolResolver.libJVMPath(), "hotspot", name);
+    }
+
+    /**
+     * Read an argument of the probe, in eBPF
+     *
+     * @param ctx    context of the program
+     * @param argNum index of the argument, starting at 0
+     * @param result pointer to store the argument value
+     * @return 0 on success, negative error otherwise
+     */
+    @BuiltinBPFFunction
+    @NotUsableInJava
+    static long bpf_usdt_arg(Ptr<?> ctx, long argNum, Ptr<Long> result) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Number of arguments of the probe, in eBPF
+     */
+    @BuiltinBPFFunction
+    @NotUsableInJava
+    static int bpf_usdt_arg_cnt(Ptr<?> ctx) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
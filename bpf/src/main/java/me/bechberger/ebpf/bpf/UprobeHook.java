@@ -0,0 +1,71 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.bpf.BPFProgram.BPFLink;
+
+import java.nio.file.Path;
+
+/**
+ * Attach programs to functions in user-space binaries and shared libraries (uprobes)
+ * <p>
+ * Implement a method per probe with {@code @BPFFunction(section = "uprobe")} (or <code>uretprobe</code>)
+ * and attach it to a function via {@link #uprobeAttach(String, Path, String)}:
+ * {@snippet :
+ *     @BPFFunction(section = "uprobe")
+ *     public void safepointBegin(Ptr<pt_regs> ctx) {
+ *         // ...
+ *     }
+ *
+ *     program.uprobeAttachLibJVM("safepointBegin", "_ZN20SafepointSynchronize5beginEv");
+ * }
+ * The symbol tables of the binaries are cached, see {@link ElfSymbolResolver}.
+ */
+public interface UprobeHook {
+
+    /**
+     * Attach the program to the entry of a function in all processes
+     *
+     * @param programName name of the program
+     * @param binary      binary or shared library
+     * @param symbol      function name, mangled for C++ functions
+     * @throws BPFProgram.BPFAttachError if attaching failed
+     */
+    default BPFLink uprobeAttach(String programName, Path binary, String symbol) {
+        if (this instanceof BPFProgram program) {
+            return program.uprobeAttach(program.getProgramByName(programName), binary, symbol, false, -1);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Attach the program to the returns of a function in all processes
+     *
+     * @see #uprobeAttach(String, Path, String)
+     */
+    default BPFLink uretprobeAttach(String programName, Path binary, String symbol) {
+        if (this instanceof BPFProgram program) {
+            return program.uprobeAttach(program.getProgramByName(programName), binary, symbol, true, -1);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Attach the program to the entry of a function in the <code>libjvm.so</code> of the current JVM,
+     * for all JVMs that use this library
+     *
+     * @see #uprobeAttach(String, Path, String)
+     */
+    default BPFLink uprobeAttachLibJVM(String programName, String symbol) {
+        return uprobeAttach(programName, ElfSymbolResolver.libJVMPath(), symbol);
+    }
+
+    /**
+     * Attach the program to the returns of a function in the <code>libjvm.so</code> of the current JVM
+     *
+     * @see #uprobeAttachLibJVM(String, String)
+     */
+    default BPFLink uretprobeAttachLibJVM(String programName, String symbol) {
+        return uretprobeAttach(programName, ElfSymbolResolver.libJVMPath(), symbol);
+    }
+}
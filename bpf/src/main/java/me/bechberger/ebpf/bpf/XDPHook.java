@@ -65,6 +65,33 @@ public interface XDPHook {
         xdpAttach(NetworkUtil.getNetworkInterfaceIndexes());
     }
 
+    /**
+     * Attach this program to network interfaces in the given mode
+     * @param ifindexes network interface indexes, e.g. via {@link NetworkUtil#getNetworkInterfaceIndexes()}
+     * @param mode requested mode
+     * @param allowGeneric allow falling back to the slow generic mode, fail otherwise
+     * @return the mode that is actually used for each interface
+     * @see BPFProgram#xdpAttach(BPFProgram.ProgramHandle, int, XDPMode, boolean)
+     */
+    default List<XDPMode> xdpAttach(List<Integer> ifindexes, XDPMode mode, boolean allowGeneric) {
+        if (this instanceof BPFProgram program) {
+            return program.xdpAttach(program.getProgramByName("xdpHandlePacket"), ifindexes, mode, allowGeneric);
+        } else {
+            throw new IllegalStateException("This is not a BPF program");
+        }
+    }
+
+    /**
+     * Attach this program to a network interface in the given mode
+     * @param ifindex network interface index
+     * @param mode requested mode
+     * @param allowGeneric allow falling back to the slow generic mode, fail otherwise
+     * @return the mode that is actually used
+     */
+    default XDPMode xdpAttach(int ifindex, XDPMode mode, boolean allowGeneric) {
+        return xdpAttach(List.of(ifindex), mode, allowGeneric).getFirst();
+    }
+
     /**
      * Converts a short from host byte order to network byte order
      * <p>
@@ -0,0 +1,48 @@
+package me.bechberger.ebpf.bpf;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Mode in which an XDP program is attached to a network interface
+ * <p>
+ * The generic mode works with every driver, but runs after the kernel allocated the socket buffer
+ * and is therefore much slower than the native mode.
+ */
+public enum XDPMode {
+    /** Let the kernel choose, native if the driver supports it, generic otherwise */
+    AUTO(0, 0),
+    /** Run in the network driver, before any allocation */
+    NATIVE(NetworkUtil.XDP_FLAGS_DRV_MODE, 1),
+    /** Run in the generic network stack (SKB mode), works with every driver */
+    GENERIC(NetworkUtil.XDP_FLAGS_SKB_MODE, 2),
+    /** Run on the network card, only supported by a few smart NICs */
+    OFFLOAD(NetworkUtil.XDP_FLAGS_HW_MODE, 3);
+
+    private final int flags;
+    /** <code>XDP_ATTACHED_*</code> value reported by the kernel */
+    private final int attachMode;
+
+    XDPMode(int flags, int attachMode) {
+        this.flags = flags;
+        this.attachMode = attachMode;
+    }
+
+    /** <code>XDP_FLAGS_*_MODE</code> flags for attaching */
+    public int flags() {
+        return flags;
+    }
+
+    /**
+     * Get the mode for a <code>XDP_ATTACHED_*</code> value, as reported by <code>bpf_xdp_query</code>
+     *
+     * @return mode or null if no program (or multiple programs) are attached
+     */
+    static @Nullable XDPMode fromAttachMode(int attachMode) {
+        for (var mode : values()) {
+            if (mode != AUTO && mode.attachMode == attachMode) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -10,9 +10,11 @@ import me.bechberger.ebpf.bpf.raw.Lib;
 import me.bechberger.ebpf.runtime.runtime;
 import me.bechberger.ebpf.runtime.runtime.key;
 import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.Columns;
 import me.bechberger.ebpf.shared.PanamaUtil;
 import me.bechberger.ebpf.type.Enum;
 import me.bechberger.ebpf.type.Ptr;
+import me.bechberger.ebpf.type.StructView;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -21,6 +23,8 @@ import java.lang.foreign.MemorySegment;
 import java.util.*;
 import java.util.function.BiConsumer;
 
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
 /**
  * A base map based on <a href="https://docs.kernel.org/bpf/map_hash.html">BPF hash map</a>
  * <p>
@@ -48,6 +52,11 @@ public class BPFBaseMap<K, V> extends BPFMap implements Iterable<Map.Entry<K, V>
         return valueType;
     }
 
+    @Override
+    public List<BPFType<?>> getTypes() {
+        return List.of(keyType, valueType);
+    }
+
     public static class BPFHashMapError extends BPFError {
         public BPFHashMapError(String message, int errorCode) {
             super(message, errorCode);
@@ -133,6 +142,25 @@ public class BPFBaseMap<K, V> extends BPFMap implements Iterable<Map.Entry<K, V>
         }
     }
 
+    /**
+     * Get a value from the map, parsing it into the passed object if the value type supports it
+     *
+     * @param key    key
+     * @param target object to reuse, see {@link BPFType#parseInto(MemorySegment, Object)}
+     * @return value or null if not found
+     */
+    public V get(K key, V target) {
+        try (var arena = Arena.ofConfined()) {
+            var keySegment = keyType.allocate(arena, Objects.requireNonNull(key));
+            var valueSegment = valueType.allocate(arena);
+            var ret = Lib.bpf_map_lookup_elem(fd.fd(), keySegment, valueSegment);
+            if (ret != 0) {
+                return null;
+            }
+            return valueType.parseInto(valueSegment, target);
+        }
+    }
+
     public boolean containsKey(K key) {
         return get(key) != null;
     }
@@ -259,6 +287,156 @@ public class BPFBaseMap<K, V> extends BPFMap implements Iterable<Map.Entry<K, V>
         return entries;
     }
 
+    /**
+     * Read all entries with <code>bpf_map_lookup_batch</code>, which requires one system call per batch
+     * instead of two per entry
+     * <p>
+     * Falls back to {@link #entrySet()} on kernels or map types without batch support.
+     * The result is not an atomic snapshot if the map is modified concurrently.
+     *
+     * @param batchSize maximum number of entries read per system call
+     * @return all entries
+     * @throws BPFHashMapError if reading a batch failed
+     */
+    public List<Map.Entry<K, V>> readBatched(int batchSize) {
+        long keyStride = batchKeyStride();
+        long valueStride = batchValueStride();
+        List<Map.Entry<K, V>> entries = new ArrayList<>();
+        boolean supported = lookupBatched(batchSize, (keys, values, read) -> {
+            for (int i = 0; i < read; i++) {
+                entries.add(new AbstractMap.SimpleEntry<>(
+                        keyType.parseMemory(keys.asSlice(i * keyStride, keyType.size())),
+                        valueType.parseMemory(values.asSlice(i * valueStride, valueType.size()))));
+            }
+        });
+        return supported ? entries : new ArrayList<>(entrySet());
+    }
+
+    /**
+     * Read all entries with <code>bpf_map_lookup_batch</code> into columns, decoding the primitive members
+     * of the keys and values into primitive arrays instead of objects, see {@link Columns}
+     * <p>
+     * Falls back to {@link #entrySet()} on kernels or map types without batch support.
+     * The result is not an atomic snapshot if the map is modified concurrently.
+     *
+     * @param keys      columns of the key type that the keys are added to, or null to skip the keys
+     * @param values    columns of the value type that the values are added to, or null to skip the values
+     * @param batchSize maximum number of entries read per system call
+     * @throws BPFHashMapError if reading a batch failed
+     */
+    public void readBatched(@Nullable Columns<K> keys, @Nullable Columns<V> values, int batchSize) {
+        long keyStride = batchKeyStride();
+        long valueStride = batchValueStride();
+        boolean supported = lookupBatched(batchSize, (keySegment, valueSegment, read) -> {
+            if (keys != null) {
+                keys.addAll(keySegment, keyStride, read);
+            }
+            if (values != null) {
+                values.addAll(valueSegment, valueStride, read);
+            }
+        });
+        if (supported) {
+            return;
+        }
+        try (var arena = Arena.ofConfined()) {
+            var keySegment = keyType.allocate(arena);
+            var valueSegment = valueType.allocate(arena);
+            for (var entry : entrySet()) {
+                if (keys != null) {
+                    keyType.setMemory(keySegment, entry.getKey());
+                    keys.add(keySegment);
+                }
+                if (values != null) {
+                    valueType.setMemory(valueSegment, entry.getValue());
+                    values.add(valueSegment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Distance between two keys in a batch, the kernel stores them with the key size of the map,
+     * which differs from {@link BPFType#sizePadded()} for wrapped types like the 8-byte aligned
+     * values of {@link BPFArray}
+     */
+    private long batchKeyStride() {
+        return info.keySize();
+    }
+
+    /**
+     * Distance between two values in a batch
+     *
+     * @see #batchKeyStride()
+     */
+    private long batchValueStride() {
+        return info.valueSize();
+    }
+
+    /**
+     * Consumes a batch of {@code count} keys and values, stored {@link #batchKeyStride()}
+     * and {@link #batchValueStride()} bytes apart
+     */
+    @FunctionalInterface
+    private interface BatchConsumer {
+        void accept(MemorySegment keys, MemorySegment values, int count);
+    }
+
+    /**
+     * Read all entries with <code>bpf_map_lookup_batch</code>
+     * <p>
+     * Grows the batch if the kernel can't fit the next bucket of a hash map into it
+     *
+     * @return false if batch lookups are not supported
+     */
+    private boolean lookupBatched(int batchSize, BatchConsumer consumer) {
+        long keyStride = batchKeyStride();
+        long valueStride = batchValueStride();
+        try (var arena = Arena.ofConfined()) {
+            var keys = arena.allocate(keyStride * batchSize, keyType.alignment());
+            var values = arena.allocate(valueStride * batchSize, valueType.alignment());
+            // the batch token is opaque, it is at most as large as the key for all map types
+            long tokenSize = Math.max(keyStride, 8);
+            var inBatch = arena.allocate(tokenSize, 8);
+            var outBatch = arena.allocate(tokenSize, 8);
+            var count = arena.allocate(JAVA_INT);
+            boolean first = true;
+            while (true) {
+                count.set(JAVA_INT, 0, batchSize);
+                int ret = Lib.bpf_map_lookup_batch(fd.fd(), first ? MemorySegment.NULL : inBatch, outBatch, keys,
+                        values, count, MemorySegment.NULL);
+                if (ret == -PanamaUtil.ERRNO_ENOSPC) {
+                    // a hash bucket has more entries than the batch, nothing was read
+                    batchSize *= 2;
+                    keys = arena.allocate(keyStride * batchSize, keyType.alignment());
+                    values = arena.allocate(valueStride * batchSize, valueType.alignment());
+                    continue;
+                }
+                if (ret < 0 && ret != -PanamaUtil.ERRNO_ENOENT) {
+                    if (first && (ret == -PanamaUtil.ERRNO_EINVAL || ret == -PanamaUtil.ERRNO_EOPNOTSUPP ||
+                            ret == -PanamaUtil.ERRNO_ENOTSUPP)) {
+                        return false;
+                    }
+                    throw new BPFHashMapError("Failed to read batch", -ret);
+                }
+                consumer.accept(keys, values, count.get(JAVA_INT, 0));
+                if (ret == -PanamaUtil.ERRNO_ENOENT) {
+                    return true;
+                }
+                MemorySegment.copy(outBatch, 0, inBatch, 0, tokenSize);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Read all entries in batches of 1024 entries
+     *
+     * @see #readBatched(int)
+     */
+    public List<Map.Entry<K, V>> readBatched() {
+        return readBatched(1024);
+    }
+
     public boolean isEmpty() {
         return !keyIterator().hasNext();
     }
@@ -281,6 +459,50 @@ public class BPFBaseMap<K, V> extends BPFMap implements Iterable<Map.Entry<K, V>
         }
     }
 
+    /**
+     * Iterate over all entries, parsing every value into the passed object if the value type supports it
+     *
+     * @param target object to reuse, see {@link BPFType#parseInto(MemorySegment, Object)},
+     *               only valid during the call of the action
+     */
+    public void forEach(V target, BiConsumer<? super K, ? super V> action) {
+        try (var arena = Arena.ofConfined()) {
+            var keySegment = keyType.allocate(arena);
+            var valueSegment = valueType.allocate(arena);
+            for (Iterator<K> it = keyIterator(); it.hasNext(); ) {
+                K key = it.next();
+                keyType.setMemory(keySegment, key);
+                if (Lib.bpf_map_lookup_elem(fd.fd(), keySegment, valueSegment) == 0) {
+                    action.accept(key, valueType.parseInto(valueSegment, target));
+                }
+            }
+        }
+    }
+
+    /**
+     * Iterate over all entries, without parsing the values
+     * <p>
+     * The value is read into one buffer that is reused for all entries, so the view is only valid
+     * during the call of the action
+     *
+     * @param view   view that is pointed to the value of each entry, e.g. a generated {@code XxxView}
+     * @param action action called with the key and the view
+     */
+    public <W extends StructView<V>> void forEachView(W view, BiConsumer<? super K, ? super W> action) {
+        try (var arena = Arena.ofConfined()) {
+            var keySegment = keyType.allocate(arena);
+            var valueSegment = valueType.allocate(arena);
+            view.wrap(valueSegment);
+            for (Iterator<K> it = keyIterator(); it.hasNext(); ) {
+                K key = it.next();
+                keyType.setMemory(keySegment, key);
+                if (Lib.bpf_map_lookup_elem(fd.fd(), keySegment, valueSegment) == 0) {
+                    action.accept(key, view);
+                }
+            }
+        }
+    }
+
     /**
      * Obtain a pointer to the element in the map with the given key,
      * or {@link Ptr#ofNull()} if the key is not present
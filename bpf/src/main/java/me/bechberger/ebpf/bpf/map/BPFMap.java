@@ -5,9 +5,11 @@ import me.bechberger.ebpf.bpf.raw.Lib;
 import me.bechberger.ebpf.bpf.raw.bpf_attr.task_fd_query;
 import me.bechberger.ebpf.bpf.raw.bpf_map_info;
 import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.BPFType;
 
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.util.List;
 
 /**
  * A map in the eBPF program, will be automatically closed when the process exits
@@ -94,4 +96,12 @@ public class BPFMap {
     public FileDescriptor getFd() {
         return fd;
     }
+
+    /**
+     * Types of the keys, values or events stored in this map, empty if the map stores no typed data
+     * (like file descriptors of programs or sockets)
+     */
+    public List<BPFType<?>> getTypes() {
+        return List.of();
+    }
 }
@@ -0,0 +1,170 @@
+package me.bechberger.ebpf.bpf.map;
+
+import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.BPFMapClass;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.BPFProgram.ProgramHandle;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.bpf.raw.Lib_2;
+import me.bechberger.ebpf.shared.LibC;
+import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.Ptr;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Program array for tail calls, allows to split a program into multiple stages
+ * that are each verified separately
+ * <p>
+ * "A tail call is a mechanism that allows one BPF program to call another, without returning to the
+ * old program." <a href="https://docs.kernel.org/bpf/map_prog_array.html">docs.kernel.org</a>
+ * <p>
+ * Example: {@snippet :
+ *     @BPFMapDefinition(maxEntries = 4)
+ *     BPFProgArray stages;
+ *
+ *     @Override
+ *     public xdp_action xdpHandlePacket(Ptr<xdp_md> ctx) {
+ *         stages.tailCall(ctx, 0);
+ *         // only reached if the tail call failed
+ *         return xdp_action.XDP_PASS;
+ *     }
+ *
+ *     @BPFFunction(section = "xdp")
+ *     @TailCallTarget(map = "stages", index = 0)
+ *     public xdp_action parse(Ptr<xdp_md> ctx) { ... }
+ * }
+ * Programs can be set with {@link #set(int, ProgramHandle)} or via the
+ * {@link me.bechberger.ebpf.annotations.bpf.TailCallTarget} annotation.
+ * Replacing an entry swaps a single stage atomically.
+ */
+@BPFMapClass(
+        cTemplate = """
+        struct {
+            __uint (type, BPF_MAP_TYPE_PROG_ARRAY);
+            __type (key, u32);
+            __type (value, u32);
+            __uint (max_entries, $maxEntries);
+        } $field SEC(".maps");
+        """,
+        javaTemplate = """
+        new $class($fd, $maxEntries)
+        """)
+public class BPFProgArray extends BPFMap {
+
+    private final int size;
+
+    public BPFProgArray(FileDescriptor fd, int size) {
+        super(MapTypeId.PROG_ARRAY, fd);
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index +
+                    " is out of bounds of program array with size " + size);
+        }
+    }
+
+    /**
+     * Set the program at the given index, replacing the previous program atomically
+     *
+     * @param index index in the array
+     * @param program program to call, has to have the same program type as the caller
+     * @throws BPFBaseMap.BPFHashMapError if the program could not be set
+     */
+    public void set(int index, ProgramHandle program) {
+        checkIndex(index);
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, index);
+            var value = PanamaUtil.allocateIntRef(arena, Lib.bpf_program__fd(program.prog()));
+            var ret = Lib.bpf_map_update_elem(fd.fd(), key, value, Lib_2.BPF_ANY());
+            if (ret != 0) {
+                throw new BPFBaseMap.BPFHashMapError("Failed to set program " + program.name() +
+                        " at index " + index, -ret);
+            }
+        }
+    }
+
+    /**
+     * Set the program with the given id at the given index, e.g. to restore a previous entry
+     *
+     * @param index index in the array
+     * @param programId id of a loaded program, see {@link #getProgramId(int)}
+     * @throws BPFBaseMap.BPFHashMapError if the program does not exist or could not be set
+     */
+    public void setById(int index, int programId) {
+        checkIndex(index);
+        int programFd = Lib.bpf_prog_get_fd_by_id(programId);
+        if (programFd < 0) {
+            throw new BPFBaseMap.BPFHashMapError("Failed to get program with id " + programId, -programFd);
+        }
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, index);
+            var value = PanamaUtil.allocateIntRef(arena, programFd);
+            var ret = Lib.bpf_map_update_elem(fd.fd(), key, value, Lib_2.BPF_ANY());
+            if (ret != 0) {
+                throw new BPFBaseMap.BPFHashMapError("Failed to set program with id " + programId +
+                        " at index " + index, -ret);
+            }
+        } finally {
+            LibC.close(programFd);
+        }
+    }
+
+    /**
+     * Get the id of the program at the given index
+     *
+     * @param index index in the array
+     * @return program id or -1 if there is no program at the index
+     */
+    public int getProgramId(int index) {
+        checkIndex(index);
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, index);
+            var value = PanamaUtil.allocateIntRef(arena, 0);
+            // lookups from user space return the id of the program
+            if (Lib.bpf_map_lookup_elem(fd.fd(), key, value) != 0) {
+                return -1;
+            }
+            return value.get(ValueLayout.JAVA_INT, 0);
+        }
+    }
+
+    /**
+     * Remove the program at the given index, tail calls to this index will fail afterwards
+     *
+     * @param index index in the array
+     * @return true if a program was removed
+     */
+    public boolean remove(int index) {
+        checkIndex(index);
+        try (var arena = Arena.ofConfined()) {
+            return Lib.bpf_map_delete_elem(fd.fd(), PanamaUtil.allocateIntRef(arena, index)) == 0;
+        }
+    }
+
+    /**
+     * Tail call the program at the given index, in eBPF
+     * <p>
+     * The function only returns if the call failed, e.g. because there is no program at the index
+     * or the maximum tail call depth of 33 has been reached.
+     *
+     * @param ctx context of the current program, passed to the called program
+     * @param index index in the array
+     * @return negative error code, as the function only returns on failure
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_tail_call
+     */
+    @BuiltinBPFFunction("bpf_tail_call($arg1, &$this, $arg2)")
+    @NotUsableInJava
+    public long tailCall(Ptr<?> ctx, @Unsigned int index) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
@@ -10,6 +10,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -37,6 +38,15 @@ public abstract class BPFQueueAndStack<V> extends BPFMap {
         this.valueType = valueType;
     }
 
+    public BPFType<V> getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public List<BPFType<?>> getTypes() {
+        return List.of(valueType);
+    }
+
     /**
      * Push a value onto the stack or the back of the queue
      * <p>Usage in ebpf:</p>
@@ -8,7 +8,10 @@ import me.bechberger.ebpf.bpf.BPFError;
 import me.bechberger.ebpf.bpf.raw.Lib;
 import me.bechberger.ebpf.bpf.raw.ring_buffer_sample_fn;
 import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.Columns;
 import me.bechberger.ebpf.type.Ptr;
+import me.bechberger.ebpf.type.StructView;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
@@ -16,6 +19,7 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static java.lang.foreign.ValueLayout.JAVA_INT;
 import static me.bechberger.ebpf.runtime.helpers.BPFHelpers.bpf_ringbuf_reserve;
@@ -78,6 +82,17 @@ public class BPFRingBuffer<E> extends BPFMap {
         void call(E event) throws Throwable;
     }
 
+    /**
+     * Callback that is called with the unparsed memory of a new event
+     */
+    @FunctionalInterface
+    public interface RawEventCallback {
+        /**
+         * Called when a new event is received, the event memory is only valid during the call
+         */
+        void call(MemorySegment event) throws Throwable;
+    }
+
     private final Arena ringArena;
 
     private final BPFType<E> eventType;
@@ -89,6 +104,12 @@ public class BPFRingBuffer<E> extends BPFMap {
 
     private EventCallback<E> callback;
 
+    private @Nullable RawEventCallback rawCallback;
+
+    private @Nullable Columns<E> columns;
+
+    private @Nullable Consumer<Columns<E>> columnsCallback;
+
     /**
      * Error caught while calling the callback
      */
@@ -108,6 +129,22 @@ public class BPFRingBuffer<E> extends BPFMap {
          */
         record CaughtBPFRingBufferCallbackError<E>(Throwable exception, E event) implements CaughtBPFRingBufferError {
         }
+
+        /**
+         * Error caught while calling the raw callback
+         */
+        record CaughtBPFRingBufferRawCallbackError(Throwable exception, MemorySegment data,
+                                                   long len) implements CaughtBPFRingBufferError {
+        }
+
+        /**
+         * Error caught while calling the columns callback
+         *
+         * @param events number of events in the passed columns
+         */
+        record CaughtBPFRingBufferColumnsCallbackError(Throwable exception, int events)
+                implements CaughtBPFRingBufferError {
+        }
     }
 
     private final List<CaughtBPFRingBufferError> caughtErrorsInCallBack = new ArrayList<>();
@@ -144,7 +181,7 @@ public class BPFRingBuffer<E> extends BPFMap {
      * use in combination with {@link BPFRingBuffer#BPFRingBuffer(FileDescriptor, BPFType)}
      */
     public void setCallback(EventCallback<E> callback) {
-        if (this.callback != null) {
+        if (this.callback != null || this.rawCallback != null) {
             throw new IllegalStateException("Callback already set");
         }
         this.callback = callback;
@@ -154,6 +191,80 @@ public class BPFRingBuffer<E> extends BPFMap {
         setCallback((_, event) -> callback.call(event));
     }
 
+    /**
+     * Sets a callback that gets the unparsed event memory, skipping the parsing of the events,
+     * use in combination with {@link BPFRingBuffer#BPFRingBuffer(FileDescriptor, BPFType)}
+     */
+    public void setRawCallback(RawEventCallback rawCallback) {
+        if (this.callback != null || this.rawCallback != null) {
+            throw new IllegalStateException("Callback already set");
+        }
+        this.rawCallback = rawCallback;
+    }
+
+    /**
+     * Sets a callback that gets every event parsed into the passed object, if the event type supports it,
+     * use in combination with {@link BPFRingBuffer#BPFRingBuffer(FileDescriptor, BPFType)}
+     * <p>
+     * The object is reused for all events, so don't keep references to it
+     *
+     * @param target object to reuse, see {@link BPFType#parseInto(MemorySegment, Object)}
+     */
+    public void setCallback(E target, EventCallbackWOBuffer<E> callback) {
+        setRawCallback(event -> callback.call(eventType.parseInto(event, target)));
+    }
+
+    /**
+     * Sets a callback that gets the passed view pointed to each event, instead of a parsed event,
+     * use in combination with {@link BPFRingBuffer#BPFRingBuffer(FileDescriptor, BPFType)}
+     * <p>
+     * The view is reused for all events and is only valid during the call
+     *
+     * @param view view of the event type, e.g. a generated {@code XxxView}
+     */
+    public <W extends StructView<E>> void setViewCallback(W view, EventCallbackWOBuffer<W> callback) {
+        setRawCallback(event -> {
+            view.wrap(event);
+            callback.call(view);
+        });
+    }
+
+    /**
+     * Sets a callback that gets all events of a {@link #consume()} call decoded into the passed columns,
+     * use in combination with {@link BPFRingBuffer#BPFRingBuffer(FileDescriptor, BPFType)}
+     * <p>
+     * The columns are cleared after each call
+     *
+     * @param columns columns of the event type, reused for all calls
+     */
+    public void setColumnsCallback(Columns<E> columns, Consumer<Columns<E>> callback) {
+        setRawCallback(columns::add);
+        this.columns = columns;
+        this.columnsCallback = callback;
+    }
+
+    public BPFType<E> getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public List<BPFType<?>> getTypes() {
+        return List.of(eventType);
+    }
+
+    private void flushColumns() {
+        if (columns == null || columnsCallback == null || columns.size() == 0) {
+            return;
+        }
+        try {
+            columnsCallback.accept(columns);
+        } catch (Throwable e) {
+            addCaughtError(new CaughtBPFRingBufferError.CaughtBPFRingBufferColumnsCallbackError(e, columns.size()));
+        } finally {
+            columns.clear();
+        }
+    }
+
     private static final HandlerWithErrno<MemorySegment> RING_BUFFER_NEW = new HandlerWithErrno<>("ring_buffer__new",
             FunctionDescriptor.of(POINTER, JAVA_INT, POINTER, POINTER, POINTER));
 
@@ -164,6 +275,14 @@ public class BPFRingBuffer<E> extends BPFMap {
 
     private MemorySegment initRingBuffer(FileDescriptor fd, BPFType<E> eventType, EventCallback<E> callback) {
         ring_buffer_sample_fn.Function sample = (ctx, data, len) -> {
+            if (rawCallback != null) {
+                try {
+                    rawCallback.call(data.reinterpret(len));
+                } catch (Throwable e) {
+                    addCaughtError(new CaughtBPFRingBufferError.CaughtBPFRingBufferRawCallbackError(e, data, len));
+                }
+                return 0;
+            }
             E event;
             try {
                 event = eventType.parseMemory(data);
@@ -216,6 +335,7 @@ public class BPFRingBuffer<E> extends BPFMap {
     public ConsumeResult consume() {
         try (Arena arena = Arena.ofConfined()) {
             var ret = ring_buffer__consume.call(arena, rb);
+            flushColumns();
             ConsumeResult res;
             synchronized (caughtErrorsInCallBack) {
                 res = new ConsumeResult(ret.result(), new ArrayList<>(caughtErrorsInCallBack));
@@ -0,0 +1,143 @@
+package me.bechberger.ebpf.bpf.map;
+
+import me.bechberger.ebpf.annotations.bpf.BPFMapClass;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.bpf.raw.Lib_2;
+import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.Ptr;
+
+import java.lang.foreign.Arena;
+import java.util.List;
+import java.util.Objects;
+
+import static me.bechberger.ebpf.runtime.BpfDefinitions.bpf_sock_ops;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_action;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_msg_md;
+
+/**
+ * Hash map of sockets, used to redirect messages between sockets without passing
+ * through the network stack
+ * <p>
+ * Typically keyed by the connection (addresses and ports), so that an <code>sk_msg</code> program
+ * can look up the peer of a local connection:
+ * {@snippet :
+ *     @BPFMapDefinition(maxEntries = 65535)
+ *     BPFSockHash<SockKey> sockets;
+ *
+ *     @Override
+ *     public sk_action skMsgVerdict(Ptr<sk_msg_md> msg) {
+ *         SockKey peer = new SockKey(msg.val().remote_ip4, msg.val().local_ip4, ...);
+ *         sockets.redirectMsgToIngress(msg, peer);
+ *         return sk_action.SK_PASS;
+ *     }
+ * }
+ * See <a href="https://docs.kernel.org/bpf/map_sockmap.html">docs.kernel.org</a>
+ * @param <K> key type
+ */
+@BPFMapClass(
+        cTemplate = """
+        struct {
+            __uint (type, BPF_MAP_TYPE_SOCKHASH);
+            __type (key, $c1);
+            __type (value, u32);
+            __uint (max_entries, $maxEntries);
+        } $field SEC(".maps");
+        """,
+        javaTemplate = """
+        new $class<>($fd, $b1)
+        """)
+public class BPFSockHash<K> extends BPFMap {
+
+    private final BPFType<K> keyType;
+
+    public BPFSockHash(FileDescriptor fd, BPFType<K> keyType) {
+        super(MapTypeId.SOCKHASH, fd);
+        this.keyType = keyType;
+    }
+
+    public BPFType<K> getKeyType() {
+        return keyType;
+    }
+
+    @Override
+    public List<BPFType<?>> getTypes() {
+        return List.of(keyType);
+    }
+
+    /**
+     * Add the socket to the map
+     *
+     * @param key      key
+     * @param socketFd file descriptor of a TCP or UDP socket
+     * @throws BPFBaseMap.BPFHashMapError if the socket could not be added
+     */
+    public void put(K key, int socketFd) {
+        try (var arena = Arena.ofConfined()) {
+            var keySegment = keyType.allocate(arena, Objects.requireNonNull(key));
+            var value = PanamaUtil.allocateIntRef(arena, socketFd);
+            var ret = Lib.bpf_map_update_elem(fd.fd(), keySegment, value, Lib_2.BPF_ANY());
+            if (ret != 0) {
+                throw new BPFBaseMap.BPFHashMapError("Failed to add socket for " + key, -ret);
+            }
+        }
+    }
+
+    /**
+     * Remove the socket with the given key
+     *
+     * @return true if a socket was removed
+     */
+    public boolean delete(K key) {
+        try (var arena = Arena.ofConfined()) {
+            var keySegment = keyType.allocate(arena, Objects.requireNonNull(key));
+            return Lib.bpf_map_delete_elem(fd.fd(), keySegment) == 0;
+        }
+    }
+
+    /**
+     * Add the socket of a <code>sockops</code> program to the map, in eBPF
+     *
+     * @param ops   sock_ops context
+     * @param key   key
+     * @param flags <code>BPF_ANY</code>, <code>BPF_NOEXIST</code> or <code>BPF_EXIST</code>
+     * @return 0 on success, negative error otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_sock_hash_update
+     */
+    @BuiltinBPFFunction("bpf_sock_hash_update($arg1, &$this, $pointery$arg2, $arg3)")
+    @NotUsableInJava
+    public long update(Ptr<bpf_sock_ops> ops, K key, long flags) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Redirect the message to the socket with the given key, in eBPF
+     *
+     * @param msg   message
+     * @param key   key of the target socket
+     * @param flags <code>BPF_F_INGRESS</code> to put the message into the receive queue of the target socket,
+     *              0 to send it
+     * @return {@link sk_action#SK_PASS} on success, {@link sk_action#SK_DROP} otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_msg_redirect_hash
+     */
+    @BuiltinBPFFunction("bpf_msg_redirect_hash($arg1, &$this, $pointery$arg2, $arg3)")
+    @NotUsableInJava
+    public sk_action redirectMsg(Ptr<sk_msg_md> msg, K key, long flags) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Deliver the message directly into the receive queue of the socket with the given key, in eBPF,
+     * skipping the TCP/IP stack, used to short-circuit connections on the same host
+     *
+     * @see #redirectMsg(Ptr, Object, long)
+     */
+    @BuiltinBPFFunction("bpf_msg_redirect_hash($arg1, &$this, $pointery$arg2, BPF_F_INGRESS)")
+    @NotUsableInJava
+    public sk_action redirectMsgToIngress(Ptr<sk_msg_md> msg, K key) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
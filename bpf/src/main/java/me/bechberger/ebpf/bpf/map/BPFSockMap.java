@@ -0,0 +1,114 @@
+package me.bechberger.ebpf.bpf.map;
+
+import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.BPFMapClass;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.bpf.raw.Lib_2;
+import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.Ptr;
+
+import java.lang.foreign.Arena;
+
+import static me.bechberger.ebpf.runtime.BpfDefinitions.bpf_sock_ops;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_action;
+import static me.bechberger.ebpf.runtime.SkDefinitions.sk_msg_md;
+
+/**
+ * Array of sockets, used to redirect messages between sockets without passing
+ * through the network stack, see {@link BPFSockHash} for a version with arbitrary keys
+ * <p>
+ * Sockets are added in Java via their file descriptor or in eBPF from a <code>sockops</code>
+ * program via {@link #update(Ptr, int, long)}.
+ * See <a href="https://docs.kernel.org/bpf/map_sockmap.html">docs.kernel.org</a>
+ */
+@BPFMapClass(
+        cTemplate = """
+        struct {
+            __uint (type, BPF_MAP_TYPE_SOCKMAP);
+            __type (key, u32);
+            __type (value, u32);
+            __uint (max_entries, $maxEntries);
+        } $field SEC(".maps");
+        """,
+        javaTemplate = """
+        new $class($fd, $maxEntries)
+        """)
+public class BPFSockMap extends BPFMap {
+
+    private final int size;
+
+    public BPFSockMap(FileDescriptor fd, int size) {
+        super(MapTypeId.SOCKMAP, fd);
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add the socket to the map
+     *
+     * @param index    index
+     * @param socketFd file descriptor of a TCP or UDP socket
+     * @throws BPFBaseMap.BPFHashMapError if the socket could not be set
+     */
+    public void set(int index, int socketFd) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " is out of bounds of map with size " + size);
+        }
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, index);
+            var value = PanamaUtil.allocateIntRef(arena, socketFd);
+            var ret = Lib.bpf_map_update_elem(fd.fd(), key, value, Lib_2.BPF_ANY());
+            if (ret != 0) {
+                throw new BPFBaseMap.BPFHashMapError("Failed to set socket at index " + index, -ret);
+            }
+        }
+    }
+
+    /**
+     * Remove the socket at the given index
+     *
+     * @return true if a socket was removed
+     */
+    public boolean remove(int index) {
+        try (var arena = Arena.ofConfined()) {
+            return Lib.bpf_map_delete_elem(fd.fd(), PanamaUtil.allocateIntRef(arena, index)) == 0;
+        }
+    }
+
+    /**
+     * Add the socket of a <code>sockops</code> program to the map, in eBPF
+     *
+     * @param ops   sock_ops context
+     * @param index index
+     * @param flags <code>BPF_ANY</code>, <code>BPF_NOEXIST</code> or <code>BPF_EXIST</code>
+     * @return 0 on success, negative error otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_sock_map_update
+     */
+    @BuiltinBPFFunction("bpf_sock_map_update($arg1, &$this, $pointery$arg2, $arg3)")
+    @NotUsableInJava
+    public long update(Ptr<bpf_sock_ops> ops, @Unsigned int index, long flags) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Redirect the message to the socket at the index, in eBPF
+     *
+     * @param msg   message
+     * @param index index of the target socket
+     * @param flags <code>BPF_F_INGRESS</code> to put the message into the receive queue of the target socket,
+     *              0 to send it
+     * @return {@link sk_action#SK_PASS} on success, {@link sk_action#SK_DROP} otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_msg_redirect_map
+     */
+    @BuiltinBPFFunction("bpf_msg_redirect_map($arg1, &$this, $arg2, $arg3)")
+    @NotUsableInJava
+    public sk_action redirectMsg(Ptr<sk_msg_md> msg, @Unsigned int index, long flags) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
@@ -0,0 +1,137 @@
+package me.bechberger.ebpf.bpf.map;
+
+import me.bechberger.ebpf.annotations.bpf.BPFMapClass;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.Ptr;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Map of stack traces, deduplicated by the kernel, stores the instruction pointers of each stack
+ * under a stack id
+ * <p>
+ * Obtain the stack id in eBPF via {@link #getUserStackId(Ptr)} or {@link #getKernelStackId(Ptr)}, store it in
+ * another map and resolve the addresses in Java via {@link #getStack(int)}:
+ * {@snippet :
+ *     @BPFMapDefinition(maxEntries = 16384)
+ *     BPFStackTraceMap stacks;
+ *
+ *     int stackId = stacks.getUserStackId(ctx);
+ * }
+ * See <a href="https://docs.kernel.org/bpf/map_stack_trace.html">docs.kernel.org</a>
+ */
+@BPFMapClass(
+        cTemplate = """
+        struct {
+            __uint (type, BPF_MAP_TYPE_STACK_TRACE);
+            __uint (key_size, sizeof(u32));
+            __uint (value_size, 127 * sizeof(u64));
+            __uint (max_entries, $maxEntries);
+        } $field SEC(".maps");
+        """,
+        javaTemplate = """
+        new $class($fd, $maxEntries)
+        """)
+public class BPFStackTraceMap extends BPFMap {
+
+    /**
+     * Maximum number of frames per stack, <code>PERF_MAX_STACK_DEPTH</code> in the kernel
+     */
+    public static final int MAX_STACK_DEPTH = 127;
+
+    /**
+     * Flag for {@link #getStackId(Ptr, long)} to obtain the user stack
+     */
+    public static final long BPF_F_USER_STACK = 1 << 8;
+
+    private final int size;
+
+    public BPFStackTraceMap(FileDescriptor fd, int size) {
+        super(MapTypeId.STACK_TRACE, fd);
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the instruction pointers of a stack, innermost frame first
+     *
+     * @param stackId stack id, negative ids are errors of <code>bpf_get_stackid</code>
+     * @return addresses or null if there is no stack with this id
+     */
+    public long @Nullable [] getStack(int stackId) {
+        if (stackId < 0) {
+            return null;
+        }
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, stackId);
+            var value = arena.allocate(JAVA_LONG, MAX_STACK_DEPTH);
+            if (Lib.bpf_map_lookup_elem(fd.fd(), key, value) != 0) {
+                return null;
+            }
+            long[] frames = value.toArray(JAVA_LONG);
+            int depth = 0;
+            while (depth < frames.length && frames[depth] != 0) {
+                depth++;
+            }
+            return Arrays.copyOf(frames, depth);
+        }
+    }
+
+    /**
+     * Remove a stack
+     *
+     * @return true if the stack was removed
+     */
+    public boolean delete(int stackId) {
+        try (var arena = Arena.ofConfined()) {
+            return Lib.bpf_map_delete_elem(fd.fd(), PanamaUtil.allocateIntRef(arena, stackId)) == 0;
+        }
+    }
+
+    /**
+     * Store the current stack and get its id, in eBPF
+     *
+     * @param ctx   context of the program
+     * @param flags e.g. {@link #BPF_F_USER_STACK}
+     * @return stack id or negative error
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_get_stackid
+     */
+    @BuiltinBPFFunction("bpf_get_stackid($arg1, &$this, $arg2)")
+    @NotUsableInJava
+    public int getStackId(Ptr<?> ctx, long flags) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Store the current user stack and get its id, in eBPF
+     *
+     * @see #getStackId(Ptr, long)
+     */
+    @BuiltinBPFFunction("bpf_get_stackid($arg1, &$this, BPF_F_USER_STACK)")
+    @NotUsableInJava
+    public int getUserStackId(Ptr<?> ctx) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Store the current kernel stack and get its id, in eBPF
+     *
+     * @see #getStackId(Ptr, long)
+     */
+    @BuiltinBPFFunction("bpf_get_stackid($arg1, &$this, 0)")
+    @NotUsableInJava
+    public int getKernelStackId(Ptr<?> ctx) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
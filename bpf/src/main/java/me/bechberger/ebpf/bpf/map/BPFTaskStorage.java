@@ -0,0 +1,198 @@
+package me.bechberger.ebpf.bpf.map;
+
+import me.bechberger.ebpf.annotations.bpf.BPFMapClass;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.BPFError;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.bpf.raw.Lib_2;
+import me.bechberger.ebpf.shared.LibC;
+import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.Ptr;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.List;
+import java.util.Objects;
+
+import static me.bechberger.ebpf.runtime.TaskDefinitions.task_struct;
+
+/**
+ * Task-local storage, stores one value per task (thread) that is freed when the task exits
+ * <p>
+ * In contrast to a hash map keyed by the pid, accessing the value of a task doesn't require a hash lookup
+ * and entries can't be evicted. The map has no size, use {@code maxEntries = 0}:
+ * {@snippet :
+ *     @BPFMapDefinition(maxEntries = 0)
+ *     BPFTaskStorage<@Unsigned Long> enqueues;
+ *
+ *     @Override
+ *     public void enqueue(Ptr<task_struct> p, long enq_flags) {
+ *         Ptr<Long> count = enqueues.bpf_getOrCreate(p);
+ *         if (count != null) {
+ *             count.set(count.val() + 1);
+ *         }
+ *     }
+ * }
+ * In Java, values are accessed via a pidfd of the task, see {@link #getForPid(int)}.
+ * See <a href="https://docs.kernel.org/bpf/map_sk_storage.html">docs.kernel.org</a>
+ * for the similar socket-local storage
+ * @param <V> value type
+ */
+@BPFMapClass(
+        cTemplate = """
+        struct {
+            __uint (type, BPF_MAP_TYPE_TASK_STORAGE);
+            __uint (map_flags, BPF_F_NO_PREALLOC);
+            __type (key, int);
+            __type (value, $c1);
+        } $field SEC(".maps");
+        """,
+        javaTemplate = """
+        new $class<>($fd, $b1)
+        """)
+public class BPFTaskStorage<V> extends BPFMap {
+
+    private final BPFType<V> valueType;
+
+    public BPFTaskStorage(FileDescriptor fd, BPFType<V> valueType) {
+        super(MapTypeId.TASK_STORAGE, fd);
+        this.valueType = valueType;
+    }
+
+    public BPFType<V> getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public List<BPFType<?>> getTypes() {
+        return List.of(valueType);
+    }
+
+    /**
+     * Get the value of a task
+     *
+     * @param pidfd pidfd of the task
+     * @return value or null if the task has no value
+     */
+    public @Nullable V get(int pidfd) {
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, pidfd);
+            var valueSegment = valueType.allocate(arena);
+            var ret = Lib.bpf_map_lookup_elem(fd.fd(), key, valueSegment);
+            if (ret != 0) {
+                return null;
+            }
+            return valueType.parseMemory(valueSegment);
+        }
+    }
+
+    /**
+     * Set the value of a task
+     *
+     * @param pidfd pidfd of the task
+     * @param value value
+     * @return success?
+     */
+    public boolean put(int pidfd, V value) {
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, pidfd);
+            var valueSegment = valueType.allocate(arena, Objects.requireNonNull(value));
+            return Lib.bpf_map_update_elem(fd.fd(), key, valueSegment, Lib_2.BPF_ANY()) == 0;
+        }
+    }
+
+    /**
+     * Delete the value of a task
+     *
+     * @param pidfd pidfd of the task
+     * @return false on error, e.g. if the task has no value
+     */
+    public boolean delete(int pidfd) {
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, pidfd);
+            return Lib.bpf_map_delete_elem(fd.fd(), key) == 0;
+        }
+    }
+
+    /**
+     * Get the value of the task with the passed pid, opens a temporary pidfd
+     *
+     * @param pid pid (thread id) of the task
+     * @return value or null if the task has no value
+     * @throws BPFError if the task doesn't exist
+     */
+    public @Nullable V getForPid(int pid) {
+        int pidfd = openPidfd(pid);
+        try {
+            return get(pidfd);
+        } finally {
+            LibC.close(pidfd);
+        }
+    }
+
+    /**
+     * Set the value of the task with the passed pid, opens a temporary pidfd
+     *
+     * @throws BPFError if the task doesn't exist
+     * @see #put(int, Object)
+     */
+    public boolean putForPid(int pid, V value) {
+        int pidfd = openPidfd(pid);
+        try {
+            return put(pidfd, value);
+        } finally {
+            LibC.close(pidfd);
+        }
+    }
+
+    private static int openPidfd(int pid) {
+        var ret = LibC.pidfdOpen(pid, 0);
+        if (ret.result() < 0) {
+            throw new BPFError("Failed to open pidfd for " + pid, ret.err());
+        }
+        return ret.result();
+    }
+
+    /**
+     * Get a pointer to the value of the task, in eBPF
+     *
+     * @param task task
+     * @return pointer to the value or {@link Ptr#ofNull()} if the task has no value
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_task_storage_get
+     */
+    @BuiltinBPFFunction("bpf_task_storage_get(&$this, $arg1, NULL, 0)")
+    @NotUsableInJava
+    public Ptr<V> bpf_get(Ptr<task_struct> task) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Get a pointer to the value of the task and create a zero-initialized value
+     * if the task has none yet, in eBPF
+     *
+     * @param task task
+     * @return pointer to the value or {@link Ptr#ofNull()} if the value could not be created
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_task_storage_get
+     */
+    @BuiltinBPFFunction("bpf_task_storage_get(&$this, $arg1, NULL, BPF_LOCAL_STORAGE_GET_F_CREATE)")
+    @NotUsableInJava
+    public Ptr<V> bpf_getOrCreate(Ptr<task_struct> task) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Delete the value of the task, in eBPF
+     *
+     * @param task task
+     * @return 0 on success, negative error otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_task_storage_delete
+     */
+    @BuiltinBPFFunction("bpf_task_storage_delete(&$this, $arg1)")
+    @NotUsableInJava
+    public long bpf_delete(Ptr<task_struct> task) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
@@ -0,0 +1,126 @@
+package me.bechberger.ebpf.bpf.map;
+
+import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.BPFMapClass;
+import me.bechberger.ebpf.annotations.bpf.BuiltinBPFFunction;
+import me.bechberger.ebpf.annotations.bpf.MethodIsBPFRelatedFunction;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
+import me.bechberger.ebpf.bpf.raw.Lib;
+import me.bechberger.ebpf.bpf.raw.Lib_2;
+import me.bechberger.ebpf.bpf.xdp.XDPSocket;
+import me.bechberger.ebpf.runtime.XdpDefinitions.xdp_action;
+import me.bechberger.ebpf.runtime.XdpDefinitions.xdp_md;
+import me.bechberger.ebpf.shared.PanamaUtil;
+import me.bechberger.ebpf.type.Ptr;
+
+import java.lang.foreign.Arena;
+
+/**
+ * Map of AF_XDP sockets ({@link XDPSocket}), indexed by the receive queue, used to redirect
+ * packets from an XDP program to user space
+ * <p>
+ * Example: {@snippet :
+ *     @BPFMapDefinition(maxEntries = 64)
+ *     BPFXskMap xsks;
+ *
+ *     @Override
+ *     public xdp_action xdpHandlePacket(Ptr<xdp_md> ctx) {
+ *         return xsks.redirectToQueueSocket(ctx);
+ *     }
+ * }
+ * See <a href="https://docs.kernel.org/bpf/map_xskmap.html">docs.kernel.org</a>
+ */
+@BPFMapClass(
+        cTemplate = """
+        struct {
+            __uint (type, BPF_MAP_TYPE_XSKMAP);
+            __type (key, u32);
+            __type (value, u32);
+            __uint (max_entries, $maxEntries);
+        } $field SEC(".maps");
+        """,
+        javaTemplate = """
+        new $class($fd, $maxEntries)
+        """)
+public class BPFXskMap extends BPFMap {
+
+    private final int size;
+
+    public BPFXskMap(FileDescriptor fd, int size) {
+        super(MapTypeId.XSKMAP, fd);
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Register the socket for its queue, so that packets can be redirected to it
+     *
+     * @param index index, usually the queue id of the socket
+     * @param socket socket
+     * @throws BPFBaseMap.BPFHashMapError if the socket could not be set
+     */
+    public void set(int index, XDPSocket socket) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " is out of bounds of map with size " + size);
+        }
+        try (var arena = Arena.ofConfined()) {
+            var key = PanamaUtil.allocateIntRef(arena, index);
+            var value = PanamaUtil.allocateIntRef(arena, socket.getFd());
+            var ret = Lib.bpf_map_update_elem(fd.fd(), key, value, Lib_2.BPF_ANY());
+            if (ret != 0) {
+                throw new BPFBaseMap.BPFHashMapError("Failed to set socket at index " + index, -ret);
+            }
+        }
+    }
+
+    /**
+     * Register the socket at the index of its queue
+     */
+    public void set(XDPSocket socket) {
+        set(socket.getQueueId(), socket);
+    }
+
+    /**
+     * Remove the socket at the given index
+     *
+     * @return true if a socket was removed
+     */
+    public boolean remove(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " is out of bounds of map with size " + size);
+        }
+        try (var arena = Arena.ofConfined()) {
+            return Lib.bpf_map_delete_elem(fd.fd(), PanamaUtil.allocateIntRef(arena, index)) == 0;
+        }
+    }
+
+    /**
+     * Redirect the packet to the socket at the given index, in eBPF
+     *
+     * @param index index of the socket
+     * @param fallback action if there is no socket at the index, e.g. {@link xdp_action#XDP_PASS}
+     * @return {@link xdp_action#XDP_REDIRECT} on success, the fallback otherwise
+     * @see me.bechberger.ebpf.runtime.helpers.BPFHelpers#bpf_redirect_map
+     */
+    @BuiltinBPFFunction("bpf_redirect_map(&$this, $arg1, $arg2)")
+    @NotUsableInJava
+    public xdp_action redirect(@Unsigned int index, xdp_action fallback) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+
+    /**
+     * Redirect the packet to the socket registered for the receive queue of the packet, in eBPF,
+     * passing it to the network stack if there is no such socket
+     *
+     * @param ctx XDP context
+     * @return {@link xdp_action#XDP_REDIRECT} on success, {@link xdp_action#XDP_PASS} otherwise
+     */
+    @BuiltinBPFFunction("bpf_redirect_map(&$this, $arg1->rx_queue_index, XDP_PASS)")
+    @NotUsableInJava
+    public xdp_action redirectToQueueSocket(Ptr<xdp_md> ctx) {
+        throw new MethodIsBPFRelatedFunction();
+    }
+}
@@ -0,0 +1,141 @@
+package me.bechberger.ebpf.bpf.xdp;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/**
+ * Packet buffer memory (UMEM) of an {@link XDPSocket}, split into frames of equal size
+ * <p>
+ * The kernel writes received packets directly into the frames and reads packets to send
+ * from them, so packets are never copied between kernel and the JVM.
+ * Frames are identified by their offset (address) in the UMEM.
+ */
+public class Umem implements AutoCloseable {
+
+    /** Default frame size, one page */
+    public static final int DEFAULT_FRAME_SIZE = 4096;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private final Arena arena;
+    private final MemorySegment memory;
+    private final int frameCount;
+    private final int frameSize;
+    private final int headroom;
+
+    /** Stack of unused frame addresses */
+    private final long[] freeFrames;
+    private int freeFrameCount;
+    /** Whether the frame with the given index is on the {@link #freeFrames} stack */
+    private final boolean[] isFree;
+
+    /**
+     * Allocate a page aligned UMEM
+     *
+     * @param frameCount number of frames
+     * @param frameSize  size of each frame, either 2048 or 4096 (with a power of two for older kernels)
+     * @param headroom   space reserved in front of each packet
+     */
+    public Umem(int frameCount, int frameSize, int headroom) {
+        this.arena = Arena.ofShared();
+        this.memory = arena.allocate((long) frameCount * frameSize, PAGE_SIZE);
+        this.frameCount = frameCount;
+        this.frameSize = frameSize;
+        this.headroom = headroom;
+        this.freeFrames = new long[frameCount];
+        this.isFree = new boolean[frameCount];
+        Arrays.fill(isFree, true);
+        for (int i = 0; i < frameCount; i++) {
+            freeFrames[i] = (long) (frameCount - 1 - i) * frameSize;
+        }
+        this.freeFrameCount = frameCount;
+    }
+
+    /**
+     * Allocate a UMEM with default frame size and no headroom
+     */
+    public Umem(int frameCount) {
+        this(frameCount, DEFAULT_FRAME_SIZE, 0);
+    }
+
+    public MemorySegment memory() {
+        return memory;
+    }
+
+    public int frameCount() {
+        return frameCount;
+    }
+
+    public int frameSize() {
+        return frameSize;
+    }
+
+    public int headroom() {
+        return headroom;
+    }
+
+    /**
+     * Get the packet data at the given address, without copying
+     *
+     * @param address address of the packet as stored in a ring descriptor
+     * @param length  length of the packet
+     */
+    public MemorySegment packet(long address, int length) {
+        return memory.asSlice(address, length);
+    }
+
+    /**
+     * Does the packet lie within a single frame of this UMEM?
+     *
+     * @param address address of the packet as stored in a ring descriptor
+     * @param length  length of the packet
+     */
+    boolean isInFrame(long address, int length) {
+        return address >= 0 && length >= 0 && address < memory.byteSize() &&
+                address % frameSize + length <= frameSize;
+    }
+
+    /**
+     * Take an unused frame
+     *
+     * @return address of the frame or -1 if all frames are in use
+     */
+    long allocateFrame() {
+        if (freeFrameCount == 0) {
+            return -1;
+        }
+        long address = freeFrames[--freeFrameCount];
+        isFree[(int) (address / frameSize)] = false;
+        return address;
+    }
+
+    /**
+     * Return a frame, the address can point anywhere into the frame
+     *
+     * @throws IllegalArgumentException if the address lies outside the UMEM
+     * @throws IllegalStateException    if the frame is already free
+     */
+    void freeFrame(long address) {
+        if (address < 0 || address >= memory.byteSize()) {
+            throw new IllegalArgumentException("Address " + address + " is outside the UMEM");
+        }
+        int frame = (int) (address / frameSize);
+        if (isFree[frame]) {
+            throw new IllegalStateException("Frame " + frame + " is already free");
+        }
+        // every frame is at most once on the stack, so it can't overflow
+        isFree[frame] = true;
+        freeFrames[freeFrameCount++] = (long) frame * frameSize;
+    }
+
+    /** Number of unused frames */
+    int freeFrameCount() {
+        return freeFrameCount;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,173 @@
+package me.bechberger.ebpf.bpf.xdp;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Single producer single consumer ring shared with the kernel, mapped into the JVM
+ * <p>
+ * Mirrors the ring handling of libxdp's <code>xsk.h</code>: the producer and consumer indexes
+ * are cached and only synchronized with the kernel when the cached values are insufficient.
+ */
+class XDPRing {
+
+    private static final VarHandle INT_HANDLE = JAVA_INT.varHandle();
+
+    /** Size of an address entry in the fill and completion ring */
+    static final int ADDRESS_ENTRY_SIZE = 8;
+
+    /** Size of a struct xdp_desc entry in the RX and TX ring */
+    static final int DESCRIPTOR_ENTRY_SIZE = 16;
+
+    private static final int XDP_RING_NEED_WAKEUP = 1;
+
+    private final MemorySegment mapping;
+    private final MemorySegment producer;
+    private final MemorySegment consumer;
+    private final MemorySegment flags;
+    private final MemorySegment entries;
+    private final int size;
+    private final int mask;
+    private int cachedProducer;
+    private int cachedConsumer;
+
+    /**
+     * @param mapping        mapped ring memory
+     * @param producerOffset offset of the producer index
+     * @param consumerOffset offset of the consumer index
+     * @param descOffset     offset of the entries
+     * @param flagsOffset    offset of the flags
+     * @param size           number of entries, power of two
+     * @param entrySize      size of each entry
+     * @param isProducer     whether user space produces entries (fill and TX ring)
+     */
+    XDPRing(MemorySegment mapping, long producerOffset, long consumerOffset, long descOffset, long flagsOffset,
+            int size, int entrySize, boolean isProducer) {
+        this.mapping = mapping;
+        this.producer = mapping.asSlice(producerOffset, 4);
+        this.consumer = mapping.asSlice(consumerOffset, 4);
+        this.flags = mapping.asSlice(flagsOffset, 4);
+        this.entries = mapping.asSlice(descOffset, (long) size * entrySize);
+        this.size = size;
+        this.mask = size - 1;
+        this.cachedProducer = getProducer();
+        this.cachedConsumer = getConsumer();
+        if (isProducer) {
+            // the consumer index is cached with an offset of the ring size, so that the number of free
+            // entries is just the difference of both indexes
+            this.cachedConsumer += size;
+        }
+    }
+
+    MemorySegment mapping() {
+        return mapping;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int getProducer() {
+        return (int) INT_HANDLE.getAcquire(producer, 0L);
+    }
+
+    private int getConsumer() {
+        return (int) INT_HANDLE.getAcquire(consumer, 0L);
+    }
+
+    boolean needsWakeup() {
+        return ((int) INT_HANDLE.getVolatile(flags, 0L) & XDP_RING_NEED_WAKEUP) != 0;
+    }
+
+    /**
+     * Number of free entries for the producer, at most {@code wanted}
+     */
+    int freeEntries(int wanted) {
+        int free = cachedConsumer - cachedProducer;
+        if (free >= wanted) {
+            return wanted;
+        }
+        cachedConsumer = getConsumer() + size;
+        return Math.min(cachedConsumer - cachedProducer, wanted);
+    }
+
+    /**
+     * Reserve entries for producing
+     *
+     * @return index of the first reserved entry, or -1 if there is not enough space
+     */
+    int reserve(int count) {
+        if (freeEntries(count) < count) {
+            return -1;
+        }
+        int index = cachedProducer;
+        cachedProducer += count;
+        return index;
+    }
+
+    /**
+     * Make the reserved entries visible to the kernel
+     */
+    void submit() {
+        INT_HANDLE.setRelease(producer, 0L, cachedProducer);
+    }
+
+    /**
+     * Number of available entries for the consumer, at most {@code wanted}
+     */
+    int availableEntries(int wanted) {
+        int available = cachedProducer - cachedConsumer;
+        if (available == 0) {
+            cachedProducer = getProducer();
+            available = cachedProducer - cachedConsumer;
+        }
+        return Math.min(available, wanted);
+    }
+
+    /**
+     * Peek at up to {@code count} available entries
+     *
+     * @return number of entries, starting at {@link #consumerIndex()}
+     */
+    int peek(int count) {
+        return availableEntries(count);
+    }
+
+    int consumerIndex() {
+        return cachedConsumer;
+    }
+
+    /**
+     * Release consumed entries back to the kernel
+     */
+    void release(int count) {
+        cachedConsumer += count;
+        INT_HANDLE.setRelease(consumer, 0L, cachedConsumer);
+    }
+
+    long getAddress(int index) {
+        return entries.getAtIndex(JAVA_LONG, index & mask);
+    }
+
+    void setAddress(int index, long address) {
+        entries.setAtIndex(JAVA_LONG, index & mask, address);
+    }
+
+    long getDescriptorAddress(int index) {
+        return entries.get(JAVA_LONG, (long) (index & mask) * DESCRIPTOR_ENTRY_SIZE);
+    }
+
+    int getDescriptorLength(int index) {
+        return entries.get(JAVA_INT, (long) (index & mask) * DESCRIPTOR_ENTRY_SIZE + 8);
+    }
+
+    void setDescriptor(int index, long address, int length) {
+        long offset = (long) (index & mask) * DESCRIPTOR_ENTRY_SIZE;
+        entries.set(JAVA_LONG, offset, address);
+        entries.set(JAVA_INT, offset + 8, length);
+        entries.set(JAVA_INT, offset + 12, 0);
+    }
+}
@@ -0,0 +1,381 @@
+package me.bechberger.ebpf.bpf.xdp;
+
+import me.bechberger.ebpf.bpf.BPFError;
+import me.bechberger.ebpf.bpf.map.BPFXskMap;
+import me.bechberger.ebpf.shared.LibC;
+import me.bechberger.ebpf.shared.PanamaUtil;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * AF_XDP socket that receives packets redirected by an XDP program via a {@link BPFXskMap}
+ * and sends packets, directly from and to the {@link Umem}
+ * <p>
+ * Example: {@snippet :
+ *    try (var umem = new Umem(4096);
+ *         var socket = XDPSocket.open(ifindex, 0, umem, 2048, false)) {
+ *        program.xsks.set(0, socket);
+ *        while (true) {
+ *            socket.receive(64, packet -> {
+ *                // process the packet in place
+ *                return XDPSocket.PacketHandler.DROP;
+ *            });
+ *        }
+ *    }
+ * }
+ * The socket is not thread-safe, use one socket per queue and thread.
+ */
+public class XDPSocket implements AutoCloseable {
+
+    private static final int AF_XDP = 44;
+    private static final int SOCK_RAW = 3;
+    private static final int SOL_XDP = 283;
+
+    private static final int XDP_MMAP_OFFSETS = 1;
+    private static final int XDP_RX_RING = 2;
+    private static final int XDP_TX_RING = 3;
+    private static final int XDP_UMEM_REG = 4;
+    private static final int XDP_UMEM_FILL_RING = 5;
+    private static final int XDP_UMEM_COMPLETION_RING = 6;
+
+    private static final int XDP_COPY = 1 << 1;
+    private static final int XDP_ZEROCOPY = 1 << 2;
+    private static final int XDP_USE_NEED_WAKEUP = 1 << 3;
+
+    private static final long XDP_PGOFF_RX_RING = 0;
+    private static final long XDP_PGOFF_TX_RING = 0x80000000L;
+    private static final long XDP_UMEM_PGOFF_FILL_RING = 0x100000000L;
+    private static final long XDP_UMEM_PGOFF_COMPLETION_RING = 0x180000000L;
+
+    private static final int ERRNO_EBUSY = 16;
+    private static final int ERRNO_ENOBUFS = 105;
+
+    /** Size of struct xdp_ring_offset: producer, consumer, desc, flags */
+    private static final int RING_OFFSET_SIZE = 4 * 8;
+
+    /**
+     * Handles a received packet
+     */
+    @FunctionalInterface
+    public interface PacketHandler {
+
+        /** Return value for dropping the packet and reusing its frame */
+        int DROP = -1;
+
+        /**
+         * Handle the packet, which can be modified in place
+         *
+         * @param packet packet data, only valid during the call
+         * @return {@link #DROP} or the length of the (modified) packet to send it back out of the interface
+         */
+        int handle(MemorySegment packet);
+    }
+
+    /**
+     * Thrown when an AF_XDP socket operation fails
+     */
+    public static class XDPSocketError extends BPFError {
+        public XDPSocketError(String message, int errorCode) {
+            super(message, errorCode);
+        }
+
+        public XDPSocketError(String message) {
+            super(message);
+        }
+    }
+
+    private final int fd;
+    private final int ifindex;
+    private final int queueId;
+    private final Umem umem;
+    private final boolean zeroCopy;
+    private final XDPRing fillRing;
+    private final XDPRing completionRing;
+    private final XDPRing rxRing;
+    private final XDPRing txRing;
+    private int outstandingTx = 0;
+    private boolean closed = false;
+
+    private XDPSocket(int fd, int ifindex, int queueId, Umem umem, boolean zeroCopy, XDPRing fillRing,
+                      XDPRing completionRing, XDPRing rxRing, XDPRing txRing) {
+        this.fd = fd;
+        this.ifindex = ifindex;
+        this.queueId = queueId;
+        this.umem = umem;
+        this.zeroCopy = zeroCopy;
+        this.fillRing = fillRing;
+        this.completionRing = completionRing;
+        this.rxRing = rxRing;
+        this.txRing = txRing;
+    }
+
+    /**
+     * Open an AF_XDP socket bound to a queue of a network interface
+     *
+     * @param ifindex         network interface index
+     * @param queueId         queue of the interface, packets are only received from this queue
+     * @param umem            packet memory, used exclusively by this socket
+     * @param ringSize        number of entries in each ring, power of two
+     * @param requireZeroCopy fail if the driver doesn't support zero-copy mode instead of copying,
+     *                        only <code>EOPNOTSUPP</code> and <code>EINVAL</code> lead to the copy mode,
+     *                        all other errors are thrown
+     * @return bound socket, add it to a {@link BPFXskMap} to receive packets
+     * @throws XDPSocketError if creating the socket failed
+     */
+    public static XDPSocket open(int ifindex, int queueId, Umem umem, int ringSize, boolean requireZeroCopy) {
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two");
+        }
+        var socket = LibC.socket(AF_XDP, SOCK_RAW, 0);
+        if (socket.result() < 0) {
+            throw new XDPSocketError("Failed to create AF_XDP socket", socket.err());
+        }
+        int fd = socket.result();
+        List<XDPRing> mappedRings = new ArrayList<>();
+        try (var arena = Arena.ofConfined()) {
+            // struct xdp_umem_reg
+            var umemReg = arena.allocate(32);
+            umemReg.fill((byte) 0);
+            umemReg.set(JAVA_LONG, 0, umem.memory().address());
+            umemReg.set(JAVA_LONG, 8, umem.memory().byteSize());
+            umemReg.set(JAVA_INT, 16, umem.frameSize());
+            umemReg.set(JAVA_INT, 20, umem.headroom());
+            check(fd, LibC.setsockopt(fd, SOL_XDP, XDP_UMEM_REG, umemReg), "register UMEM");
+            for (int option : List.of(XDP_UMEM_FILL_RING, XDP_UMEM_COMPLETION_RING, XDP_RX_RING, XDP_TX_RING)) {
+                check(fd, LibC.setsockopt(fd, SOL_XDP, option, ringSize), "set ring size");
+            }
+
+            // struct xdp_mmap_offsets {rx, tx, fr, cr}
+            var offsets = arena.allocate(4 * RING_OFFSET_SIZE);
+            check(fd, LibC.getsockopt(fd, SOL_XDP, XDP_MMAP_OFFSETS, offsets), "get mmap offsets");
+            var rxRing = mapRing(fd, offsets, 0, XDP_PGOFF_RX_RING, ringSize, XDPRing.DESCRIPTOR_ENTRY_SIZE, false);
+            mappedRings.add(rxRing);
+            var txRing = mapRing(fd, offsets, 1, XDP_PGOFF_TX_RING, ringSize, XDPRing.DESCRIPTOR_ENTRY_SIZE, true);
+            mappedRings.add(txRing);
+            var fillRing = mapRing(fd, offsets, 2, XDP_UMEM_PGOFF_FILL_RING, ringSize, XDPRing.ADDRESS_ENTRY_SIZE, true);
+            mappedRings.add(fillRing);
+            var completionRing = mapRing(fd, offsets, 3, XDP_UMEM_PGOFF_COMPLETION_RING, ringSize,
+                    XDPRing.ADDRESS_ENTRY_SIZE, false);
+            mappedRings.add(completionRing);
+
+            // struct sockaddr_xdp
+            var address = arena.allocate(16);
+            address.fill((byte) 0);
+            address.set(JAVA_SHORT, 0, (short) AF_XDP);
+            address.set(JAVA_INT, 4, ifindex);
+            address.set(JAVA_INT, 8, queueId);
+            address.set(JAVA_SHORT, 2, (short) (XDP_ZEROCOPY | XDP_USE_NEED_WAKEUP));
+            boolean zeroCopy = true;
+            var bind = LibC.bind(fd, address);
+            // only fall back if the driver doesn't support zero-copy, not e.g. if the queue is in use (EBUSY)
+            if (bind.result() < 0 && !requireZeroCopy &&
+                    (bind.err() == PanamaUtil.ERRNO_EOPNOTSUPP || bind.err() == PanamaUtil.ERRNO_EINVAL)) {
+                address.set(JAVA_SHORT, 2, (short) (XDP_COPY | XDP_USE_NEED_WAKEUP));
+                bind = LibC.bind(fd, address);
+                zeroCopy = false;
+            }
+            check(fd, bind, "bind to interface " + ifindex + " queue " + queueId);
+
+            var xsk = new XDPSocket(fd, ifindex, queueId, umem, zeroCopy, fillRing, completionRing, rxRing, txRing);
+            xsk.refillFillRing();
+            return xsk;
+        } catch (XDPSocketError e) {
+            for (var ring : mappedRings) {
+                LibC.munmap(ring.mapping());
+            }
+            LibC.close(fd);
+            throw e;
+        }
+    }
+
+    private static void check(int fd, PanamaUtil.ResultAndErr<Integer> result, String action) {
+        if (result.result() < 0) {
+            throw new XDPSocketError("Failed to " + action, result.err());
+        }
+    }
+
+    private static XDPRing mapRing(int fd, MemorySegment offsets, int ringIndex, long pageOffset, int ringSize,
+                                   int entrySize, boolean isProducer) {
+        long base = (long) ringIndex * RING_OFFSET_SIZE;
+        long producer = offsets.get(JAVA_LONG, base);
+        long consumer = offsets.get(JAVA_LONG, base + 8);
+        long desc = offsets.get(JAVA_LONG, base + 16);
+        long flags = offsets.get(JAVA_LONG, base + 24);
+        var mapping = LibC.mmap(desc + (long) ringSize * entrySize, LibC.PROT_READ | LibC.PROT_WRITE,
+                LibC.MAP_SHARED | LibC.MAP_POPULATE, fd, pageOffset);
+        if (mapping.result().address() == -1) {
+            throw new XDPSocketError("Failed to map ring", mapping.err());
+        }
+        return new XDPRing(mapping.result(), producer, consumer, desc, flags, ringSize, entrySize, isProducer);
+    }
+
+    /**
+     * Give free frames to the kernel for receiving packets
+     */
+    private void refillFillRing() {
+        int count = fillRing.freeEntries(umem.freeFrameCount());
+        if (count == 0) {
+            return;
+        }
+        int index = fillRing.reserve(count);
+        for (int i = 0; i < count; i++) {
+            fillRing.setAddress(index + i, umem.allocateFrame());
+        }
+        fillRing.submit();
+    }
+
+    /**
+     * Reclaim the frames of sent packets
+     */
+    private void reclaimCompleted() {
+        int count = completionRing.peek(completionRing.size());
+        int index = completionRing.consumerIndex();
+        for (int i = 0; i < count; i++) {
+            umem.freeFrame(completionRing.getAddress(index + i));
+        }
+        completionRing.release(count);
+        outstandingTx -= count;
+    }
+
+    private void kickTx() {
+        if (!txRing.needsWakeup()) {
+            return;
+        }
+        var ret = LibC.sendEmpty(fd, LibC.MSG_DONTWAIT);
+        // these errors only signal that the kernel is still busy with the previous batch
+        if (ret.result() < 0 && ret.err() != PanamaUtil.ERRNO_EAGAIN && ret.err() != ERRNO_EBUSY
+                && ret.err() != ERRNO_ENOBUFS) {
+            throw new XDPSocketError("Failed to wake up TX", ret.err());
+        }
+    }
+
+    /**
+     * Receive and handle a batch of packets
+     *
+     * @param maxBatch maximum number of packets to handle
+     * @param handler  handles each packet, can send it back out by returning its length,
+     *                 packets that would not fit into their frame are dropped
+     * @return number of received packets, including invalid descriptors outside the frames, which are dropped
+     */
+    public int receive(int maxBatch, PacketHandler handler) {
+        reclaimCompleted();
+        int count = rxRing.peek(maxBatch);
+        if (count == 0) {
+            if (fillRing.needsWakeup()) {
+                LibC.receiveEmpty(fd, LibC.MSG_DONTWAIT);
+            }
+            return 0;
+        }
+        int rxIndex = rxRing.consumerIndex();
+        int transmitted = 0;
+        for (int i = 0; i < count; i++) {
+            long address = rxRing.getDescriptorAddress(rxIndex + i);
+            int length = rxRing.getDescriptorLength(rxIndex + i);
+            if (!umem.isInFrame(address, length)) {
+                if (umem.isInFrame(address, 0)) {
+                    umem.freeFrame(address);
+                }
+                continue;
+            }
+            int result = handler.handle(umem.packet(address, length));
+            if (result >= 0 && umem.isInFrame(address, result)) {
+                int txIndex = txRing.reserve(1);
+                if (txIndex >= 0) {
+                    txRing.setDescriptor(txIndex, address, result);
+                    transmitted++;
+                    continue;
+                }
+            }
+            umem.freeFrame(address);
+        }
+        rxRing.release(count);
+        if (transmitted > 0) {
+            outstandingTx += transmitted;
+            txRing.submit();
+            kickTx();
+        }
+        refillFillRing();
+        return count;
+    }
+
+    /**
+     * Send a batch of packets, each packet is copied into a free frame of the UMEM
+     *
+     * @param packets packets, each has to fit into a frame
+     * @return number of packets queued for sending, less than passed if the ring or the UMEM is full
+     */
+    public int send(List<MemorySegment> packets) {
+        reclaimCompleted();
+        int count = Math.min(txRing.freeEntries(packets.size()), umem.freeFrameCount());
+        if (count == 0) {
+            return 0;
+        }
+        int index = txRing.reserve(count);
+        for (int i = 0; i < count; i++) {
+            var packet = packets.get(i);
+            if (packet.byteSize() > umem.frameSize() - umem.headroom()) {
+                throw new IllegalArgumentException("Packet larger than frame");
+            }
+            long address = umem.allocateFrame() + umem.headroom();
+            MemorySegment.copy(packet, 0, umem.memory(), address, packet.byteSize());
+            txRing.setDescriptor(index + i, address, (int) packet.byteSize());
+        }
+        outstandingTx += count;
+        txRing.submit();
+        kickTx();
+        return count;
+    }
+
+    /**
+     * Number of packets queued for sending that the kernel has not completed yet
+     */
+    public int getOutstandingTx() {
+        return outstandingTx;
+    }
+
+    /**
+     * File descriptor of the socket, as stored in a {@link BPFXskMap}
+     */
+    public int getFd() {
+        return fd;
+    }
+
+    public int getIfindex() {
+        return ifindex;
+    }
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+    /**
+     * Whether the driver supports zero-copy, packets are copied into the UMEM by the kernel otherwise
+     */
+    public boolean isZeroCopy() {
+        return zeroCopy;
+    }
+
+    public Umem getUmem() {
+        return umem;
+    }
+
+    /**
+     * Close the socket and unmap the rings, the UMEM has to be closed separately
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (var ring : List.of(rxRing, txRing, fillRing, completionRing)) {
+            LibC.munmap(ring.mapping());
+        }
+        LibC.close(fd);
+    }
+}
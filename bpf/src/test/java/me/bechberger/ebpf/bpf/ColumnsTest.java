@@ -0,0 +1,116 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+import me.bechberger.ebpf.type.BPFType.UBPFStructMember;
+import me.bechberger.ebpf.type.Columns;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static me.bechberger.ebpf.type.BPFType.BPFIntType.INT16;
+import static me.bechberger.ebpf.type.BPFType.BPFIntType.INT64;
+import static me.bechberger.ebpf.type.BPFType.BPFIntType.UINT32;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the columnar decoding of structs with {@link Columns}
+ */
+public class ColumnsTest {
+
+    record Event(long timestamp, int pid, short port, String comm) {
+    }
+
+    private static final BPFStructType<Event> EVENT_TYPE = BPFStructType.autoLayout("event",
+            List.of(new UBPFStructMember<>("timestamp", INT64, Event::timestamp),
+                    new UBPFStructMember<>("pid", UINT32, Event::pid),
+                    new UBPFStructMember<>("port", INT16, Event::port),
+                    new UBPFStructMember<>("comm", new BPFType.StringType(16), Event::comm)),
+            null, fields -> new Event((long) fields.get(0), (int) fields.get(1), (short) fields.get(2),
+                    (String) fields.get(3)));
+
+    @Test
+    public void testDecodeBatch() {
+        int count = 10;
+        // small initial capacity to test growing
+        var columns = new Columns<>(EVENT_TYPE, 4);
+        assertEquals(Set.of("timestamp", "pid", "port"), columns.names());
+        try (var arena = Arena.ofConfined()) {
+            var batch = arena.allocate(EVENT_TYPE.sizePadded() * count, EVENT_TYPE.alignment());
+            for (int i = 0; i < count; i++) {
+                EVENT_TYPE.setMemory(batch.asSlice(i * EVENT_TYPE.sizePadded()),
+                        new Event(1000L * i, i, (short) (8000 + i), "java"));
+            }
+            columns.addAll(batch, count);
+            columns.add(batch.asSlice(EVENT_TYPE.sizePadded() * 3));
+        }
+        assertEquals(count + 1, columns.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(1000L * i, columns.longs("timestamp")[i]);
+            assertEquals(i, columns.ints("pid")[i]);
+            assertEquals(8000 + i, columns.shorts("port")[i]);
+        }
+        assertEquals(3, columns.ints("pid")[count]);
+        assertArrayEquals(new int[]{9, 8, 7}, columns.largest("timestamp", 3));
+        assertEquals(count + 1, columns.largest("pid", 20).length);
+
+        assertThrows(IllegalArgumentException.class, () -> columns.longs("comm"));
+        assertThrows(IllegalArgumentException.class, () -> columns.longs("pid"));
+
+        columns.clear();
+        assertEquals(0, columns.size());
+        assertEquals(0, columns.largest("pid", 3).length);
+    }
+
+    @Test
+    public void testScalarType() {
+        var columns = new Columns<>(INT64);
+        try (var arena = Arena.ofConfined()) {
+            var batch = arena.allocate(8 * 3, 8);
+            for (int i = 0; i < 3; i++) {
+                INT64.setMemory(batch.asSlice(i * 8L), (long) (i * i));
+            }
+            columns.addAll(batch, 3);
+        }
+        assertArrayEquals(new long[]{0, 1, 4}, Arrays.copyOf(columns.longs(Columns.VALUE), 3));
+        assertArrayEquals(new int[]{2, 1}, columns.largest(Columns.VALUE, 2));
+    }
+
+    @Test
+    public void testUnsignedLargest() {
+        var columns = new Columns<>(EVENT_TYPE);
+        try (var arena = Arena.ofConfined()) {
+            var segment = EVENT_TYPE.allocate(arena);
+            for (int pid : new int[]{1, -1, 2}) {
+                EVENT_TYPE.setMemory(segment, new Event(pid, pid, (short) pid, "java"));
+                columns.add(segment);
+            }
+        }
+        // u32 0xffffffff is the largest pid, but the s64 timestamp -1 is the smallest
+        assertArrayEquals(new int[]{1, 2, 0}, columns.largest("pid", 3));
+        assertArrayEquals(new int[]{2, 0, 1}, columns.largest("timestamp", 3));
+    }
+
+    @Test
+    public void testWrappedType() {
+        var type = UINT32.alignTo(8);
+        var columns = new Columns<>(type);
+        try (var arena = Arena.ofConfined()) {
+            var batch = arena.allocate(4 * 3, 4);
+            for (int i = 0; i < 3; i++) {
+                batch.set(ValueLayout.JAVA_INT, i * 4L, i + 1);
+            }
+            columns.addAll(batch, 4, 3);
+        }
+        assertArrayEquals(new int[]{1, 2, 3}, Arrays.copyOf(columns.ints(Columns.VALUE), 3));
+    }
+
+    @Test
+    public void testTypeWithoutPrimitives() {
+        assertThrows(IllegalArgumentException.class, () -> new Columns<>(new BPFType.StringType(16)));
+    }
+}
@@ -0,0 +1,37 @@
+package me.bechberger.ebpf.bpf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests resolving function symbols with the {@link ElfSymbolResolver}
+ */
+public class ElfSymbolResolverTest {
+
+    @Test
+    public void testResolveLibJVMSymbol() {
+        var libjvm = ElfSymbolResolver.libJVMPath();
+        long offset = ElfSymbolResolver.resolve(libjvm, "JNI_CreateJavaVM");
+        assertTrue(offset > 0);
+    }
+
+    @Test
+    public void testOffsetsAreCached() {
+        var libjvm = ElfSymbolResolver.libJVMPath();
+        assertSame(ElfSymbolResolver.functionOffsets(libjvm), ElfSymbolResolver.functionOffsets(libjvm));
+    }
+
+    @Test
+    public void testMissingSymbol() {
+        assertThrows(BPFError.class,
+                () -> ElfSymbolResolver.resolve(ElfSymbolResolver.libJVMPath(), "does_not_exist_42"));
+    }
+
+    @Test
+    public void testNotAnElfFile() {
+        assertThrows(BPFError.class, () -> ElfSymbolResolver.parse(ByteBuffer.allocate(128)));
+    }
+}
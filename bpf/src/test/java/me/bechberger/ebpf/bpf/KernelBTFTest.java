@@ -0,0 +1,155 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.map.BPFArray;
+import me.bechberger.ebpf.runtime.OpenDefinitions.open_how;
+import me.bechberger.ebpf.type.BPFType.AnnotatedClass;
+import me.bechberger.ebpf.type.BPFType.BPFStructMember;
+import me.bechberger.ebpf.type.BPFType.BPFStructType;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static me.bechberger.ebpf.type.BPFType.BPFIntType.INT64;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests comparing and relocating kernel types with the {@link KernelBTF}
+ */
+public class KernelBTFTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 1)
+        BPFArray<open_how> hows;
+
+        static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            SEC ("kprobe/do_sys_openat2")
+            int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+            {
+              return 0;
+            }
+        """;
+    }
+
+    private static byte[] note(int type, String name, byte[] desc) {
+        var buffer = ByteBuffer.allocate(12 + ((name.length() + 4) & ~3) + ((desc.length + 3) & ~3))
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(name.length() + 1).putInt(desc.length).putInt(type);
+        buffer.put(name.getBytes()).position(buffer.position() + ((name.length() + 4) & ~3) - name.length());
+        buffer.put(desc);
+        return buffer.array();
+    }
+
+    @Test
+    public void testParseBuildId() {
+        var xen = note(1, "Xen", new byte[]{1, 2, 3});
+        var buildId = note(3, "GNU", new byte[]{(byte) 0xab, 0x01, 0x23, 0x45, 0x67});
+        var notes = ByteBuffer.allocate(xen.length + buildId.length).put(xen).put(buildId).array();
+        assertEquals("ab01234567", KernelBTF.parseBuildId(notes));
+        assertNull(KernelBTF.parseBuildId(xen));
+        assertNull(KernelBTF.parseBuildId(new byte[0]));
+    }
+
+    /**
+     * {@code struct timespec64} with the members in the wrong order
+     */
+    private static BPFStructType<List<Object>> swappedTimespec(String klass, String... extraMembers) {
+        var members = new ArrayList<BPFStructMember<List<Object>, ?>>(List.of(
+                new BPFStructMember<List<Object>, Long>("tv_nsec", INT64, 0, l -> (Long) l.get(0)),
+                new BPFStructMember<List<Object>, Long>("tv_sec", INT64, 8, l -> (Long) l.get(1))));
+        for (int i = 0; i < extraMembers.length; i++) {
+            int index = i + 2;
+            members.add(new BPFStructMember<List<Object>, Long>(extraMembers[i], INT64, 16 + i * 8,
+                    l -> (Long) l.get(index)));
+        }
+        return new BPFStructType<>("timespec64", members, new AnnotatedClass(klass, List.of()), l -> l);
+    }
+
+    @Test
+    public void testRelocateKernelType() {
+        assumeTrue(Files.exists(KernelBTF.VMLINUX_BTF));
+        var kernelBTF = KernelBTF.running();
+        assertNotNull(kernelBTF);
+        assertSame(kernelBTF, KernelBTF.running());
+
+        var type = swappedTimespec("me.bechberger.ebpf.runtime.TimeDefinitions.timespec64");
+        assertEquals(2, kernelBTF.differences(type).size());
+        var relocated = (BPFStructType<List<Object>>) kernelBTF.relocate(type);
+        assertSame(relocated, kernelBTF.relocate(type));
+        assertEquals(8, relocated.getOffsetOfMember("tv_nsec"));
+        assertEquals(0, relocated.getOffsetOfMember("tv_sec"));
+        try (var arena = Arena.ofConfined()) {
+            var memory = relocated.allocate(arena);
+            memory.set(ValueLayout.JAVA_LONG, 0, 1);
+            memory.set(ValueLayout.JAVA_LONG, 8, 2);
+            assertEquals(List.of(2L, 1L), relocated.parseMemory(memory));
+        }
+        // relocated types match the kernel
+        assertEquals(List.of(), kernelBTF.differences(relocated));
+    }
+
+    @Test
+    public void testUserTypeIsNotRelocated() {
+        var type = swappedTimespec("me.bechberger.ebpf.samples.Time.timespec64");
+        assertFalse(KernelBTF.isKernelType(type));
+        assertSame(type, BPFProgram.kernelType(type));
+    }
+
+    @Test
+    public void testMissingMember() {
+        assumeTrue(Files.exists(KernelBTF.VMLINUX_BTF));
+        var type = swappedTimespec("me.bechberger.ebpf.runtime.TimeDefinitions.timespec64", "tv_unknown");
+        var relocated = (BPFStructType<List<Object>>) BPFProgram.kernelType(type);
+        assertEquals(Set.of("tv_unknown"), relocated.absentMembers());
+        assertTrue(KernelBTF.running().differences(type).contains("member tv_unknown is missing and read as zero"));
+        assertThrows(IllegalArgumentException.class, () -> relocated.getOffsetOfMember("tv_unknown"));
+        assertEquals(16, relocated.size());
+        try (var arena = Arena.ofConfined()) {
+            var memory = relocated.allocate(arena);
+            memory.set(ValueLayout.JAVA_LONG, 0, 1);
+            memory.set(ValueLayout.JAVA_LONG, 8, 2);
+            assertEquals(List.of(2L, 1L, 0L), relocated.parseMemory(memory));
+        }
+    }
+
+    @Test
+    public void testUsedKernelTypes() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var type = program.hows.getValueType();
+            assertTrue(KernelBTF.isKernelType(type));
+            assertEquals(Set.of(type), program.getUsedKernelTypes());
+        }
+    }
+
+    @Test
+    public void testKernelTypeCheckOnLoad() {
+        assumeTrue(Files.exists(KernelBTF.VMLINUX_BTF));
+        List<String> differences;
+        try (var program = BPFProgram.load(Program.class)) {
+            differences = KernelBTF.running().differences(program.hows.getValueType());
+        }
+        BPFProgram.setKernelTypeCheck(true);
+        try {
+            if (differences.isEmpty()) {
+                BPFProgram.load(Program.class).close();
+            } else {
+                assertThrows(KernelBTF.KernelTypeMismatchError.class, () -> BPFProgram.load(Program.class));
+            }
+        } finally {
+            BPFProgram.setKernelTypeCheck(false);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.shared.TraceLog;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for kprobe.multi links, attached via a pattern and via a list of symbols
+ */
+public class KprobeMultiTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+
+        static final String EBPF_PROGRAM = """
+                #include "vmlinux.h"
+                #include <bpf/bpf_helpers.h>
+                #include <bpf/bpf_tracing.h>
+
+                SEC("kprobe.multi/do_unlinka*")
+                int unlink_multi(struct pt_regs *ctx)
+                {
+                	bpf_printk("kprobe.multi: unlink");
+                	return 0;
+                }
+
+                SEC("kprobe.multi")
+                int open_multi(struct pt_regs *ctx)
+                {
+                	bpf_printk("kprobe.multi: open");
+                	return 0;
+                }
+                """;
+    }
+
+    private static void waitForMessage(BPFProgram program, String message) {
+        while (true) {
+            var msg = program.readTraceFields().msg();
+            if (msg != null && msg.contains(message)) {
+                break;
+            }
+        }
+        TraceLog.getInstance().readAllAvailableLines(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void testAttachToPattern() {
+        try (var program = BPFProgram.load(Program.class)) {
+            program.autoAttachProgram(program.getProgramByName("unlink_multi"));
+            TestUtil.triggerOpenAt();
+            waitForMessage(program, "kprobe.multi: unlink");
+        }
+    }
+
+    @Test
+    public void testAttachToSymbolsAndDetach() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var prog = program.getProgramByName("open_multi");
+            assertThrows(IllegalArgumentException.class, () -> program.attachKprobeMulti(prog, List.of(), false));
+
+            var link = program.attachKprobeMulti(prog, List.of("do_sys_openat2"), false);
+            TestUtil.triggerOpenAt();
+            waitForMessage(program, "kprobe.multi: open");
+
+            program.detachProgram(link);
+            assertThrows(IllegalArgumentException.class, () -> program.detachProgram(link));
+            TestUtil.triggerOpenAt();
+            assertTrue(TraceLog.getInstance().readAllAvailableLines(Duration.ofMillis(200)).stream()
+                    .noneMatch(line -> line.contains("kprobe.multi: open")));
+
+            // attaching again after detaching works
+            program.detachProgram(program.attachKprobeMulti(prog, List.of("do_sys_openat2"), false));
+        }
+    }
+}
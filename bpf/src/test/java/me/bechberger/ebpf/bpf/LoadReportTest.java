@@ -0,0 +1,54 @@
+package me.bechberger.ebpf.bpf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests parsing the verifier log into a {@link LoadReport}
+ */
+public class LoadReportTest {
+
+    @Test
+    public void testParseStats() {
+        var report = LoadReport.parse("xdpHandlePacket", """
+                func#0 @0
+                stack depth 24+0+16
+                verification time 1234 usec
+                processed 250000 insns (limit 1000000) max_states_per_insn 4 total_states 1200 peak_states 900 mark_read 12
+                """);
+        assertEquals("xdpHandlePacket", report.name());
+        assertEquals(250000, report.processedInsns());
+        assertEquals(4, report.maxStatesPerInsn());
+        assertEquals(1200, report.totalStates());
+        assertEquals(900, report.peakStates());
+        assertEquals(List.of(24, 0, 16), report.stackDepths());
+        assertEquals(24, report.maxStackDepth());
+        assertEquals(40, report.callChainStackDepth());
+        assertEquals(1234, report.verificationTimeUsec());
+        assertEquals(0.25, report.insnLimitUsage());
+        assertTrue(report.approachesLimits(0.2));
+        assertFalse(report.approachesLimits(0.5));
+        assertFalse(report.logTruncated());
+    }
+
+    @Test
+    public void testCombinedStackDepth() {
+        var report = LoadReport.parse("prog", "stack depth 200+150+100\n");
+        assertEquals(200, report.maxStackDepth());
+        assertEquals(450, report.callChainStackDepth());
+        // no single frame is close to the limit, but the call chain is
+        assertTrue(report.approachesLimits(0.8));
+    }
+
+    @Test
+    public void testParseEmptyLog() {
+        var report = LoadReport.parse("prog", "");
+        assertEquals(-1, report.processedInsns());
+        assertEquals(List.of(), report.stackDepths());
+        assertEquals(0, report.maxStackDepth());
+        assertFalse(report.approachesLimits(0.8));
+    }
+}
@@ -0,0 +1,119 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.annotations.bpf.TailCallTarget;
+import me.bechberger.ebpf.bpf.map.BPFProgArray;
+import me.bechberger.ebpf.shared.TraceLog;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests program arrays and {@link TailCallTarget}
+ */
+public class ProgArrayTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 2)
+        BPFProgArray stages;
+
+        static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            SEC ("kprobe/do_sys_openat2")
+            int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+            {
+              bpf_tail_call(ctx, &stages, 0);
+              bpf_printk("Tail call failed");
+              return 0;
+            }
+
+            SEC ("kprobe")
+            int stage0 (struct pt_regs *ctx)
+            {
+              bpf_printk("Stage 0");
+              return 0;
+            }
+
+            SEC ("kprobe")
+            int stage1 (struct pt_regs *ctx)
+            {
+              bpf_printk("Stage 1");
+              return 0;
+            }
+        """;
+
+        /**
+         * The C function with the same name is placed into the program array
+         */
+        @TailCallTarget(map = "stages", index = 0)
+        public void stage0() {
+        }
+    }
+
+    private static void waitForMessage(BPFProgram program, String message) {
+        TestUtil.triggerOpenAt();
+        while (true) {
+            var msg = program.readTraceFields().msg();
+            if (msg != null && msg.contains(message)) {
+                break;
+            } else {
+                System.out.println("Waiting for message " + msg);
+            }
+        }
+        TraceLog.getInstance().readAllAvailableLines(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void testTailCallTarget() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var stages = program.stages;
+            assertEquals(2, stages.size());
+            assertNotEquals(-1, stages.getProgramId(0));
+            assertEquals(-1, stages.getProgramId(1));
+            assertThrows(ArrayIndexOutOfBoundsException.class, () -> stages.getProgramId(2));
+
+            program.autoAttachProgram(program.getProgramByName("kprobe__do_sys_openat2"));
+            waitForMessage(program, "Stage 0");
+
+            stages.set(0, program.getProgramByName("stage1"));
+            waitForMessage(program, "Stage 1");
+
+            assertTrue(stages.remove(0));
+            assertEquals(-1, stages.getProgramId(0));
+            waitForMessage(program, "Tail call failed");
+        }
+    }
+
+    @Test
+    public void testProgArrayIsNotReusedByDefault() {
+        try (var program = BPFProgram.load(Program.class)) {
+            int stageId = program.stages.getProgramId(0);
+            try (var newProgram = BPFProgram.load(Program.class, program)) {
+                assertEquals(stageId, program.stages.getProgramId(0));
+                assertNotEquals(stageId, newProgram.stages.getProgramId(0));
+            }
+        }
+    }
+
+    @Test
+    public void testReusedProgArrayIsSetOnReplace() {
+        try (var program = BPFProgram.load(Program.class)) {
+            int stageId = program.stages.getProgramId(0);
+            try (var newProgram = BPFProgram.load(Program.class, program, List.of("stages"))) {
+                // the old program still runs its own stages
+                assertEquals(stageId, program.stages.getProgramId(0));
+                program.replace(newProgram);
+                int newStageId = newProgram.stages.getProgramId(0);
+                assertNotEquals(stageId, newStageId);
+                assertEquals(newStageId, program.stages.getProgramId(0));
+            }
+        }
+    }
+}
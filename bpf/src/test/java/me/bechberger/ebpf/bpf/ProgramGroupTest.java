@@ -0,0 +1,96 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.map.BPFArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests loading programs with shared maps via {@link BPFProgramGroup}
+ */
+public class ProgramGroupTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 16)
+        BPFArray<Integer> shared;
+
+        static final String EBPF_PROGRAM = """
+                #include <vmlinux.h>
+                #include <bpf/bpf_helpers.h>
+
+                SEC ("kprobe/do_sys_openat2")
+                int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+                {
+                  return 0;
+                }
+                """;
+    }
+
+    @BPF(license = "GPL")
+    public static abstract class OtherProgram extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 16)
+        BPFArray<Integer> shared;
+
+        static final String EBPF_PROGRAM = """
+                #include <vmlinux.h>
+                #include <bpf/bpf_helpers.h>
+
+                SEC ("kprobe/do_sys_openat2")
+                int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+                {
+                  return 0;
+                }
+                """;
+    }
+
+    @BPF(license = "GPL")
+    public static abstract class LargerMapProgram extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 32)
+        BPFArray<Integer> shared;
+
+        static final String EBPF_PROGRAM = """
+                #include <vmlinux.h>
+                #include <bpf/bpf_helpers.h>
+
+                SEC ("kprobe/do_sys_openat2")
+                int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+                {
+                  return 0;
+                }
+                """;
+    }
+
+    @Test
+    public void testSharedMap() {
+        try (var group = BPFProgramGroup.load(Set.of("shared"), Program.class, OtherProgram.class)) {
+            var program = group.get(Program.class);
+            var other = group.get(OtherProgram.class);
+            assertEquals(2, group.getPrograms().size());
+            program.shared.set(1, 42);
+            assertEquals(42, other.shared.get(1));
+        }
+    }
+
+    @Test
+    public void testMismatchedSharedMap() {
+        assertThrows(BPFError.class, () -> BPFProgramGroup.load(Set.of("shared"), Program.class,
+                LargerMapProgram.class).close());
+    }
+
+    @Test
+    public void testMissingSharedMap() {
+        assertThrows(BPFProgram.BPFMapNotFoundError.class,
+                () -> BPFProgramGroup.load(Set.of("unknown"), Program.class).close());
+    }
+
+    @Test
+    public void testDuplicateClass() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BPFProgramGroup.load(Set.of("shared"), Program.class, Program.class));
+    }
+}
@@ -0,0 +1,109 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.map.BPFBaseMap;
+import me.bechberger.ebpf.bpf.map.BPFSockHash;
+import me.bechberger.ebpf.bpf.map.BPFSockMap;
+import me.bechberger.ebpf.shared.LibC;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link BPFSockMap} and {@link BPFSockHash} classes
+ */
+public class SockMapTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 4)
+        BPFSockMap sockets;
+
+        @BPFMapDefinition(maxEntries = 4)
+        BPFSockHash<Integer> socketsByKey;
+
+        static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            SEC ("sk_msg")
+            int redirect (struct sk_msg_md *msg)
+            {
+              return bpf_msg_redirect_map(msg, &sockets, 0, BPF_F_INGRESS);
+            }
+        """;
+    }
+
+    private static final int AF_INET = 2;
+    private static final int SOCK_STREAM = 1;
+    private static final int SOCK_DGRAM = 2;
+
+    /** UDP socket bound to the loopback interface, which can be added to socket maps */
+    private int boundSocket;
+    /** TCP socket that is neither listening nor connected, which can't be added to socket maps */
+    private int unconnectedSocket;
+
+    @BeforeEach
+    public void openSockets() {
+        boundSocket = LibC.socket(AF_INET, SOCK_DGRAM, 0).result();
+        assertTrue(boundSocket >= 0);
+        try (var arena = Arena.ofConfined()) {
+            // struct sockaddr_in for 127.0.0.1 and a random port
+            var address = arena.allocate(16);
+            address.fill((byte) 0);
+            address.set(JAVA_SHORT, 0, (short) AF_INET);
+            address.set(JAVA_BYTE, 4, (byte) 127);
+            address.set(JAVA_BYTE, 7, (byte) 1);
+            assertEquals(0, LibC.bind(boundSocket, address).result());
+        }
+        unconnectedSocket = LibC.socket(AF_INET, SOCK_STREAM, 0).result();
+        assertTrue(unconnectedSocket >= 0);
+    }
+
+    @AfterEach
+    public void closeSockets() {
+        LibC.close(boundSocket);
+        LibC.close(unconnectedSocket);
+    }
+
+    @Test
+    public void testSockMap() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var sockets = program.sockets;
+            assertEquals(4, sockets.size());
+            sockets.set(0, boundSocket);
+            assertTrue(sockets.remove(0));
+            assertFalse(sockets.remove(0));
+            assertThrows(ArrayIndexOutOfBoundsException.class, () -> sockets.set(4, boundSocket));
+            assertThrows(BPFBaseMap.BPFHashMapError.class, () -> sockets.set(1, unconnectedSocket));
+            assertFalse(sockets.remove(1));
+        }
+    }
+
+    @Test
+    public void testSockHash() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var sockets = program.socketsByKey;
+            sockets.put(42, boundSocket);
+            assertTrue(sockets.delete(42));
+            assertFalse(sockets.delete(42));
+            assertThrows(BPFBaseMap.BPFHashMapError.class, () -> sockets.put(43, unconnectedSocket));
+            assertFalse(sockets.delete(43));
+        }
+    }
+
+    @Test
+    public void testSkMsgAttach() {
+        try (var program = BPFProgram.load(Program.class)) {
+            program.sockets.set(0, boundSocket);
+            program.skMsgAttach(program.getProgramByName("redirect"), program.sockets);
+        }
+    }
+}
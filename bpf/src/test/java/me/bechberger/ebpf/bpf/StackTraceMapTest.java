@@ -0,0 +1,72 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.map.BPFHashMap;
+import me.bechberger.ebpf.bpf.map.BPFStackTraceMap;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link BPFStackTraceMap} class
+ */
+public class StackTraceMapTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 1024)
+        BPFStackTraceMap stacks;
+
+        /** Last kernel stack id of each process */
+        @BPFMapDefinition(maxEntries = 1024)
+        BPFHashMap<Integer, Integer> stackIds;
+
+        static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            SEC ("kprobe/do_sys_openat2")
+            int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+            {
+              int pid = bpf_get_current_pid_tgid() >> 32;
+              int stackId = bpf_get_stackid(ctx, &stacks, 0);
+              if (stackId >= 0) {
+                bpf_map_update_elem(&stackIds, &pid, &stackId, BPF_ANY);
+              }
+              return 0;
+            }
+        """;
+    }
+
+    @Test
+    public void testGetAndDeleteStack() {
+        try (var program = BPFProgram.load(Program.class)) {
+            assertEquals(1024, program.stacks.size());
+            program.autoAttachProgram(program.getProgramByName("kprobe__do_sys_openat2"));
+            TestUtil.triggerOpenAt();
+            Integer stackId = program.stackIds.get((int) ProcessHandle.current().pid());
+            assertNotNull(stackId);
+
+            long[] stack = program.stacks.getStack(stackId);
+            assertNotNull(stack);
+            assertTrue(stack.length > 0 && stack.length <= BPFStackTraceMap.MAX_STACK_DEPTH);
+            for (long address : stack) {
+                assertNotEquals(0, address);
+            }
+
+            assertTrue(program.stacks.delete(stackId));
+            assertNull(program.stacks.getStack(stackId));
+            assertFalse(program.stacks.delete(stackId));
+        }
+    }
+
+    @Test
+    public void testInvalidStackId() {
+        try (var program = BPFProgram.load(Program.class)) {
+            // negative ids are errors of bpf_get_stackid
+            assertNull(program.stacks.getStack(-1));
+            assertNull(program.stacks.getStack(0));
+        }
+    }
+}
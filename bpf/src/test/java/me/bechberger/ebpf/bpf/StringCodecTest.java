@@ -0,0 +1,67 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.type.BPFType;
+import me.bechberger.ebpf.type.StringCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringCodecTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "a", "java", "1234567", "12345678", "123456789", "0123456789abcdef0123", "äöü",
+            "ascii then ü"})
+    public void testRoundTrip(String string) {
+        try (var arena = Arena.ofConfined()) {
+            var memory = arena.allocate(32);
+            memory.fill((byte) 'x');
+            StringCodec.encode(memory, string, 32);
+            assertEquals(string, StringCodec.decode(memory, 32));
+            assertEquals(string, StringCodec.decodeInterned(memory, 32));
+            assertEquals(string.getBytes().length, StringCodec.length(memory, 32));
+        }
+    }
+
+    @Test
+    public void testTruncation() {
+        var type = new BPFType.StringType(16);
+        try (var arena = Arena.ofConfined()) {
+            var memory = type.allocate(arena, "a string that is too long");
+            assertEquals(0, memory.get(ValueLayout.JAVA_BYTE, 15));
+            assertEquals("a string that i", type.parseMemory(memory));
+            // without a NUL, the string spans the whole array
+            memory.fill((byte) 'a');
+            assertEquals("a".repeat(16), type.parseMemory(memory));
+        }
+    }
+
+    @Test
+    public void testInterned() {
+        var type = new BPFType.StringType(16, true);
+        try (var arena = Arena.ofConfined()) {
+            var first = type.parseMemory(type.allocate(arena, "comm"));
+            var second = type.parseMemory(type.allocate(arena, "comm"));
+            assertEquals("comm", first);
+            assertSame(first, second);
+            assertEquals("other", type.parseMemory(type.allocate(arena, "other")));
+        }
+    }
+
+    @Test
+    public void testCharSequence() {
+        var type = new BPFType.StringType(16);
+        try (var arena = Arena.ofConfined()) {
+            var chars = type.parseCharSequence(type.allocate(arena, "hello"));
+            assertEquals(5, chars.length());
+            assertEquals('e', chars.charAt(1));
+            assertTrue("hello".contentEquals(chars));
+            assertEquals("ell", chars.subSequence(1, 4).toString());
+            assertThrows(IndexOutOfBoundsException.class, () -> chars.charAt(5));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package me.bechberger.ebpf.bpf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests the feature probe that decides whether TC programs are attached via TCX links
+ */
+public class TCXProbeTest {
+
+    @Test
+    public void testProbeMatchesKernelVersion() {
+        var matcher = Pattern.compile("^(\\d+)\\.(\\d+)").matcher(System.getProperty("os.version"));
+        assumeTrue(matcher.find());
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = Integer.parseInt(matcher.group(2));
+        // TCX links were added in Linux 6.6
+        boolean expected = major > 6 || (major == 6 && minor >= 6);
+        assertEquals(expected, BPFProgram.isTCXSupported());
+        // the result is cached and stays the same
+        assertEquals(expected, BPFProgram.isTCXSupported());
+    }
+}
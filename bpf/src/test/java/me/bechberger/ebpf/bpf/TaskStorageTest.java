@@ -0,0 +1,88 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.map.BPFTaskStorage;
+import me.bechberger.ebpf.shared.LibC;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link BPFTaskStorage} class
+ */
+public class TaskStorageTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 0)
+        BPFTaskStorage<Integer> storage;
+
+        static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            SEC ("kprobe/do_sys_openat2")
+            int kprobe__do_sys_openat2 (struct pt_regs *ctx)
+            {
+              // only processes whose main task got a value from user land are counted
+              struct task_struct *task = bpf_get_current_task_btf();
+              int *count = bpf_task_storage_get(&storage, task->group_leader, NULL, 0);
+              if (count != NULL) {
+                __sync_fetch_and_add(count, 1);
+              }
+              return 0;
+            }
+        """;
+    }
+
+    /**
+     * pidfds without <code>PIDFD_THREAD</code> can only be opened for the main task of a process
+     */
+    private static int currentPid() {
+        return (int) ProcessHandle.current().pid();
+    }
+
+    @Test
+    public void testPutGetDelete() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var storage = program.storage;
+            int pid = currentPid();
+            assertNull(storage.getForPid(pid));
+            assertTrue(storage.putForPid(pid, 42));
+            assertEquals(42, storage.getForPid(pid));
+
+            int pidfd = LibC.pidfdOpen(pid, 0).result();
+            try {
+                assertEquals(42, storage.get(pidfd));
+                assertTrue(storage.put(pidfd, 43));
+                assertEquals(43, storage.get(pidfd));
+                assertTrue(storage.delete(pidfd));
+                assertNull(storage.get(pidfd));
+                assertFalse(storage.delete(pidfd));
+            } finally {
+                LibC.close(pidfd);
+            }
+        }
+    }
+
+    @Test
+    public void testValueIsUpdatedInEBPF() {
+        try (var program = BPFProgram.load(Program.class)) {
+            var storage = program.storage;
+            int pid = currentPid();
+            assertTrue(storage.putForPid(pid, 0));
+            program.autoAttachProgram(program.getProgramByName("kprobe__do_sys_openat2"));
+            TestUtil.triggerOpenAt();
+            assertTrue(storage.getForPid(pid) > 0);
+        }
+    }
+
+    @Test
+    public void testUnknownPid() {
+        try (var program = BPFProgram.load(Program.class)) {
+            // larger than the maximum pid
+            assertThrows(BPFError.class, () -> program.storage.getForPid(Integer.MAX_VALUE));
+        }
+    }
+}
@@ -3,11 +3,17 @@ package me.bechberger.ebpf.bpf;
 import me.bechberger.cast.CAST.Declarator;
 import me.bechberger.ebpf.annotations.Offset;
 import me.bechberger.ebpf.annotations.Unsigned;
+import me.bechberger.ebpf.annotations.bpf.NotUsableInJava;
 import me.bechberger.ebpf.type.BPFType;
 import me.bechberger.ebpf.type.BPFType.BPFInlineUnionMember;
 import me.bechberger.ebpf.type.BPFType.BPFInlineUnionType;
+import me.bechberger.ebpf.type.BPFType.BPFStructMember;
 import me.bechberger.ebpf.type.BPFType.BPFStructType.SourceClassKind;
+import me.bechberger.ebpf.type.BPFType.AnnotatedClass;
+import me.bechberger.ebpf.type.BPFType.BPFUnionMember;
+import me.bechberger.ebpf.type.BPFType.BPFUnionType;
 import me.bechberger.ebpf.type.BPFType.InlineUnion;
+import me.bechberger.ebpf.type.Union;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -16,6 +22,7 @@ import org.junit.jupiter.params.provider.MethodSource;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,7 +32,10 @@ import static me.bechberger.ebpf.type.BPFType.BPFIntType.INT32;
 import static me.bechberger.ebpf.type.BPFType.BPFIntType.INT64;
 import static me.bechberger.ebpf.type.BPFType.BPFStructType;
 import static me.bechberger.ebpf.type.BPFType.UBPFStructMember;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -118,6 +128,20 @@ public class TypeLayoutTest {
         assertEquals(4, type.alignment());
     }
 
+    @Test
+    public void testPrimitiveArray() {
+        var type = BPFType.BPFArrayType.of(INT64, 4);
+        assertEquals(ValueLayout.JAVA_LONG_UNALIGNED, type.primitiveMemberLayout());
+        try (var arena = Arena.ofConfined()) {
+            var memory = type.allocate(arena);
+            type.setPrimitiveArray(memory, new long[]{1, 2, 3, 4});
+            assertEquals(3, memory.get(ValueLayout.JAVA_LONG, 16));
+            assertArrayEquals(new long[]{1, 2, 3, 4}, (long[]) type.parsePrimitiveArray(memory));
+            assertThrows(IllegalArgumentException.class, () -> type.setPrimitiveArray(memory, new long[]{1}));
+        }
+        assertNull(BPFType.BPFArrayType.of(BPFType.BPFIntType.BOOL, 4).primitiveMemberLayout());
+    }
+
     @Test
     public void testArrayWithPadding() {
         // assume inner struct has 8 byte alignment and size 16
@@ -147,6 +171,143 @@ public class TypeLayoutTest {
         assertOffsetSameInLayoutAndMembers(type);
     }
 
+    @Test
+    public void testWithMembers() {
+        record Pair(long a, int b) {
+        }
+
+        var type = BPFStructType.<Pair>autoLayout("pair", List.of(new UBPFStructMember<>("a", INT64, Pair::a),
+                new UBPFStructMember<>("b", INT32, Pair::b)), null, fields -> new Pair((long) fields.get(0),
+                (int) fields.get(1)));
+        // reordered members with trailing padding
+        var relocated = type.withMembers(List.of(new BPFStructMember<>("a", INT64, 8, Pair::a),
+                new BPFStructMember<>("b", INT32, 0, Pair::b)), 24);
+        assertEquals(8, relocated.getOffsetOfMember("a"));
+        assertEquals(0, relocated.getOffsetOfMember("b"));
+        assertEquals(24, relocated.size());
+        assertOffsetSameInLayoutAndMembers(relocated);
+        try (var arena = Arena.ofConfined()) {
+            var memory = relocated.allocate(arena, new Pair(1, 2));
+            assertEquals(1, memory.get(ValueLayout.JAVA_LONG, 8));
+            assertEquals(2, memory.get(ValueLayout.JAVA_INT, 0));
+            assertEquals(new Pair(1, 2), relocated.parseMemory(memory));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> type.withMembers(List.of(new BPFStructMember<>("a", INT64, 0, Pair::a)), 16));
+    }
+
+    @Test
+    public void testLazyUnion() {
+        var type = new BPFType.BPFUnionTypeOld<Void>("union", null,
+                List.of(new BPFType.BPFUnionMember<>("a", INT32, null),
+                        new BPFType.BPFUnionMember<>("b", INT64, null)));
+        try (var arena = Arena.ofConfined()) {
+            var memory = type.allocate(arena);
+            memory.set(ValueLayout.JAVA_LONG, 0, 0x1_0000_0002L);
+            var union = type.parseMemory(memory);
+            // changing the memory after parsing doesn't change the union
+            memory.set(ValueLayout.JAVA_LONG, 0, 0);
+            assertEquals(2, (int) union.get("a"));
+            assertEquals(0x1_0000_0002L, (long) union.get("b"));
+
+            // only the set member is written
+            union.set("a", 5);
+            memory.fill((byte) 0xff);
+            type.setMemory(memory, union);
+            assertEquals(5, memory.get(ValueLayout.JAVA_INT, 0));
+            assertEquals(-1, memory.get(ValueLayout.JAVA_INT, 4));
+        }
+    }
+
+    @Test
+    public void testStructWithManyMembers() {
+        // more members than a single method handle can collect
+        List<UBPFStructMember<List<Object>, ?>> members = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int index = i;
+            members.add(new UBPFStructMember<List<Object>, Integer>("m" + i, INT32, l -> (Integer) l.get(index)));
+            values.add(i * 3);
+        }
+        var type = BPFStructType.autoLayout("many", members, null, fields -> fields);
+        try (var arena = Arena.ofConfined()) {
+            var memory = type.allocate(arena, values);
+            assertEquals(3 * 299, memory.get(ValueLayout.JAVA_INT, 4 * 299));
+            assertEquals(values, type.parseMemory(memory));
+        }
+    }
+
+    @NotUsableInJava
+    static class KernelUnion extends Union {
+        int a;
+        long b;
+    }
+
+    private static final BPFUnionType<KernelUnion> KERNEL_UNION_TYPE = new BPFUnionType<>("kernel_union",
+            List.of(new BPFUnionMember<KernelUnion, Integer>("a", INT32, u -> u.a),
+                    new BPFUnionMember<KernelUnion, Long>("b", INT64, u -> u.b)),
+            new AnnotatedClass(KernelUnion.class, List.of()), members -> new KernelUnion().init(members));
+
+    @Test
+    public void testLazyKernelUnion() {
+        try (var arena = Arena.ofConfined()) {
+            var memory = KERNEL_UNION_TYPE.allocate(arena);
+            memory.set(ValueLayout.JAVA_LONG, 0, 0x1_0000_0002L);
+            var union = KERNEL_UNION_TYPE.parseMemory(memory);
+            // members are only parsed on get
+            assertEquals(0, union.a);
+            assertEquals(0, union.b);
+            assertEquals(2, (int) union.get("a"));
+            assertEquals(2, union.a);
+            assertEquals(0, union.b);
+            assertEquals(0x1_0000_0002L, (long) union.get("b"));
+            assertEquals(0x1_0000_0002L, union.b);
+        }
+    }
+
+    @Test
+    public void testStructWithUnionRoundTrip() {
+        record UnionHolder(int a, KernelUnion union) {
+        }
+
+        var type = BPFStructType.autoLayout("union_holder",
+                List.of(new UBPFStructMember<UnionHolder, Integer>("a", INT32, UnionHolder::a),
+                        new UBPFStructMember<UnionHolder, KernelUnion>("union", KERNEL_UNION_TYPE, UnionHolder::union)),
+                null, fields -> new UnionHolder((int) fields.get(0), (KernelUnion) fields.get(1)));
+        try (var arena = Arena.ofConfined()) {
+            var memory = type.allocate(arena);
+            memory.set(ValueLayout.JAVA_INT, 0, 1);
+            memory.set(ValueLayout.JAVA_LONG, 8, 0x1_0000_0002L);
+            var holder = type.parseMemory(memory);
+
+            // an unchanged union keeps all of its bytes
+            var written = type.allocate(arena);
+            written.fill((byte) 0xff);
+            type.setMemory(written, holder);
+            assertEquals(1, written.get(ValueLayout.JAVA_INT, 0));
+            assertEquals(0x1_0000_0002L, written.get(ValueLayout.JAVA_LONG, 8));
+
+            // a changed member is written on top of the original bytes
+            holder.union().get("a");
+            holder.union().a = 5;
+            written.fill((byte) 0xff);
+            type.setMemory(written, holder);
+            assertEquals(5, written.get(ValueLayout.JAVA_INT, 8));
+            assertEquals(1, written.get(ValueLayout.JAVA_INT, 12));
+
+            // a new union without a set member is zeroed
+            written.fill((byte) 0xff);
+            type.setMemory(written, new UnionHolder(1, new KernelUnion()));
+            assertEquals(0, written.get(ValueLayout.JAVA_LONG, 8));
+
+            var twoMembers = new KernelUnion();
+            twoMembers.a = 1;
+            twoMembers.b = 2;
+            assertThrows(IllegalArgumentException.class,
+                    () -> type.setMemory(written, new UnionHolder(1, twoMembers)));
+        }
+    }
+
     @Test
     @SuppressWarnings({"unchecked", "rawtypes"})
     public void testStructWithInlineUnion() {
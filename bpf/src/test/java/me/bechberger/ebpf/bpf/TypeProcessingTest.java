@@ -296,6 +296,80 @@ public class TypeProcessingTest {
                 type.constructor().apply(List.of((byte) 42, "Hello", 1234567890L)));
     }
 
+    @Test
+    public void testGeneratedCodec() {
+        var type = BPFProgram.getStructTypeForClass(SimpleRecordTestProgram.class,
+                SimpleRecordTestProgram.RecordWithMultipleMembers.class);
+        assertNotNull(type.codec());
+        var record = new SimpleRecordTestProgram.RecordWithMultipleMembers((byte) 42, "Hello", 1234567890L);
+        try (var arena = Arena.ofConfined()) {
+            var memory = type.allocate(arena, record);
+            var genericMemory = type.withoutCodec().allocate(arena, record);
+            assertEquals(-1, memory.mismatch(genericMemory));
+            assertEquals(record, type.parseMemory(memory));
+            assertEquals(record, type.withoutCodec().parseMemory(memory));
+        }
+    }
+
+    @Test
+    public void testGeneratedCodecForClass() {
+        var type = BPFProgram.getStructTypeForClass(SimpleRecordTestProgram.class,
+                SimpleRecordTestProgram.ClassRecord.class);
+        assertNotNull(type.codec());
+        var obj = new SimpleRecordTestProgram.ClassRecord();
+        obj.a = 42;
+        obj.b = "Hello";
+        try (var arena = Arena.ofConfined()) {
+            assertEquals(obj, type.parseMemory(type.allocate(arena, obj)));
+        }
+    }
+
+    @Test
+    public void testGenericParserMatchesCodec() {
+        var type = BPFProgram.getStructTypeForClass(SimpleRecordTestProgram.class,
+                SimpleRecordTestProgram.RecordWithMultipleMembers.class);
+        var genericType = type.withoutCodec();
+        var record = new SimpleRecordTestProgram.RecordWithMultipleMembers((byte) 42, "Hello", 1234567890L);
+        try (var arena = Arena.ofConfined()) {
+            var memory = genericType.allocate(arena, record);
+            assertEquals(record, genericType.parseMemory(memory));
+            assertEquals(record, type.parseMemory(memory));
+        }
+    }
+
+    @Test
+    public void testParseIntoClass() {
+        var type = BPFProgram.getStructTypeForClass(SimpleRecordTestProgram.class,
+                SimpleRecordTestProgram.ClassRecord.class);
+        var obj = new SimpleRecordTestProgram.ClassRecord();
+        obj.a = 42;
+        obj.b = "Hello";
+        var target = new SimpleRecordTestProgram.ClassRecord();
+        try (var arena = Arena.ofConfined()) {
+            assertSame(target, type.parseInto(type.allocate(arena, obj), target));
+            assertEquals(obj, target);
+        }
+    }
+
+    @Test
+    public void testGeneratedView() {
+        var type = BPFProgram.getStructTypeForClass(SimpleRecordTestProgram.class,
+                SimpleRecordTestProgram.RecordWithMultipleMembers.class);
+        var record = new SimpleRecordTestProgram.RecordWithMultipleMembers((byte) 42, "Hello", 1234567890L);
+        try (var arena = Arena.ofConfined()) {
+            var view = new TypeProcessingTest$SimpleRecordTestProgramImpl.RecordWithMultipleMembersView(
+                    type.allocate(arena, record));
+            assertEquals(type.size(), TypeProcessingTest$SimpleRecordTestProgramImpl.RecordWithMultipleMembersView.SIZE);
+            assertEquals((byte) 42, view.value());
+            assertEquals("Hello", view.name());
+            assertEquals(1234567890L, view.longValue());
+            view.setValue((byte) 1).setName("World").setLongValue(2);
+            assertEquals(new SimpleRecordTestProgram.RecordWithMultipleMembers((byte) 1, "World", 2),
+                    view.materialize());
+            assertEquals("World", view.nameSegment().getString(0));
+        }
+    }
+
     @Test
     public void testRecordWithOtherType() {
         var type = BPFProgram.getStructTypeForClass(SimpleRecordTestProgram.class,
@@ -618,6 +692,11 @@ public class TypeProcessingTest {
             var memory = type.allocate(arena, record);
             assertEquals(23, memory.get(ValueLayout.JAVA_INT, 0));
             assertEquals(record, type.parseMemory(memory));
+            for (var kind : Kind.values()) {
+                assertSame(kind, type.parseMemory(type.allocate(arena, kind)));
+            }
+            memory.set(ValueLayout.JAVA_INT, 0, 5);
+            assertThrows(RuntimeException.class, () -> type.parseMemory(memory));
         }
     }
 
@@ -0,0 +1,67 @@
+package me.bechberger.ebpf.bpf;
+
+import me.bechberger.ebpf.annotations.bpf.BPF;
+import me.bechberger.ebpf.annotations.bpf.BPFMapDefinition;
+import me.bechberger.ebpf.bpf.map.BPFXskMap;
+import me.bechberger.ebpf.bpf.xdp.Umem;
+import me.bechberger.ebpf.bpf.xdp.XDPSocket;
+import org.junit.jupiter.api.Test;
+
+import java.net.NetworkInterface;
+import java.net.SocketException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link BPFXskMap} class with AF_XDP sockets on the loopback interface
+ */
+public class XskMapTest {
+
+    @BPF(license = "GPL")
+    public static abstract class Program extends BPFProgram {
+        @BPFMapDefinition(maxEntries = 4)
+        BPFXskMap xsks;
+
+        static final String EBPF_PROGRAM = """
+            #include <vmlinux.h>
+            #include <bpf/bpf_helpers.h>
+
+            SEC ("xdp")
+            int redirect (struct xdp_md *ctx)
+            {
+              return bpf_redirect_map(&xsks, ctx->rx_queue_index, XDP_PASS);
+            }
+        """;
+    }
+
+    private static int loopbackIndex() throws SocketException {
+        return NetworkInterface.getByName("lo").getIndex();
+    }
+
+    @Test
+    public void testSetAndRemoveSocket() throws SocketException {
+        try (var program = BPFProgram.load(Program.class);
+             var umem = new Umem(64);
+             var socket = XDPSocket.open(loopbackIndex(), 0, umem, 64, false)) {
+            var xsks = program.xsks;
+            assertEquals(4, xsks.size());
+            // the loopback driver doesn't support zero-copy
+            assertFalse(socket.isZeroCopy());
+            xsks.set(socket);
+            assertTrue(xsks.remove(0));
+            assertFalse(xsks.remove(0));
+            xsks.set(3, socket);
+            assertTrue(xsks.remove(3));
+            assertThrows(ArrayIndexOutOfBoundsException.class, () -> xsks.set(4, socket));
+            assertThrows(ArrayIndexOutOfBoundsException.class, () -> xsks.remove(-1));
+        }
+    }
+
+    @Test
+    public void testRequireZeroCopy() throws SocketException {
+        int ifindex = loopbackIndex();
+        try (var umem = new Umem(64)) {
+            assertThrows(XDPSocket.XDPSocketError.class, () -> XDPSocket.open(ifindex, 0, umem, 64, true));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package me.bechberger.ebpf.bpf.xdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the frame management of {@link Umem}, which doesn't need an AF_XDP socket
+ */
+public class UmemTest {
+
+    @Test
+    public void testAllocateAllFrames() {
+        try (var umem = new Umem(4, 2048, 0)) {
+            assertEquals(4 * 2048, umem.memory().byteSize());
+            assertEquals(0, umem.memory().address() % 4096);
+            Set<Long> frames = new HashSet<>();
+            for (int i = 0; i < 4; i++) {
+                long frame = umem.allocateFrame();
+                assertEquals(0, frame % 2048);
+                assertTrue(frames.add(frame));
+            }
+            assertEquals(0, umem.freeFrameCount());
+            assertEquals(-1, umem.allocateFrame());
+        }
+    }
+
+    @Test
+    public void testFreeFrameWithOffset() {
+        try (var umem = new Umem(2, 2048, 256)) {
+            long frame = umem.allocateFrame();
+            umem.allocateFrame();
+            // packet addresses include the headroom
+            umem.freeFrame(frame + 256 + 10);
+            assertEquals(1, umem.freeFrameCount());
+            assertEquals(frame, umem.allocateFrame());
+        }
+    }
+
+    @Test
+    public void testDoubleFree() {
+        try (var umem = new Umem(2, 2048, 0)) {
+            assertThrows(IllegalStateException.class, () -> umem.freeFrame(0));
+            long frame = umem.allocateFrame();
+            umem.freeFrame(frame);
+            assertThrows(IllegalStateException.class, () -> umem.freeFrame(frame + 1));
+            assertEquals(2, umem.freeFrameCount());
+        }
+    }
+
+    @Test
+    public void testFreeOutOfRange() {
+        try (var umem = new Umem(2, 2048, 0)) {
+            umem.allocateFrame();
+            umem.allocateFrame();
+            assertThrows(IllegalArgumentException.class, () -> umem.freeFrame(-1));
+            assertThrows(IllegalArgumentException.class, () -> umem.freeFrame(2 * 2048));
+            assertEquals(0, umem.freeFrameCount());
+        }
+    }
+
+    @Test
+    public void testIsInFrame() {
+        try (var umem = new Umem(2, 2048, 0)) {
+            assertTrue(umem.isInFrame(0, 2048));
+            assertTrue(umem.isInFrame(2048 + 100, 100));
+            assertFalse(umem.isInFrame(100, 2000));
+            assertFalse(umem.isInFrame(2 * 2048, 0));
+            assertFalse(umem.isInFrame(-1, 0));
+            assertFalse(umem.isInFrame(0, -1));
+        }
+    }
+}
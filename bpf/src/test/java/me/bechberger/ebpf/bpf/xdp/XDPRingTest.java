@@ -0,0 +1,109 @@
+package me.bechberger.ebpf.bpf.xdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link XDPRing} on plain memory, the test plays the role of the kernel
+ */
+public class XDPRingTest {
+
+    private static final long PRODUCER = 0;
+    private static final long CONSUMER = 4;
+    private static final long FLAGS = 8;
+    private static final long DESC = 16;
+
+    private static XDPRing ring(MemorySegment memory, int size, int entrySize, boolean isProducer) {
+        return new XDPRing(memory, PRODUCER, CONSUMER, DESC, FLAGS, size, entrySize, isProducer);
+    }
+
+    @Test
+    public void testProducerRing() {
+        try (var arena = Arena.ofConfined()) {
+            var memory = arena.allocate(DESC + 4 * XDPRing.ADDRESS_ENTRY_SIZE);
+            var ring = ring(memory, 4, XDPRing.ADDRESS_ENTRY_SIZE, true);
+            assertEquals(4, ring.freeEntries(10));
+            int index = ring.reserve(3);
+            assertEquals(0, index);
+            for (int i = 0; i < 3; i++) {
+                ring.setAddress(index + i, i * 4096L);
+            }
+            // not visible before submitting
+            assertEquals(0, memory.get(JAVA_INT, PRODUCER));
+            ring.submit();
+            assertEquals(3, memory.get(JAVA_INT, PRODUCER));
+            assertEquals(1, ring.freeEntries(4));
+            assertEquals(-1, ring.reserve(2));
+
+            // the kernel consumes two entries
+            memory.set(JAVA_INT, CONSUMER, 2);
+            assertEquals(3, ring.freeEntries(4));
+            assertEquals(3, ring.reserve(3));
+            // the index wraps around
+            ring.setAddress(4, 42);
+            assertEquals(42, ring.getAddress(0));
+        }
+    }
+
+    @Test
+    public void testConsumerRing() {
+        try (var arena = Arena.ofConfined()) {
+            var memory = arena.allocate(DESC + 4 * XDPRing.DESCRIPTOR_ENTRY_SIZE);
+            var ring = ring(memory, 4, XDPRing.DESCRIPTOR_ENTRY_SIZE, false);
+            assertEquals(0, ring.peek(4));
+
+            // the kernel produces two descriptors
+            ring.setDescriptor(0, 4096, 60);
+            ring.setDescriptor(1, 8192, 1500);
+            memory.set(JAVA_INT, PRODUCER, 2);
+            assertEquals(1, ring.peek(1));
+            assertEquals(2, ring.peek(4));
+            int index = ring.consumerIndex();
+            assertEquals(4096, ring.getDescriptorAddress(index));
+            assertEquals(60, ring.getDescriptorLength(index));
+            assertEquals(8192, ring.getDescriptorAddress(index + 1));
+            assertEquals(1500, ring.getDescriptorLength(index + 1));
+            ring.release(2);
+            assertEquals(2, memory.get(JAVA_INT, CONSUMER));
+            assertEquals(0, ring.peek(4));
+        }
+    }
+
+    @Test
+    public void testIndexOverflow() {
+        try (var arena = Arena.ofConfined()) {
+            var memory = arena.allocate(DESC + 4 * XDPRing.ADDRESS_ENTRY_SIZE);
+            // indexes are free running 32 bit counters
+            memory.set(JAVA_INT, PRODUCER, Integer.MAX_VALUE);
+            memory.set(JAVA_INT, CONSUMER, Integer.MAX_VALUE);
+            var producer = ring(memory, 4, XDPRing.ADDRESS_ENTRY_SIZE, true);
+            var consumer = ring(memory, 4, XDPRing.ADDRESS_ENTRY_SIZE, false);
+            int index = producer.reserve(2);
+            producer.setAddress(index, 1);
+            producer.setAddress(index + 1, 2);
+            producer.submit();
+            assertEquals(Integer.MIN_VALUE + 1, memory.get(JAVA_INT, PRODUCER));
+            assertEquals(2, consumer.peek(4));
+            assertEquals(1, consumer.getAddress(consumer.consumerIndex()));
+            assertEquals(2, consumer.getAddress(consumer.consumerIndex() + 1));
+            consumer.release(2);
+            assertEquals(4, producer.freeEntries(4));
+        }
+    }
+
+    @Test
+    public void testNeedsWakeup() {
+        try (var arena = Arena.ofConfined()) {
+            var memory = arena.allocate(DESC + 4 * XDPRing.ADDRESS_ENTRY_SIZE);
+            var ring = ring(memory, 4, XDPRing.ADDRESS_ENTRY_SIZE, true);
+            assertFalse(ring.needsWakeup());
+            memory.set(JAVA_INT, FLAGS, 1);
+            assertTrue(ring.needsWakeup());
+        }
+    }
+}
@@ -33,6 +33,195 @@ public class LibC {
         return CLOSE_HANDLE.call(fd);
     }
 
+    private final static HandlerWithErrno<Integer> DUP_HANDLE = new HandlerWithErrno<>("dup",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+
+    /**
+     * Call the {@code dup} syscall, to obtain another file descriptor that refers to the same file
+     */
+    public static ResultAndErr<Integer> dup(int fd) {
+        return DUP_HANDLE.call(fd);
+    }
+
+    private final static HandlerWithErrno<Integer> PIDFD_OPEN_HANDLE = new HandlerWithErrno<>("pidfd_open",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+
+    /**
+     * Call the {@code pidfd_open} syscall, to obtain a file descriptor that refers to the process,
+     * requires Linux 5.3 and glibc 2.36
+     */
+    public static ResultAndErr<Integer> pidfdOpen(int pid, int flags) {
+        return PIDFD_OPEN_HANDLE.call(pid, flags);
+    }
+
+    private final static HandlerWithErrno<Long> SYSCALL_5_HANDLE = new HandlerWithErrno<>("syscall",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, POINTER, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG), 1);
+
+    /**
+     * Size of the {@code perf_event_attr} struct used by {@link #perfEventOpen(MemorySegment, int, int, int, long)},
+     * kernels that use a smaller struct accept it, as long as the additional fields are zero
+     */
+    public static final int PERF_EVENT_ATTR_SIZE = 128;
+
+    public static final int PERF_TYPE_SOFTWARE = 1;
+    public static final int PERF_COUNT_SW_CPU_CLOCK = 0;
+    public static final long PERF_FLAG_FD_CLOEXEC = 8;
+
+    /**
+     * Allocate a {@code perf_event_attr} that samples with the given frequency
+     *
+     * @param type   event type, e.g. {@link #PERF_TYPE_SOFTWARE}
+     * @param config event config, e.g. {@link #PERF_COUNT_SW_CPU_CLOCK}
+     * @param frequency samples per second
+     */
+    public static MemorySegment allocatePerfEventAttrWithFrequency(Arena arena, int type, long config, long frequency) {
+        var attr = arena.allocate(PERF_EVENT_ATTR_SIZE, 8);
+        attr.fill((byte) 0);
+        attr.set(JAVA_INT, 0, type);
+        attr.set(JAVA_INT, 4, PERF_EVENT_ATTR_SIZE);
+        attr.set(JAVA_LONG, 8, config);
+        attr.set(JAVA_LONG, 16, frequency); // sample_freq
+        attr.set(JAVA_LONG, 40, 1L << 10); // freq flag
+        return attr;
+    }
+
+    private static long perfEventOpenSyscallNumber() {
+        return switch (System.getProperty("os.arch")) {
+            case "amd64", "x86_64" -> 298;
+            case "aarch64", "riscv64" -> 241;
+            case "ppc64le", "ppc64" -> 319;
+            case "s390x" -> 331;
+            default -> throw new UnsupportedOperationException("perf_event_open is not supported on " +
+                    System.getProperty("os.arch"));
+        };
+    }
+
+    /**
+     * Call the {@code perf_event_open} syscall, returns the file descriptor of the event
+     *
+     * @param attr    {@code perf_event_attr}
+     * @param pid     process to measure, or -1 for all
+     * @param cpu     cpu to measure, or -1 for all
+     * @param groupFd group leader, or -1
+     * @param flags   e.g. {@link #PERF_FLAG_FD_CLOEXEC}
+     */
+    public static ResultAndErr<Integer> perfEventOpen(MemorySegment attr, int pid, int cpu, int groupFd, long flags) {
+        var ret = SYSCALL_5_HANDLE.call(perfEventOpenSyscallNumber(), attr, pid, cpu, groupFd, flags);
+        return new ResultAndErr<>(ret.result().intValue(), ret.err());
+    }
+
+    private final static HandlerWithErrno<Long> READ_HANDLE = new HandlerWithErrno<>("read",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, POINTER, JAVA_LONG));
+
+    /**
+     * Call the {@code read} syscall, to read up to {@code buffer.byteSize()} bytes into the buffer,
+     * returns the number of bytes read
+     */
+    public static ResultAndErr<Long> read(int fd, MemorySegment buffer) {
+        return READ_HANDLE.call(fd, buffer, buffer.byteSize());
+    }
+
+    private final static HandlerWithErrno<Integer> SOCKET_HANDLE = new HandlerWithErrno<>("socket",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT));
+
+    /**
+     * Call the {@code socket} syscall, returns the file descriptor
+     */
+    public static ResultAndErr<Integer> socket(int domain, int type, int protocol) {
+        return SOCKET_HANDLE.call(domain, type, protocol);
+    }
+
+    private final static HandlerWithErrno<Integer> SETSOCKOPT_HANDLE = new HandlerWithErrno<>("setsockopt",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, POINTER, JAVA_INT));
+
+    /**
+     * Call the {@code setsockopt} syscall, with the option value stored in the passed segment
+     */
+    public static ResultAndErr<Integer> setsockopt(int fd, int level, int option, MemorySegment value) {
+        return SETSOCKOPT_HANDLE.call(fd, level, option, value, (int) value.byteSize());
+    }
+
+    /**
+     * Call the {@code setsockopt} syscall with an int value
+     */
+    public static ResultAndErr<Integer> setsockopt(int fd, int level, int option, int value) {
+        try (Arena arena = Arena.ofConfined()) {
+            return setsockopt(fd, level, option, allocateIntRef(arena, value));
+        }
+    }
+
+    private final static HandlerWithErrno<Integer> GETSOCKOPT_HANDLE = new HandlerWithErrno<>("getsockopt",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, POINTER, POINTER));
+
+    /**
+     * Call the {@code getsockopt} syscall, storing the option value in the passed segment
+     */
+    public static ResultAndErr<Integer> getsockopt(int fd, int level, int option, MemorySegment value) {
+        try (Arena arena = Arena.ofConfined()) {
+            return GETSOCKOPT_HANDLE.call(fd, level, option, value, allocateIntRef(arena, (int) value.byteSize()));
+        }
+    }
+
+    private final static HandlerWithErrno<Integer> BIND_HANDLE = new HandlerWithErrno<>("bind",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, POINTER, JAVA_INT));
+
+    /**
+     * Call the {@code bind} syscall, with the socket address stored in the passed segment
+     */
+    public static ResultAndErr<Integer> bind(int fd, MemorySegment address) {
+        return BIND_HANDLE.call(fd, address, (int) address.byteSize());
+    }
+
+    private final static HandlerWithErrno<Long> SENDTO_HANDLE = new HandlerWithErrno<>("sendto",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, POINTER, JAVA_LONG, JAVA_INT, POINTER, JAVA_INT));
+
+    public static final int MSG_DONTWAIT = 0x40;
+
+    /**
+     * Call the {@code sendto} syscall without data and address, used to wake up the kernel
+     */
+    public static ResultAndErr<Long> sendEmpty(int fd, int flags) {
+        return SENDTO_HANDLE.call(fd, MemorySegment.NULL, 0L, flags, MemorySegment.NULL, 0);
+    }
+
+    private final static HandlerWithErrno<Long> RECVFROM_HANDLE = new HandlerWithErrno<>("recvfrom",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, POINTER, JAVA_LONG, JAVA_INT, POINTER, POINTER));
+
+    /**
+     * Call the {@code recvfrom} syscall without buffer and address, used to wake up the kernel
+     */
+    public static ResultAndErr<Long> receiveEmpty(int fd, int flags) {
+        return RECVFROM_HANDLE.call(fd, MemorySegment.NULL, 0L, flags, MemorySegment.NULL, MemorySegment.NULL);
+    }
+
+    public static final int PROT_READ = 1;
+    public static final int PROT_WRITE = 2;
+    public static final int MAP_SHARED = 1;
+    public static final int MAP_POPULATE = 0x8000;
+
+    private final static HandlerWithErrno<MemorySegment> MMAP_HANDLE = new HandlerWithErrno<>("mmap",
+            FunctionDescriptor.of(POINTER, POINTER, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG));
+
+    /**
+     * Call the {@code mmap} syscall to map a file descriptor into memory
+     *
+     * @return mapped segment of the given length, or {@code MAP_FAILED} (address -1) with the errno
+     */
+    public static ResultAndErr<MemorySegment> mmap(long length, int prot, int flags, int fd, long offset) {
+        var res = MMAP_HANDLE.call(MemorySegment.NULL, length, prot, flags, fd, offset);
+        return new ResultAndErr<>(res.result().reinterpret(length), res.err());
+    }
+
+    private final static HandlerWithErrno<Integer> MUNMAP_HANDLE = new HandlerWithErrno<>("munmap",
+            FunctionDescriptor.of(JAVA_INT, POINTER, JAVA_LONG));
+
+    /**
+     * Call the {@code munmap} syscall to unmap a segment mapped via {@link #mmap(long, int, int, int, long)}
+     */
+    public static ResultAndErr<Integer> munmap(MemorySegment segment) {
+        return MUNMAP_HANDLE.call(segment, segment.byteSize());
+    }
+
     private static final GroupLayout RLIMIT_LAYOUT = MemoryLayout.structLayout(
             JAVA_LONG.withName("rlim_cur"), // Current (soft) limit
             JAVA_LONG.withName("rlim_max")  // Maximum (hard) limit
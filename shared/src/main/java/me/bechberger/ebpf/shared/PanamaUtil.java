@@ -67,6 +67,26 @@ public class PanamaUtil {
      */
     public static final int ERRNO_EINVAL = 22;
 
+    /**
+     * errno value for "File exists"
+     */
+    public static final int ERRNO_EEXIST = 17;
+
+    /**
+     * errno value for "No space left on device"
+     */
+    public static final int ERRNO_ENOSPC = 28;
+
+    /**
+     * errno value for "Operation not supported"
+     */
+    public static final int ERRNO_EOPNOTSUPP = 95;
+
+    /**
+     * Kernel-internal errno value for "Operation not supported", returned by some BPF commands
+     */
+    public static final int ERRNO_ENOTSUPP = 524;
+
     /**
      * Allocate a string or NULL in the given arena
      */
@@ -100,6 +120,17 @@ public class PanamaUtil {
                             Linker.Option.captureCallState("errno"));
         }
 
+        /**
+         * Handle for a variadic function, like {@code syscall}
+         *
+         * @param firstVariadicArg index of the first variadic argument in the descriptor
+         */
+        public HandlerWithErrno(String symbol, FunctionDescriptor descriptor, int firstVariadicArg) {
+            handleSupplier = () -> Linker.nativeLinker()
+                    .downcallHandle(PanamaUtil.lookup(symbol), descriptor,
+                            Linker.Option.captureCallState("errno"), Linker.Option.firstVariadicArg(firstVariadicArg));
+        }
+
         private MethodHandle getHandle() {
             if (handle == null) {
                 handle = handleSupplier.get();